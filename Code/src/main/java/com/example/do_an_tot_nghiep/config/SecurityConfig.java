@@ -53,6 +53,7 @@ public class SecurityConfig {
 
                         // Frontend pages - PUBLIC (không cần đăng nhập)
                         .requestMatchers("/", "/home", "/products", "/products/**", "/cart", "/cart/**").permitAll()
+                        .requestMatchers("/api/products/suggest").permitAll()
                         .requestMatchers("/promotions", "/promotions/**", "/support").permitAll()
 
                         // Contact - PUBLIC (ai cũng gửi được tin nhắn)
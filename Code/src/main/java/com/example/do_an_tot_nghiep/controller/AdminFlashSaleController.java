@@ -0,0 +1,60 @@
+package com.example.do_an_tot_nghiep.controller;
+
+import com.example.do_an_tot_nghiep.service.FlashSaleService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bật / tắt chế độ flash sale cho sản phẩm và xem số suất còn lại
+ */
+@RestController
+@RequestMapping("/admin/api/flash-sales")
+@RequiredArgsConstructor
+public class AdminFlashSaleController {
+
+    private final FlashSaleService flashSaleService;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> list() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", flashSaleService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping("/{deviceId}/start")
+    public ResponseEntity<?> start(@PathVariable String deviceId, @RequestParam Integer quantity) {
+        try {
+            flashSaleService.start(deviceId, quantity);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đã bật flash sale với " + quantity + " suất"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/{deviceId}/stop")
+    public ResponseEntity<?> stop(@PathVariable String deviceId) {
+        try {
+            flashSaleService.stop(deviceId);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đã tắt flash sale, tồn kho sẽ được chốt sau khi các đơn đang xử lý hoàn tất"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+}
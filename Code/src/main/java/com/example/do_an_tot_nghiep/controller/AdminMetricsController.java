@@ -0,0 +1,50 @@
+package com.example.do_an_tot_nghiep.controller;
+
+import com.example.do_an_tot_nghiep.service.ExpiredVNPayOrderSweeper;
+import com.example.do_an_tot_nghiep.service.LoyaltyLedgerService;
+import com.example.do_an_tot_nghiep.service.ViewCountBuffer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Số liệu vận hành nội bộ (bộ đệm, tác vụ nền) cho trang quản trị
+ */
+@RestController
+@RequestMapping("/admin/api/metrics")
+@RequiredArgsConstructor
+public class AdminMetricsController {
+
+    private final ViewCountBuffer viewCountBuffer;
+    private final LoyaltyLedgerService loyaltyLedgerService;
+    private final ExpiredVNPayOrderSweeper expiredVNPayOrderSweeper;
+
+    @GetMapping("/view-counts")
+    public ResponseEntity<Map<String, Object>> viewCounts() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", viewCountBuffer.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/vnpay-sweeper")
+    public ResponseEntity<Map<String, Object>> vnpaySweeper() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", expiredVNPayOrderSweeper.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/loyalty-ledger")
+    public ResponseEntity<Map<String, Object>> loyaltyLedger() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", loyaltyLedgerService.getStats());
+        return ResponseEntity.ok(response);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.do_an_tot_nghiep.controller;
+
+import com.example.do_an_tot_nghiep.dto.PriceScheduleRequest;
+import com.example.do_an_tot_nghiep.service.PriceScheduleService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lịch đổi giá: tạo hàng loạt (nhiều sản phẩm một lần), hủy lịch, xem mốc chuyển giá kế tiếp
+ */
+@RestController
+@RequestMapping("/admin/api/price-schedules")
+@RequiredArgsConstructor
+public class AdminPriceScheduleController {
+
+    private final PriceScheduleService priceScheduleService;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", priceScheduleService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping
+    public ResponseEntity<?> schedule(@RequestBody List<PriceScheduleRequest> requests) {
+        try {
+            int created = priceScheduleService.schedule(requests);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đã tạo " + created + " lịch đổi giá"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<?> cancel(@PathVariable Integer id) {
+        try {
+            priceScheduleService.cancel(id);
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đã hủy lịch đổi giá"
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", e.getMessage()
+            ));
+        }
+    }
+}
@@ -3,7 +3,9 @@ package com.example.do_an_tot_nghiep.controller;
 import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.service.PromotionService;
 import com.example.do_an_tot_nghiep.repository.*;
+import com.example.do_an_tot_nghiep.service.CatalogChangedEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -37,6 +39,9 @@ public class AdminPromotionController {
     @Autowired
     private IPromotionUsageRepository promotionUsageRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
 
     /**
@@ -227,6 +232,9 @@ public class AdminPromotionController {
                 }
             }
 
+            eventPublisher.publishEvent(CatalogChangedEvent.of(
+                    CatalogChangedEvent.Type.PROMOTION, savedPromotion.getPromotionId()));
+
             redirectAttributes.addFlashAttribute("success",
                     promotion.getPromotionId() == null ?
                             "Tạo khuyến mãi thành công!" :
@@ -297,6 +305,7 @@ public class AdminPromotionController {
             Promotion promotion = promotionOpt.get();
             promotion.setIsActive(!promotion.getIsActive());
             promotionRepository.save(promotion);
+            eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PROMOTION, id));
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
@@ -343,6 +352,7 @@ public class AdminPromotionController {
 
             // Delete promotion
             promotionRepository.delete(promotion);
+            eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PROMOTION, id));
             redirectAttributes.addFlashAttribute("success", "Xóa khuyến mãi thành công!");
 
         } catch (Exception e) {
@@ -1,10 +1,14 @@
 package com.example.do_an_tot_nghiep.controller;
 
 import com.example.do_an_tot_nghiep.dto.CustomerDTO;
+import com.example.do_an_tot_nghiep.dto.PricedCart;
 import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.repository.*;
 import com.example.do_an_tot_nghiep.security.CustomerUserDetails;
 import com.example.do_an_tot_nghiep.security.CustomOAuth2User;
+import com.example.do_an_tot_nghiep.service.CartMergeService;
+import com.example.do_an_tot_nghiep.service.CartPricingEngine;
+import com.example.do_an_tot_nghiep.service.ProductAssociationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -13,7 +17,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.math.BigDecimal;
 import java.util.*;
 
 @Controller
@@ -33,7 +36,13 @@ public class CartController {
     private ICustomerAddressRepository customerAddressRepository;
 
     @Autowired
-    private IPromotionRepository promotionRepository;
+    private ProductAssociationService productAssociationService;
+
+    @Autowired
+    private CartPricingEngine cartPricingEngine;
+
+    @Autowired
+    private CartMergeService cartMergeService;
 
     /**
      * Hiển thị trang giỏ hàng
@@ -44,24 +53,26 @@ public class CartController {
             Customer customer = getCurrentCustomer();
 
             if (customer != null) {
-                // Khách hàng đã đăng nhập - Lấy giỏ hàng từ database
-                List<Cart> cartItems = cartRepository.findByCustomer(customer);
-
-                // Tính tổng tiền
-                BigDecimal subtotal = calculateSubtotal(cartItems);
-                BigDecimal shippingFee = calculateShippingFee(subtotal);
-                BigDecimal total = subtotal.add(shippingFee);
+                // Khách hàng đã đăng nhập - Giỏ hàng đã tính giá
+                PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), null, null);
 
                 // Lấy địa chỉ giao hàng
                 List<CustomerAddress> addresses = customerAddressRepository.findByCustomerOrderByDefault(customer);
                 CustomerAddress defaultAddress = addresses.isEmpty() ? null : addresses.get(0);
 
-                model.addAttribute("cartItems", cartItems);
+                // Gợi ý sản phẩm thường được mua cùng các sản phẩm trong giỏ
+                List<String> cartDeviceIds = pricedCart.getLines().stream()
+                        .map(PricedCart.Line::getDeviceId)
+                        .toList();
+                model.addAttribute("boughtTogether",
+                        productAssociationService.findRelatedDevices(cartDeviceIds, 4));
+
+                model.addAttribute("cartItems", pricedCart.getLines());
                 model.addAttribute("addresses", addresses);
                 model.addAttribute("defaultAddress", defaultAddress);
-                model.addAttribute("subtotal", subtotal);
-                model.addAttribute("shippingFee", shippingFee);
-                model.addAttribute("total", total);
+                model.addAttribute("subtotal", pricedCart.getSubtotal());
+                model.addAttribute("shippingFee", pricedCart.getShippingFee());
+                model.addAttribute("total", pricedCart.getTotal());
                 model.addAttribute("isLoggedIn", true);
                 model.addAttribute("customer", customer);
             } else {
@@ -120,6 +131,7 @@ public class CartController {
                 Cart cart = existingCart.get();
                 cart.setQuantity(cart.getQuantity() + quantity);
                 cartRepository.save(cart);
+                cartPricingEngine.invalidate(customer.getCustomerId());
 
                 return ResponseEntity.ok(Map.of(
                         "success", true,
@@ -134,6 +146,7 @@ public class CartController {
                         .quantity(quantity)
                         .build();
                 cartRepository.save(newCart);
+                cartPricingEngine.invalidate(customer.getCustomerId());
 
                 return ResponseEntity.ok(Map.of(
                         "success", true,
@@ -197,20 +210,18 @@ public class CartController {
 
             cart.setQuantity(quantity);
             cartRepository.save(cart);
+            cartPricingEngine.invalidate(customer.getCustomerId());
 
             // Tính lại tổng tiền
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
-            BigDecimal subtotal = calculateSubtotal(cartItems);
-            BigDecimal shippingFee = calculateShippingFee(subtotal);
-            BigDecimal total = subtotal.add(shippingFee);
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), null, null);
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
                     "message", "Đã cập nhật số lượng",
                     "quantity", quantity,
-                    "subtotal", subtotal,
-                    "shippingFee", shippingFee,
-                    "total", total
+                    "subtotal", pricedCart.getSubtotal(),
+                    "shippingFee", pricedCart.getShippingFee(),
+                    "total", pricedCart.getTotal()
             ));
 
         } catch (Exception e) {
@@ -248,20 +259,18 @@ public class CartController {
             }
 
             cartRepository.delete(cart);
+            cartPricingEngine.invalidate(customer.getCustomerId());
 
             // Tính lại tổng tiền
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
-            BigDecimal subtotal = calculateSubtotal(cartItems);
-            BigDecimal shippingFee = calculateShippingFee(subtotal);
-            BigDecimal total = subtotal.add(shippingFee);
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), null, null);
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
                     "message", "Đã xóa sản phẩm khỏi giỏ hàng",
-                    "cartCount", cartItems.size(),
-                    "subtotal", subtotal,
-                    "shippingFee", shippingFee,
-                    "total", total
+                    "cartCount", pricedCart.getItemCount(),
+                    "subtotal", pricedCart.getSubtotal(),
+                    "shippingFee", pricedCart.getShippingFee(),
+                    "total", pricedCart.getTotal()
             ));
 
         } catch (Exception e) {
@@ -290,40 +299,23 @@ public class CartController {
                 ));
             }
 
-            int addedCount = 0;
-            int updatedCount = 0;
-
+            // Gộp cả giỏ trong một lần (số truy vấn không phụ thuộc số sản phẩm)
+            Map<String, Integer> quantities = new LinkedHashMap<>();
             for (Map<String, Object> item : sessionCartItems) {
-                String deviceId = (String) item.get("id");
-                Integer quantity = (Integer) item.get("quantity");
-
-                MedicalDevice device = medicalDeviceRepository.findById(deviceId).orElse(null);
-                if (device == null) continue;
-
-                Optional<Cart> existingCart = cartRepository.findByCustomerAndDevice(customer, device);
-
-                if (existingCart.isPresent()) {
-                    Cart cart = existingCart.get();
-                    cart.setQuantity(cart.getQuantity() + quantity);
-                    cartRepository.save(cart);
-                    updatedCount++;
-                } else {
-                    Cart newCart = Cart.builder()
-                            .customer(customer)
-                            .device(device)
-                            .quantity(quantity)
-                            .build();
-                    cartRepository.save(newCart);
-                    addedCount++;
+                if (item.get("id") instanceof String deviceId && item.get("quantity") instanceof Number quantity) {
+                    quantities.merge(deviceId, quantity.intValue(), Integer::sum);
                 }
             }
+            CartMergeService.MergeResult result = cartMergeService.merge(customer.getCustomerId(), quantities);
+            int addedCount = result.added();
+            int updatedCount = result.updated();
 
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), null, null);
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
                     "message", "Đã đồng bộ giỏ hàng: " + addedCount + " mới, " + updatedCount + " cập nhật",
-                    "cartCount", cartItems.size()
+                    "cartCount", pricedCart.getItemCount()
             ));
 
         } catch (Exception e) {
@@ -353,49 +345,26 @@ public class CartController {
                 ));
             }
 
-            // Tìm mã giảm giá (đã check active và thời gian)
-            Promotion promotion = promotionRepository.findByCode(couponCode, java.time.LocalDateTime.now());
-
-            if (promotion == null) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "success", false,
-                        "message", "Mã giảm giá không tồn tại hoặc đã hết hạn"
-                ));
-            }
-
-            // Kiểm tra giới hạn sử dụng
-            if (promotion.getUsageLimit() != null &&
-                    promotion.getUsedCount() != null &&
-                    promotion.getUsedCount() >= promotion.getUsageLimit()) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "success", false,
-                        "message", "Mã giảm giá đã hết lượt sử dụng"
-                ));
-            }
-
-            // Tính giảm giá
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
-            BigDecimal subtotal = calculateSubtotal(cartItems);
+            // Kiểm tra mã (thời gian, hạng khách, lượt dùng, đơn tối thiểu) và tính giảm giá
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), couponCode, null);
 
-            if (subtotal.compareTo(promotion.getMinOrderAmount()) < 0) {
+            if (!pricedCart.isPromotionApplied()) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "success", false,
-                        "message", "Đơn hàng tối thiểu " + promotion.getMinOrderAmount() + " đ"
+                        "message", pricedCart.getPromotionMessage() != null
+                                ? pricedCart.getPromotionMessage()
+                                : "Vui lòng nhập mã giảm giá"
                 ));
             }
 
-            BigDecimal discountAmount = calculateDiscount(subtotal, promotion);
-            BigDecimal shippingFee = promotion.getDiscountType() == Promotion.DiscountType.FreeShip ?
-                    BigDecimal.ZERO : calculateShippingFee(subtotal);
-            BigDecimal total = subtotal.subtract(discountAmount).add(shippingFee);
-
             return ResponseEntity.ok(Map.of(
                     "success", true,
                     "message", "Đã áp dụng mã giảm giá",
-                    "promotionId", promotion.getPromotionId(),
-                    "discountAmount", discountAmount,
-                    "shippingFee", shippingFee,
-                    "total", total
+                    "promotionId", pricedCart.getPromotionId(),
+                    "discountAmount", pricedCart.getPromotionDiscount(),
+                    "subtotal", pricedCart.getSubtotal(),
+                    "shippingFee", pricedCart.getShippingFee(),
+                    "total", pricedCart.getTotal()
             ));
 
         } catch (Exception e) {
@@ -441,60 +410,4 @@ public class CartController {
             return null;
         }
     }
-
-    /**
-     * Tính tổng tiền giỏ hàng (subtotal)
-     */
-    private BigDecimal calculateSubtotal(List<Cart> cartItems) {
-        return cartItems.stream()
-                .map(cart -> {
-                    MedicalDevice device = cart.getDevice();
-                    BigDecimal price = device.getPrice();
-
-                    // Áp dụng giảm giá của sản phẩm
-                    if (device.getDiscountPercent() != null && device.getDiscountPercent() > 0) {
-                        BigDecimal discount = price.multiply(
-                                BigDecimal.valueOf(device.getDiscountPercent()).divide(BigDecimal.valueOf(100))
-                        );
-                        price = price.subtract(discount);
-                    }
-
-                    return price.multiply(BigDecimal.valueOf(cart.getQuantity()));
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-    }
-
-    /**
-     * Tính phí vận chuyển
-     */
-    private BigDecimal calculateShippingFee(BigDecimal subtotal) {
-        // Miễn phí ship với đơn >= 500,000đ
-        if (subtotal.compareTo(BigDecimal.valueOf(500000)) >= 0) {
-            return BigDecimal.ZERO;
-        }
-        return BigDecimal.valueOf(30000); // Phí ship mặc định
-    }
-
-    /**
-     * Tính số tiền giảm từ promotion
-     */
-    private BigDecimal calculateDiscount(BigDecimal subtotal, Promotion promotion) {
-        BigDecimal discount = BigDecimal.ZERO;
-
-        if (promotion.getDiscountType() == Promotion.DiscountType.Percent) {
-            discount = subtotal.multiply(
-                    promotion.getDiscountValue().divide(BigDecimal.valueOf(100))
-            );
-
-            // Giới hạn giảm tối đa
-            if (promotion.getMaxDiscountAmount() != null &&
-                    discount.compareTo(promotion.getMaxDiscountAmount()) > 0) {
-                discount = promotion.getMaxDiscountAmount();
-            }
-        } else if (promotion.getDiscountType() == Promotion.DiscountType.Fixed) {
-            discount = promotion.getDiscountValue();
-        }
-
-        return discount;
-    }
-}
\ No newline at end of file
+}
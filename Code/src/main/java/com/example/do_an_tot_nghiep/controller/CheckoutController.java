@@ -23,8 +23,8 @@ import java.util.stream.Collectors;
 @RequestMapping("/checkout")
 public class CheckoutController {
 
-    @Autowired
-    private ICartRepository cartRepository;
+    // Khóa dùng khi client không gửi Idempotency-Key: chỉ chặn các lần đặt đang chạy song song
+    private static final String IN_FLIGHT_KEY = "IN_FLIGHT";
 
     @Autowired
     private ICustomerRepository customerRepository;
@@ -41,11 +41,16 @@ public class CheckoutController {
     @Autowired
     private CustomerService customerService;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private CartPricingEngine cartPricingEngine;
+
     // ==================== HIỂN THỊ TRANG CHECKOUT ====================
     @GetMapping({"", "/"})
     public String showCheckout(
             @RequestParam(required = false) String promoCode,
-            @RequestParam(required = false) Double discountAmount,
             Model model,
             HttpSession session) {
         try {
@@ -55,45 +60,25 @@ public class CheckoutController {
                 return "redirect:/login?returnUrl=/checkout";
             }
 
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
+            // ✅ MÃ GIẢM GIÁ: ưu tiên param, sau đó session; số tiền giảm luôn do server tính
+            String appliedPromoCode = promoCode != null && !promoCode.isBlank()
+                    ? promoCode.trim()
+                    : (String) session.getAttribute("promoCode");
 
-            if (cartItems.isEmpty()) {
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), appliedPromoCode, null);
+
+            if (pricedCart.isEmpty()) {
                 model.addAttribute("errorMessage", "Giỏ hàng của bạn đang trống!");
                 return "redirect:/cart";
             }
 
-            // Tính toán tổng tiền
-            BigDecimal subtotal = calculateSubtotal(cartItems);
-            BigDecimal shippingFee = orderService.calculateShippingFee(subtotal);
-
-            // ✅ LẤY MÃ GIẢM GIÁ TỪ SESSION HOẶC PARAM
-            String appliedPromoCode = promoCode;
-            BigDecimal appliedDiscount = BigDecimal.ZERO;
-
-            // Ưu tiên lấy từ param trước
-            if (appliedPromoCode == null && session.getAttribute("promoCode") != null) {
-                appliedPromoCode = (String) session.getAttribute("promoCode");
-            }
-
-            // Xử lý discount amount
-            if (discountAmount != null && discountAmount > 0) {
-                appliedDiscount = BigDecimal.valueOf(discountAmount);
-                // Lưu vào session để giữ khi reload
-                session.setAttribute("promoCode", appliedPromoCode);
-                session.setAttribute("discountAmount", appliedDiscount);
-            } else if (session.getAttribute("discountAmount") != null) {
-                Object sessionDiscount = session.getAttribute("discountAmount");
-                if (sessionDiscount instanceof BigDecimal) {
-                    appliedDiscount = (BigDecimal) sessionDiscount;
-                } else if (sessionDiscount instanceof Double) {
-                    appliedDiscount = BigDecimal.valueOf((Double) sessionDiscount);
-                }
-            }
-
-            BigDecimal total = subtotal.add(shippingFee).subtract(appliedDiscount);
-            if (total.compareTo(BigDecimal.ZERO) < 0) {
-                total = BigDecimal.ZERO;
+            // Mã không còn dùng được (hết hạn, hết lượt, chưa đủ tối thiểu...) thì bỏ khỏi session
+            if (pricedCart.isPromotionApplied()) {
+                session.setAttribute("promoCode", pricedCart.getPromotionCode());
+            } else {
+                session.removeAttribute("promoCode");
             }
+            BigDecimal subtotal = pricedCart.getSubtotal();
 
             // Lấy danh sách địa chỉ
             List<CustomerAddress> addresses = customerAddressRepository
@@ -109,14 +94,14 @@ public class CheckoutController {
                     .collect(Collectors.toList());
 
             // Add attributes to model
-            model.addAttribute("cartItems", cartItems);
+            model.addAttribute("cartItems", pricedCart.getLines());
             model.addAttribute("addresses", addresses);
             model.addAttribute("defaultAddress", defaultAddress);
             model.addAttribute("subtotal", subtotal);
-            model.addAttribute("shippingFee", shippingFee);
-            model.addAttribute("discountAmount", appliedDiscount);
-            model.addAttribute("appliedPromoCode", appliedPromoCode);
-            model.addAttribute("total", total);
+            model.addAttribute("shippingFee", pricedCart.getShippingFee());
+            model.addAttribute("discountAmount", pricedCart.getPromotionDiscount());
+            model.addAttribute("appliedPromoCode", pricedCart.getPromotionCode());
+            model.addAttribute("total", pricedCart.getTotal());
             model.addAttribute("customer", customer);
             model.addAttribute("availablePromotions", availablePromotions);
             model.addAttribute("title", "Thanh toán - Vật Tư Y Tế ABC");
@@ -134,7 +119,8 @@ public class CheckoutController {
     // ==================== API: TẠO ĐƠN HÀNG ====================
     @PostMapping("/place-order")
     @ResponseBody
-    public ResponseEntity<?> placeOrder(@RequestBody CheckoutRequest request) {
+    public ResponseEntity<?> placeOrder(@RequestBody CheckoutRequest request,
+                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         try {
             Customer customer = getCurrentCustomer();
 
@@ -174,64 +160,76 @@ public class CheckoutController {
                 ));
             }
 
-            // Lấy giỏ hàng
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
-
-            if (cartItems.isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of(
+            // Chống đặt trùng (bấm 2 lần, trình duyệt gửi lại): kiểm tra khóa trước khi đọc giỏ hàng,
+            // vì đặt thành công thì giỏ đã trống và request lặp lại phải nhận lại đơn cũ.
+            // Khóa do client gửi giữ kết quả DEFAULT_TTL. Thiếu khóa thì chỉ chặn request đồng thời
+            // của cùng khách (khóa IN_PROGRESS theo khách, nhả ngay khi xong): không suy ra khóa từ
+            // thông tin đặt hàng vì hai đơn thật liên tiếp (giỏ khác nhau) sẽ bị coi là một.
+            // Gửi lại sau khi đã đặt xong thì giỏ đã trống nên không tạo thêm đơn
+            boolean clientKey = idempotencyKey != null && !idempotencyKey.isBlank();
+            String idemKey = IdempotencyService.key("CHECKOUT:" + customer.getCustomerId(),
+                    clientKey ? idempotencyKey.trim() : IN_FLIGHT_KEY);
+            IdempotencyService.Claim claim = idempotencyService.claim(idemKey);
+            if (claim.status() == IdempotencyService.Status.COMPLETED && claim.resultId() != null) {
+                return placeOrderResponse(orderService.getOrderById(claim.resultId()));
+            }
+            if (claim.status() != IdempotencyService.Status.CLAIMED) {
+                return ResponseEntity.status(409).body(Map.of(
                         "success", false,
-                        "message", "Giỏ hàng của bạn đang trống"
+                        "message", "Đơn hàng đang được xử lý, vui lòng đợi trong giây lát"
                 ));
             }
 
-            // Tạo danh sách items cho OrderRequest
-            List<OrderItemRequest> orderItems = cartItems.stream()
-                    .map(cart -> {
-                        OrderItemRequest item = new OrderItemRequest();
-                        item.setDeviceId(cart.getDevice().getDeviceId());
-                        item.setQuantity(cart.getQuantity());
-                        return item;
-                    })
-                    .collect(Collectors.toList());
+            OrderResponse orderResponse;
+            try {
+                // Lấy giỏ hàng
+                PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), null, null);
 
-            // Tạo OrderRequest
-            OrderRequest orderRequest = new OrderRequest();
-            orderRequest.setCustomerId(customer.getCustomerId());
-            orderRequest.setAddressId(request.getAddressId());
-            orderRequest.setReceiverName(request.getReceiverName());
-            orderRequest.setReceiverPhone(request.getReceiverPhone());
-            orderRequest.setReceiverAddress(request.getReceiverAddress());
-            orderRequest.setPaymentMethod(request.getPaymentMethod());
-            orderRequest.setPromotionCode(request.getPromotionCode());
-            orderRequest.setLoyaltyPointsUsed(request.getLoyaltyPointsUsed());
-            orderRequest.setNote(request.getNote());
-            orderRequest.setItems(orderItems);
-
-            // ✅ FIX: Tạo đơn hàng với trạng thái PENDING và UNPAID
-            OrderResponse orderResponse = orderService.createOrder(orderRequest);
-
-            // ✅ QUAN TRỌNG: Kiểm tra payment method
-            if ("VNPAY".equals(request.getPaymentMethod())) {
-                // Đối với VNPay, chỉ trả về orderId để redirect sang trang thanh toán
-                // KHÔNG đánh dấu là thành công ở đây!
-                return ResponseEntity.ok(Map.of(
-                        "success", true,
-                        "message", "Đã tạo đơn hàng. Chuyển sang trang thanh toán...",
-                        "orderId", orderResponse.getOrderId(),
-                        "orderCode", orderResponse.getOrderCode(),
-                        "paymentMethod", "VNPAY"
-                ));
+                if (pricedCart.isEmpty()) {
+                    idempotencyService.release(idemKey);
+                    return ResponseEntity.badRequest().body(Map.of(
+                            "success", false,
+                            "message", "Giỏ hàng của bạn đang trống"
+                    ));
+                }
+
+                // Tạo danh sách items cho OrderRequest
+                List<OrderItemRequest> orderItems = pricedCart.getLines().stream()
+                        .map(line -> {
+                            OrderItemRequest item = new OrderItemRequest();
+                            item.setDeviceId(line.getDeviceId());
+                            item.setQuantity(line.getQuantity());
+                            return item;
+                        })
+                        .collect(Collectors.toList());
+
+                // Tạo OrderRequest
+                OrderRequest orderRequest = new OrderRequest();
+                orderRequest.setCustomerId(customer.getCustomerId());
+                orderRequest.setAddressId(request.getAddressId());
+                orderRequest.setReceiverName(request.getReceiverName());
+                orderRequest.setReceiverPhone(request.getReceiverPhone());
+                orderRequest.setReceiverAddress(request.getReceiverAddress());
+                orderRequest.setPaymentMethod(request.getPaymentMethod());
+                orderRequest.setPromotionCode(request.getPromotionCode());
+                orderRequest.setLoyaltyPointsUsed(request.getLoyaltyPointsUsed());
+                orderRequest.setNote(request.getNote());
+                orderRequest.setItems(orderItems);
+
+                // ✅ FIX: Tạo đơn hàng với trạng thái PENDING và UNPAID
+                orderResponse = orderService.createOrder(orderRequest);
+            } catch (RuntimeException e) {
+                idempotencyService.release(idemKey);
+                throw e;
+            }
+            if (clientKey) {
+                idempotencyService.complete(idemKey, orderResponse.getOrderId());
             } else {
-                // Đối với COD, đơn hàng thành công ngay
-                return ResponseEntity.ok(Map.of(
-                        "success", true,
-                        "message", "Đặt hàng thành công!",
-                        "orderId", orderResponse.getOrderId(),
-                        "orderCode", orderResponse.getOrderCode(),
-                        "paymentMethod", "COD"
-                ));
+                idempotencyService.release(idemKey);
             }
 
+            return placeOrderResponse(orderResponse);
+
         } catch (Exception e) {
             System.err.println("Error placing order: " + e.getMessage());
             e.printStackTrace();
@@ -242,6 +240,33 @@ public class CheckoutController {
         }
     }
 
+    /**
+     * Kết quả đặt hàng (dùng chung cho lần đặt đầu tiên và request lặp lại)
+     */
+    private ResponseEntity<?> placeOrderResponse(OrderResponse orderResponse) {
+        // ✅ QUAN TRỌNG: Kiểm tra payment method
+        if ("VNPAY".equals(orderResponse.getPaymentMethod())) {
+            // Đối với VNPay, chỉ trả về orderId để redirect sang trang thanh toán
+            // KHÔNG đánh dấu là thành công ở đây!
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đã tạo đơn hàng. Chuyển sang trang thanh toán...",
+                    "orderId", orderResponse.getOrderId(),
+                    "orderCode", orderResponse.getOrderCode(),
+                    "paymentMethod", "VNPAY"
+            ));
+        } else {
+            // Đối với COD, đơn hàng thành công ngay
+            return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "Đặt hàng thành công!",
+                    "orderId", orderResponse.getOrderId(),
+                    "orderCode", orderResponse.getOrderCode(),
+                    "paymentMethod", "COD"
+            ));
+        }
+    }
+
     // ==================== API: THÊM ĐỊA CHỈ MỚI ====================
     @PostMapping("/add-address")
     @ResponseBody
@@ -318,23 +343,6 @@ public class CheckoutController {
         try {
             String couponCode = (String) request.get("code");
 
-            // ✅ FIX: Xử lý cả Integer và Double
-            Object orderAmountObj = request.get("orderAmount");
-            BigDecimal orderAmount;
-
-            if (orderAmountObj instanceof Integer) {
-                orderAmount = BigDecimal.valueOf(((Integer) orderAmountObj).doubleValue());
-            } else if (orderAmountObj instanceof Double) {
-                orderAmount = BigDecimal.valueOf((Double) orderAmountObj);
-            } else if (orderAmountObj instanceof String) {
-                orderAmount = new BigDecimal((String) orderAmountObj);
-            } else {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "success", false,
-                        "message", "Số tiền không hợp lệ"
-                ));
-            }
-
             Customer customer = getCurrentCustomer();
 
             if (customer == null) {
@@ -344,28 +352,29 @@ public class CheckoutController {
                 ));
             }
 
-            PromotionApplyResponse promoResponse = promotionService.applyPromotion(
-                    couponCode,
-                    customer.getCustomerId(),
-                    orderAmount
-            );
+            // Giá trị đơn lấy từ giỏ hàng trên server, không tin số tiền client gửi lên
+            PricedCart pricedCart = cartPricingEngine.price(customer.getCustomerId(), couponCode, null);
 
-            if (!promoResponse.getSuccess()) {
+            if (!pricedCart.isPromotionApplied()) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "success", false,
-                        "message", promoResponse.getMessage()
+                        "message", pricedCart.getPromotionMessage() != null
+                                ? pricedCart.getPromotionMessage()
+                                : "Vui lòng nhập mã giảm giá"
                 ));
             }
 
-            // ✅ LƯU VÀO SESSION để giữ khi chuyển trang
-            session.setAttribute("promoCode", couponCode);
-            session.setAttribute("discountAmount", promoResponse.getDiscountAmount());
+            // ✅ Chỉ lưu mã vào session; số tiền giảm tính lại mỗi lần từ giỏ hàng
+            session.setAttribute("promoCode", pricedCart.getPromotionCode());
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
-                    "message", promoResponse.getMessage(),
-                    "discountAmount", promoResponse.getDiscountAmount(),
-                    "promotionId", promoResponse.getPromotionId()
+                    "message", "Áp dụng thành công",
+                    "discountAmount", pricedCart.getPromotionDiscount(),
+                    "promotionId", pricedCart.getPromotionId(),
+                    "subtotal", pricedCart.getSubtotal(),
+                    "shippingFee", pricedCart.getShippingFee(),
+                    "total", pricedCart.getTotal()
             ));
 
         } catch (Exception e) {
@@ -392,62 +401,34 @@ public class CheckoutController {
                 ));
             }
 
-            List<Cart> cartItems = cartRepository.findByCustomer(customer);
+            String promotionCode = (String) request.get("promotionCode");
+            Integer loyaltyPointsUsed = (Integer) request.get("loyaltyPointsUsed");
 
-            if (cartItems.isEmpty()) {
+            PricedCart pricedCart;
+            try {
+                pricedCart = cartPricingEngine.price(customer.getCustomerId(), promotionCode, loyaltyPointsUsed);
+            } catch (IllegalArgumentException e) {
+                // Dùng quá số điểm đang có
                 return ResponseEntity.badRequest().body(Map.of(
                         "success", false,
-                        "message", "Giỏ hàng trống"
+                        "message", e.getMessage()
                 ));
             }
 
-            BigDecimal subtotal = calculateSubtotal(cartItems);
-            BigDecimal shippingFee = orderService.calculateShippingFee(subtotal);
-
-            // Tính giảm giá nếu có
-            BigDecimal discountAmount = BigDecimal.ZERO;
-            String promotionCode = (String) request.get("promotionCode");
-
-            if (promotionCode != null && !promotionCode.isEmpty()) {
-                PromotionApplyResponse promoResponse = promotionService.applyPromotion(
-                        promotionCode,
-                        customer.getCustomerId(),
-                        subtotal
-                );
-
-                if (promoResponse.getSuccess()) {
-                    discountAmount = promoResponse.getDiscountAmount();
-                }
-            }
-
-            // Tính giảm giá từ điểm tích lũy
-            BigDecimal loyaltyDiscount = BigDecimal.ZERO;
-            Integer loyaltyPointsUsed = (Integer) request.get("loyaltyPointsUsed");
-
-            if (loyaltyPointsUsed != null && loyaltyPointsUsed > 0) {
-                if (loyaltyPointsUsed > customer.getLoyaltyPoints()) {
-                    return ResponseEntity.badRequest().body(Map.of(
-                            "success", false,
-                            "message", "Bạn chỉ có " + customer.getLoyaltyPoints() + " điểm"
-                    ));
-                }
-
-                loyaltyDiscount = BigDecimal.valueOf(loyaltyPointsUsed * 1000);
-            }
-
-            BigDecimal total = subtotal.add(shippingFee).subtract(discountAmount).subtract(loyaltyDiscount);
-
-            if (total.compareTo(BigDecimal.ZERO) < 0) {
-                total = BigDecimal.ZERO;
+            if (pricedCart.isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "success", false,
+                        "message", "Giỏ hàng trống"
+                ));
             }
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
-                    "subtotal", subtotal,
-                    "shippingFee", shippingFee,
-                    "discountAmount", discountAmount,
-                    "loyaltyDiscount", loyaltyDiscount,
-                    "total", total
+                    "subtotal", pricedCart.getSubtotal(),
+                    "shippingFee", pricedCart.getShippingFee(),
+                    "discountAmount", pricedCart.getPromotionDiscount(),
+                    "loyaltyDiscount", pricedCart.getLoyaltyDiscount(),
+                    "total", pricedCart.getTotal()
             ));
 
         } catch (Exception e) {
@@ -489,28 +470,6 @@ public class CheckoutController {
         }
     }
 
-    /**
-     * ✅ Tính tổng tiền giỏ hàng (subtotal) - ÁP DỤNG GIẢM GIÁ
-     */
-    private BigDecimal calculateSubtotal(List<Cart> cartItems) {
-        return cartItems.stream()
-                .map(cart -> {
-                    MedicalDevice device = cart.getDevice();
-                    BigDecimal price = device.getPrice();
-
-                    // ✅ Áp dụng giảm giá của sản phẩm
-                    if (device.getDiscountPercent() != null && device.getDiscountPercent() > 0) {
-                        BigDecimal discountMultiplier = BigDecimal.ONE
-                                .subtract(BigDecimal.valueOf(device.getDiscountPercent())
-                                        .divide(BigDecimal.valueOf(100)));
-                        price = price.multiply(discountMultiplier);
-                    }
-
-                    return price.multiply(BigDecimal.valueOf(cart.getQuantity()));
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-    }
-
     private String buildFullAddress(CustomerAddress address) {
         StringBuilder fullAddress = new StringBuilder(address.getAddress());
 
@@ -1,5 +1,6 @@
 package com.example.do_an_tot_nghiep.controller;
 
+import com.example.do_an_tot_nghiep.dto.OrderHistoryPage;
 import com.example.do_an_tot_nghiep.dto.OrderResponse;
 import com.example.do_an_tot_nghiep.model.Customer;
 import com.example.do_an_tot_nghiep.model.Order;
@@ -7,6 +8,7 @@ import com.example.do_an_tot_nghiep.repository.ICustomerRepository;
 import com.example.do_an_tot_nghiep.repository.IOrderRepository;
 import com.example.do_an_tot_nghiep.security.CustomerUserDetails;
 import com.example.do_an_tot_nghiep.security.CustomOAuth2User;
+import com.example.do_an_tot_nghiep.service.CartMergeService;
 import com.example.do_an_tot_nghiep.service.OrderService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -16,8 +18,9 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @Controller
 public class CustomerOrderController {
@@ -31,6 +34,9 @@ public class CustomerOrderController {
     @Autowired
     private ICustomerRepository customerRepository;
 
+    @Autowired
+    private CartMergeService cartMergeService;
+
     // ==================== HIỂN THỊ TRANG ĐƠN HÀNG ====================
     @GetMapping("/my-orders")
     public String showMyOrders(Model model) {
@@ -48,7 +54,9 @@ public class CustomerOrderController {
     // ==================== API: LẤY DANH SÁCH ĐƠN HÀNG ====================
     @GetMapping("/api/customer/orders")
     @ResponseBody
-    public ResponseEntity<?> getCustomerOrders() {
+    public ResponseEntity<?> getCustomerOrders(@RequestParam(required = false) String cursor,
+                                               @RequestParam(required = false) String status,
+                                               @RequestParam(defaultValue = "10") int size) {
         try {
             Customer customer = getCurrentCustomer();
 
@@ -59,14 +67,22 @@ public class CustomerOrderController {
                 ));
             }
 
-            // ✅ Sử dụng method có sẵn trong OrderService
-            List<OrderResponse> orders = orderService.getCustomerOrders(customer.getCustomerId());
+            // ✅ Phân trang keyset: mỗi lần một trang, trang sau theo cursor
+            OrderHistoryPage page = orderService.getCustomerOrderHistory(
+                    customer.getCustomerId(), status, cursor, size);
 
-            return ResponseEntity.ok(Map.of(
-                    "success", true,
-                    "orders", orders
-            ));
+            Map<String, Object> body = new HashMap<>();
+            body.put("success", true);
+            body.put("orders", page.getOrders());
+            body.put("nextCursor", page.getNextCursor());
+            body.put("hasMore", page.isHasMore());
+            return ResponseEntity.ok(body);
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "Tham số không hợp lệ"
+            ));
         } catch (Exception e) {
             System.err.println("Error getting orders: " + e.getMessage());
             e.printStackTrace();
@@ -110,11 +126,14 @@ public class CustomerOrderController {
                 ));
             }
 
-            // ✅ Sử dụng method có sẵn trong OrderService
-            orderService.updateStatus(orderId, Order.OrderStatus.CANCELLED);
-
-            // ✅ Hoàn lại kho
-            orderService.restoreStock(order);
+            // ✅ Hủy đơn: hoàn kho, hoàn điểm, trả lượt dùng mã khuyến mãi.
+            // Kiểm tra PENDING lại trên dòng đã khóa: nhân viên có thể vừa xác nhận đơn
+            if (!orderService.cancelOrder(orderId, Set.of(Order.OrderStatus.PENDING), "Khách hàng hủy đơn", null)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "success", false,
+                        "message", "Chỉ có thể hủy đơn hàng đang chờ xác nhận"
+                ));
+            }
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
@@ -156,12 +175,26 @@ public class CustomerOrderController {
                 ));
             }
 
-            // TODO: Implement logic thêm các sản phẩm trong đơn hàng vào giỏ hàng
-            // Bạn có thể tạo CartService.addOrderToCart(order, customer)
+            // ✅ Thêm toàn bộ sản phẩm của đơn vào giỏ (gộp với giỏ hiện có, giới hạn theo tồn kho)
+            CartMergeService.MergeResult result = cartMergeService.addOrderToCart(customer.getCustomerId(), orderId);
+
+            if (result.isEmpty() && result.skipped() > 0) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "success", false,
+                        "message", "Các sản phẩm trong đơn hàng hiện không còn bán hoặc đã hết hàng"
+                ));
+            }
+
+            String message = "Đã thêm sản phẩm vào giỏ hàng";
+            if (result.skipped() > 0 || result.capped() > 0) {
+                message += " (một số sản phẩm đã hết hàng hoặc chỉ còn số lượng giới hạn)";
+            }
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
-                    "message", "Đã thêm sản phẩm vào giỏ hàng"
+                    "message", message,
+                    "added", result.added(),
+                    "updated", result.updated()
             ));
 
         } catch (Exception e) {
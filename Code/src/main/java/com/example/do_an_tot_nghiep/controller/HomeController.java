@@ -1,14 +1,12 @@
 package com.example.do_an_tot_nghiep.controller;
 
-import com.example.do_an_tot_nghiep.model.*;
-import com.example.do_an_tot_nghiep.repository.*;
+import com.example.do_an_tot_nghiep.service.HomePageSnapshotService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
-import java.time.LocalDateTime;
 import java.util.List;
 
 @Controller
@@ -16,51 +14,24 @@ import java.util.List;
 public class HomeController {
 
     @Autowired
-    private ICategoryRepository categoryRepository;
-
-    @Autowired
-    private IMedicalDeviceRepository medicalDeviceRepository;
-
-    @Autowired
-    private IPromotionRepository promotionRepository;
-
-    @Autowired
-    private IBannerRepository bannerRepository;
-
-    @Autowired
-    private IBlogPostRepository blogPostRepository;
+    private HomePageSnapshotService homePageSnapshotService;
 
     @GetMapping({"", "/", "/home"})
     public String home(Model model) {
         try {
             // Thêm title cho trang
             model.addAttribute("title", "Trang chủ - Vật Tư Y Tế ABC");
-            // Lấy 6 danh mục đang hoạt động
-            List<Category> categories = categoryRepository.findTop6ByIsActiveTrueOrderByDisplayOrder();
-
-            // Lấy 8 sản phẩm nổi bật
-            List<MedicalDevice> featuredProducts = medicalDeviceRepository.findFeaturedProducts();
-
-            // Lấy 4 sản phẩm mới
-            List<MedicalDevice> newProducts = medicalDeviceRepository.findTop4NewProducts();
-
-            // Lấy khuyến mãi đang hoạt động
-            LocalDateTime now = LocalDateTime.now();
-            List<Promotion> promotions = promotionRepository.findActivePromotions(now);
-
-            // Lấy banner đang hoạt động
-            List<Banner> banners = bannerRepository.findActiveBanners(now);
 
-            // Lấy 3 bài viết blog mới nhất
-            List<BlogPost> blogPosts = blogPostRepository.findTop3PublishedPosts();
+            // Dữ liệu trang chủ dựng sẵn trong bộ nhớ, không truy vấn DB mỗi lượt truy cập
+            HomePageSnapshotService.Snapshot home = homePageSnapshotService.get();
 
             // Thêm vào model
-            model.addAttribute("categories", categories);
-            model.addAttribute("featuredProducts", featuredProducts);
-            model.addAttribute("newProducts", newProducts);
-            model.addAttribute("promotions", promotions);
-            model.addAttribute("banners", banners);
-            model.addAttribute("blogPosts", blogPosts);
+            model.addAttribute("categories", home.categories());
+            model.addAttribute("featuredProducts", home.featuredProducts());
+            model.addAttribute("newProducts", home.newProducts());
+            model.addAttribute("promotions", home.promotions());
+            model.addAttribute("banners", home.banners());
+            model.addAttribute("blogPosts", home.blogPosts());
 
         } catch (Exception e) {
             // Log lỗi chi tiết
@@ -2,12 +2,11 @@ package com.example.do_an_tot_nghiep.controller;
 
 import com.example.do_an_tot_nghiep.dto.OrderDetailDTO;
 import com.example.do_an_tot_nghiep.dto.OrderResponse;
+import com.example.do_an_tot_nghiep.dto.OrderSearchPage;
 import com.example.do_an_tot_nghiep.dto.OrderStatsDTO;
 import com.example.do_an_tot_nghiep.model.Order;
 import com.example.do_an_tot_nghiep.service.OrderService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -34,23 +33,26 @@ public class OrderController {
             @RequestParam(required = false) String payment,
             @RequestParam(required = false) String from,
             @RequestParam(required = false) String to,
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             Model model
     ) {
         OrderStatsDTO stats = orderService.getStats();
-        Page<Order> orderPage = orderService.searchOrders(
+        // Phân trang keyset (after / before) thay cho số trang: không đếm tổng, không OFFSET
+        OrderSearchPage orderPage = orderService.searchOrders(
                 keyword,
                 status,
                 payment,
                 from,
                 to,
-                PageRequest.of(page, 10)
+                after,
+                before,
+                10
         );
         model.addAttribute("stats", stats);
-        model.addAttribute("orders", orderPage.getContent());
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalPages", orderPage.getTotalPages());
-        model.addAttribute("totalItems", orderPage.getTotalElements()); // ⬅️ Tổng số đơn
+        model.addAttribute("orders", orderPage.getOrders());
+        model.addAttribute("nextCursor", orderPage.getNextCursor());
+        model.addAttribute("prevCursor", orderPage.getPrevCursor());
 
         // Thống kê theo trạng thái
         model.addAttribute("statusCounts", orderService.getStatusCounts());
@@ -1,15 +1,30 @@
 package com.example.do_an_tot_nghiep.controller;
 
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO;
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO.PriceBand;
 import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.repository.*;
+import com.example.do_an_tot_nghiep.service.CategoryTree;
+import com.example.do_an_tot_nghiep.service.CategoryTreeService;
+import com.example.do_an_tot_nghiep.service.ProductAssociationService;
+import com.example.do_an_tot_nghiep.service.ProductSearchIndex;
+import com.example.do_an_tot_nghiep.service.ViewCountBuffer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Controller
@@ -20,10 +35,25 @@ public class ProductController {
     private IMedicalDeviceRepository medicalDeviceRepository;
 
     @Autowired
-    private ICategoryRepository categoryRepository;
+    private IBrandRepository brandRepository;
 
     @Autowired
-    private IBrandRepository brandRepository;
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private ViewCountBuffer viewCountBuffer;
+
+    @Autowired
+    private ProductAssociationService productAssociationService;
+
+    @Autowired
+    private CategoryTreeService categoryTreeService;
+
+    // Số sản phẩm liên quan trên trang chi tiết
+    private static final int RELATED_LIMIT = 4;
+
+    // Số kết quả tối đa lấy từ chỉ mục tìm kiếm cho một từ khóa
+    private static final int MAX_SEARCH_HITS = 1000;
 
     /**
      * Hiển thị trang danh sách sản phẩm với bộ lọc
@@ -33,60 +63,68 @@ public class ProductController {
             @RequestParam(value = "categoryId", required = false) Integer categoryId,
             @RequestParam(value = "brandId", required = false) Integer brandId,
             @RequestParam(value = "keyword", required = false, defaultValue = "") String keyword,
-            @RequestParam(value = "sortBy", required = false, defaultValue = "newest") String sortBy,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "price", required = false) String price,
             @RequestParam(value = "page", required = false, defaultValue = "1") int page,
             Model model) {
         try {
-            List<MedicalDevice> products = new java.util.ArrayList<>();
-
-            // Lấy sản phẩm theo tiêu chí tìm kiếm (FIX: Logic rõ ràng hơn)
-            if (!keyword.isEmpty() && categoryId != null) {
-                // Cả keyword VÀ category
-                products = medicalDeviceRepository.searchByKeyword(keyword).stream()
-                        .filter(p -> p.getCategory() != null &&
-                                p.getCategory().getCategoryId().equals(categoryId.longValue()))
-                        .collect(Collectors.toList());
-            } else if (!keyword.isEmpty()) {
-                // Chỉ keyword
-                products = medicalDeviceRepository.searchByKeyword(keyword);
-            } else if (categoryId != null) {
-                // Chỉ category
-                products = medicalDeviceRepository.findByCategoryId(categoryId.longValue());
-            } else {
-                // Không có filter, lấy tất cả
-                products = medicalDeviceRepository.findAllActive();
+            // Có từ khóa: mặc định xếp theo độ liên quan
+            if (sortBy == null || sortBy.isEmpty()) {
+                sortBy = keyword.isBlank() ? "newest" : "relevance";
             }
 
-            // Lọc theo thương hiệu (nếu có)
-            if (brandId != null) {
-                products = products.stream()
-                        .filter(p -> p.getBrand() != null && p.getBrand().getBrandId().equals(brandId.longValue()))
-                        .collect(Collectors.toList());
-            }
+            // Lọc + sắp xếp + phân trang trong SQL (12 sản phẩm/trang)
+            int pageSize = 12;
+            int currentPage = Math.max(page, 1);
+            Pageable pageable = PageRequest.of(currentPage - 1, pageSize,
+                    MedicalDeviceSpecification.listingSort(sortBy));
+            MedicalDevice.DeviceStatus deviceStatus = parseStatus(status);
+            PriceBand priceBand = PriceBand.fromKey(price);
 
-            // Sắp xếp
-            products = sortProducts(products, sortBy);
+            // Chọn danh mục cha thì lấy cả sản phẩm của các danh mục con
+            CategoryTree categoryTree = categoryTreeService.get();
+            Set<Integer> categoryIds = categoryId != null ? categoryTree.getDescendantIds(categoryId) : null;
 
-            // Phân trang (12 sản phẩm/trang)
-            int pageSize = 12;
-            int start = (page - 1) * pageSize;
-            int end = Math.min(start + pageSize, products.size());
-            List<MedicalDevice> pageProducts = products.subList(start, end);
+            Page<ProductCardView> productPage;
+            if (!keyword.isBlank()) {
+                // Tìm từ khóa bằng chỉ mục trong bộ nhớ, không quét bảng
+                List<String> matchedIds = productSearchIndex.search(
+                        keyword, categoryIds, brandId, deviceStatus, priceBand, MAX_SEARCH_HITS);
+
+                if ("relevance".equals(sortBy)) {
+                    productPage = loadRankedPage(matchedIds, pageable);
+                } else {
+                    productPage = medicalDeviceRepository.findCards(
+                            MedicalDeviceSpecification.listing(null, categoryIds, brandId, deviceStatus, priceBand)
+                                    .and(MedicalDeviceSpecification.idIn(matchedIds)),
+                            pageable);
+                }
+            } else {
+                productPage = medicalDeviceRepository.findListingCards(
+                        null, categoryIds, brandId, deviceStatus, priceBand, pageable);
+            }
 
-            // Tính số trang
-            int totalPages = (int) Math.ceil((double) products.size() / pageSize);
+            List<ProductCardView> pageProducts = productPage.getContent();
+            int totalPages = productPage.getTotalPages();
 
             // Lấy danh sách danh mục và thương hiệu để hiển thị bộ lọc
-            List<Category> categories = categoryRepository.findByIsActiveTrueOrderByDisplayOrder();
+            List<Category> categories = categoryTree.getActive();
             List<Brand> brands = brandRepository.findByIsActiveTrue();
 
+            // Số lượng theo từng bộ lọc: một lần duyệt chỉ mục, không thêm truy vấn
+            ProductFacetsDTO facets = productSearchIndex.facets(
+                    keyword, categoryIds, brandId, deviceStatus, priceBand);
+            facets.setCategoryCounts(categoryTree.rollUp(facets.getCategoryCounts()));
+
             // **FIX: Lấy tên danh mục động cho breadcrumb**
             String categoryName = "Sản phẩm"; // Tên mặc định khi không chọn danh mục
             String pageTitle = "Sản phẩm - Vật Tư Y Tế ABC";
             String pageDescription = "Cung cấp đầy đủ thiết bị y tế chất lượng cao cho bệnh viện, phòng khám và gia đình";
 
+            List<Category> categoryPath = categoryTree.getAncestorPath(categoryId);
             if (categoryId != null) {
-                Category selectedCategory = categoryRepository.findById((int) categoryId.longValue()).orElse(null);
+                Category selectedCategory = categoryTree.find(categoryId).orElse(null);
                 if (selectedCategory != null) {
                     categoryName = selectedCategory.getName();
                     pageTitle = categoryName + " - Vật Tư Y Tế ABC";
@@ -103,13 +141,19 @@ public class ProductController {
             model.addAttribute("products", pageProducts);
             model.addAttribute("categories", categories);
             model.addAttribute("brands", brands);
-            model.addAttribute("totalProducts", products.size());
-            model.addAttribute("currentPage", page);
+            model.addAttribute("categoryPath", categoryPath);
+            model.addAttribute("totalProducts", productPage.getTotalElements());
+            model.addAttribute("currentPage", currentPage);
             model.addAttribute("totalPages", totalPages);
             model.addAttribute("keyword", keyword);
             model.addAttribute("selectedCategoryId", categoryId);
             model.addAttribute("selectedBrandId", brandId);
             model.addAttribute("sortBy", sortBy);
+            model.addAttribute("selectedStatus", status);
+            model.addAttribute("selectedPrice", priceBand != null ? priceBand.getKey() : null);
+            model.addAttribute("facets", facets);
+            model.addAttribute("priceBands", PriceBand.values());
+            model.addAttribute("deviceStatuses", MedicalDevice.DeviceStatus.values());
 
             // **FIX: Thêm các thuộc tính mới**
             model.addAttribute("categoryName", categoryName);
@@ -126,6 +170,10 @@ public class ProductController {
             model.addAttribute("products", List.of());
             model.addAttribute("categories", List.of());
             model.addAttribute("brands", List.of());
+            model.addAttribute("categoryPath", List.of());
+            model.addAttribute("facets", new ProductFacetsDTO());
+            model.addAttribute("priceBands", PriceBand.values());
+            model.addAttribute("deviceStatuses", MedicalDevice.DeviceStatus.values());
             model.addAttribute("categoryName", "Thiết bị y tế");
             model.addAttribute("pageDescription", "Cung cấp đầy đủ thiết bị y tế chất lượng cao");
             model.addAttribute("errorMessage", "Có lỗi xảy ra khi tải sản phẩm!");
@@ -147,25 +195,29 @@ public class ProductController {
                 return "error/404";
             }
 
-            // Cập nhật lượt xem
-            if (product.getViewCount() == null) {
-                product.setViewCount(0);
-            }
-            product.setViewCount(product.getViewCount() + 1);
-            medicalDeviceRepository.save(product);
-
-            // Lấy sản phẩm liên quan (cùng danh mục)
-            List<MedicalDevice> relatedProducts = new java.util.ArrayList<>();
-            if (product.getCategory() != null) {
-                relatedProducts = medicalDeviceRepository.findByCategoryId(product.getCategory().getCategoryId().longValue())
-                        .stream()
-                        .filter(p -> !p.getDeviceId().equals(deviceId))
-                        .limit(4)
-                        .collect(Collectors.toList());
+            // Ghi nhận lượt xem vào bộ đệm, được ghi xuống DB theo lô ở nền
+            viewCountBuffer.recordView(deviceId);
+            long storedViews = product.getViewCount() != null ? product.getViewCount() : 0;
+
+            // Sản phẩm liên quan: ưu tiên "thường được mua cùng", thiếu thì bù bằng sản phẩm bán chạy cùng danh mục
+            List<ProductCardView> relatedProducts = new java.util.ArrayList<>(
+                    productAssociationService.findRelatedDevices(deviceId, RELATED_LIMIT));
+            if (relatedProducts.size() < RELATED_LIMIT && product.getCategory() != null) {
+                List<String> excludedIds = new java.util.ArrayList<>(List.of(deviceId));
+                relatedProducts.forEach(p -> excludedIds.add(p.getDeviceId()));
+                relatedProducts.addAll(medicalDeviceRepository.findCards(
+                        MedicalDeviceSpecification.listing(null, List.of(product.getCategory().getCategoryId()), null, null, null)
+                                .and(Specification.not(MedicalDeviceSpecification.idIn(excludedIds))),
+                        PageRequest.of(0, RELATED_LIMIT - relatedProducts.size(),
+                                MedicalDeviceSpecification.listingSort("sold"))).getContent());
             }
 
+            Integer productCategoryId = product.getCategory() != null ? product.getCategory().getCategoryId() : null;
+
             model.addAttribute("product", product);
+            model.addAttribute("categoryPath", categoryTreeService.get().getAncestorPath(productCategoryId));
             model.addAttribute("relatedProducts", relatedProducts);
+            model.addAttribute("viewCount", storedViews + viewCountBuffer.getPendingViews(deviceId));
             model.addAttribute("title", product.getName() + " - Vật Tư Y Tế ABC");
 
         } catch (Exception e) {
@@ -179,35 +231,37 @@ public class ProductController {
     }
 
     /**
-     * Sắp xếp sản phẩm
+     * Lấy 1 trang theo thứ tự xếp hạng của chỉ mục tìm kiếm
+     */
+    private Page<ProductCardView> loadRankedPage(List<String> rankedIds, Pageable pageable) {
+        int from = (int) Math.min(pageable.getOffset(), rankedIds.size());
+        int to = Math.min(from + pageable.getPageSize(), rankedIds.size());
+        List<String> pageIds = rankedIds.subList(from, to);
+
+        Map<String, ProductCardView> byId = pageIds.isEmpty()
+                ? Map.of()
+                : medicalDeviceRepository.findCardsByIdIn(pageIds).stream()
+                .collect(Collectors.toMap(ProductCardView::getDeviceId, Function.identity()));
+
+        List<ProductCardView> content = pageIds.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        return new PageImpl<>(content, pageable, rankedIds.size());
+    }
+
+    /**
+     * Chuyển tham số status thành enum (null nếu không hợp lệ)
      */
-    private List<MedicalDevice> sortProducts(List<MedicalDevice> products, String sortBy) {
-        switch (sortBy) {
-            case "price-asc":
-                return products.stream()
-                        .sorted((a, b) -> a.getPrice().compareTo(b.getPrice()))
-                        .collect(Collectors.toList());
-            case "price-desc":
-                return products.stream()
-                        .sorted((a, b) -> b.getPrice().compareTo(a.getPrice()))
-                        .collect(Collectors.toList());
-            case "popular":
-                return products.stream()
-                        .sorted((a, b) -> Integer.compare(
-                                b.getViewCount() != null ? b.getViewCount() : 0,
-                                a.getViewCount() != null ? a.getViewCount() : 0))
-                        .collect(Collectors.toList());
-            case "sold":
-                return products.stream()
-                        .sorted((a, b) -> Integer.compare(
-                                b.getSoldCount() != null ? b.getSoldCount() : 0,
-                                a.getSoldCount() != null ? a.getSoldCount() : 0))
-                        .collect(Collectors.toList());
-            case "newest":
-            default:
-                return products.stream()
-                        .sorted((a, b) -> b.getCreatedAt().compareTo(a.getCreatedAt()))
-                        .collect(Collectors.toList());
+    private MedicalDevice.DeviceStatus parseStatus(String status) {
+        if (status == null || status.isEmpty()) {
+            return null;
+        }
+        try {
+            return MedicalDevice.DeviceStatus.valueOf(status);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
-}
\ No newline at end of file
+}
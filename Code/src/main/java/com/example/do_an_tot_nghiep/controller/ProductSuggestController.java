@@ -0,0 +1,35 @@
+package com.example.do_an_tot_nghiep.controller;
+
+import com.example.do_an_tot_nghiep.dto.ProductSuggestionDTO;
+import com.example.do_an_tot_nghiep.service.ProductSuggestService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API gợi ý khi gõ cho ô tìm kiếm sản phẩm (không truy cập DB)
+ */
+@RestController
+@RequestMapping("/api/products")
+@RequiredArgsConstructor
+public class ProductSuggestController {
+
+    private final ProductSuggestService productSuggestService;
+
+    @GetMapping("/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(@RequestParam(value = "q", required = false) String q,
+                                                       @RequestParam(value = "limit", defaultValue = "8") int limit) {
+        int safeLimit = Math.max(1, Math.min(limit, ProductSuggestService.MAX_SUGGESTIONS));
+        List<ProductSuggestionDTO> suggestions = productSuggestService.suggest(q, safeLimit);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("query", q);
+        response.put("suggestions", suggestions);
+        return ResponseEntity.ok(response);
+    }
+}
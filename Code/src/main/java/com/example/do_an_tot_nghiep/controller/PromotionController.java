@@ -1,7 +1,7 @@
 package com.example.do_an_tot_nghiep.controller;
 
 import com.example.do_an_tot_nghiep.model.*;
-import com.example.do_an_tot_nghiep.repository.ICategoryRepository;
+import com.example.do_an_tot_nghiep.service.CategoryTreeService;
 import com.example.do_an_tot_nghiep.service.PromotionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -19,7 +19,7 @@ public class PromotionController {
     private PromotionService promotionService;
 
     @Autowired
-    private ICategoryRepository categoryRepository;
+    private CategoryTreeService categoryTreeService;
 
     /**
      * Hiển thị trang danh sách khuyến mãi
@@ -55,7 +55,7 @@ public class PromotionController {
 
             int totalPages = (int) Math.ceil((double) promotions.size() / pageSize);
 
-            List<Category> categories = categoryRepository.findByIsActiveTrueOrderByDisplayOrder();
+            List<Category> categories = categoryTreeService.get().getActive();
 
             model.addAttribute("promotions", pagePromotions);
             model.addAttribute("categories", categories);
@@ -2,6 +2,7 @@ package com.example.do_an_tot_nghiep.controller;
 
 import com.example.do_an_tot_nghiep.model.Order;
 import com.example.do_an_tot_nghiep.repository.IOrderRepository;
+import com.example.do_an_tot_nghiep.service.IdempotencyService;
 import com.example.do_an_tot_nghiep.service.OrderService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,6 +44,13 @@ public class VNPayController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    private static final String ORDER_NOT_PAYABLE_MESSAGE = "Đơn hàng đã bị hủy hoặc đã được thanh toán";
+    private static final String CANCELLED_ORDER_PAID_MESSAGE =
+            "Đơn hàng đã bị hủy trước khi thanh toán hoàn tất. Số tiền đã trả sẽ được hoàn lại.";
+
     /**
      * ✅ Tạo URL thanh toán VNPay - Dựa trên code demo chính thức
      */
@@ -52,6 +60,13 @@ public class VNPayController {
             Order order = orderRepository.findById(orderId)
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
 
+            // Chỉ đơn đang chờ và chưa thanh toán mới được tạo giao dịch (đơn đã hủy / đã trả tiền thì không)
+            if (order.getStatus() != Order.OrderStatus.PENDING
+                    || order.getPaymentStatus() != Order.PaymentStatus.UNPAID) {
+                return "redirect:/checkout?error=payment_failed&message=" +
+                        URLEncoder.encode(ORDER_NOT_PAYABLE_MESSAGE, StandardCharsets.UTF_8.toString());
+            }
+
             // ✅ Số tiền (VNPay yêu cầu nhân 100)
             long amount = order.getTotalPrice().multiply(new java.math.BigDecimal(100)).longValue();
 
@@ -185,31 +200,49 @@ public class VNPayController {
                 String orderCode = request.getParameter("vnp_TxnRef");
                 String transactionNo = request.getParameter("vnp_TransactionNo");
 
-                if ("00".equals(vnp_ResponseCode)) {
-                    // ✅ Thanh toán thành công
-                    Order order = orderRepository.findByOrderCode(orderCode)
-                            .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
-
-                    order.setPaymentStatus(Order.PaymentStatus.PAID);
-                    order.setTransactionId(transactionNo);
-                    orderRepository.save(order);
-
-                    return "redirect:/order-success?orderCode=" + orderCode;
-                } else {
-                    // ❌ Thanh toán thất bại
-                    String errorMessage = getVNPayErrorMessage(vnp_ResponseCode);
-
-                    Order order = orderRepository.findByOrderCode(orderCode).orElse(null);
-                    if (order != null) {
-                        order.setPaymentStatus(Order.PaymentStatus.UNPAID);
-                        order.setStatus(Order.OrderStatus.CANCELLED);
-                        order.setCancelReason("Thanh toán VNPay thất bại: " + errorMessage);
-                        order.setCancelledAt(java.time.LocalDateTime.now());
-                        orderRepository.save(order);
+                // Trình duyệt tải lại trang / IPN đã xử lý cùng giao dịch: chỉ chuyển trang, không ghi lại
+                String idemKey = vnpayIdempotencyKey(orderCode, transactionNo, vnp_ResponseCode);
+                if (idempotencyService.claim(idemKey).status() != IdempotencyService.Status.CLAIMED) {
+                    if (!"00".equals(vnp_ResponseCode)) {
+                        return "redirect:/checkout?error=payment_failed&message=" +
+                                URLEncoder.encode(getVNPayErrorMessage(vnp_ResponseCode), StandardCharsets.UTF_8.toString());
                     }
+                    boolean cancelled = orderRepository.findByOrderCode(orderCode)
+                            .map(o -> o.getStatus() == Order.OrderStatus.CANCELLED)
+                            .orElse(false);
+                    return cancelled ? cancelledOrderRedirect() : "redirect:/order-success?orderCode=" + orderCode;
+                }
 
-                    return "redirect:/checkout?error=payment_failed&message=" +
-                            URLEncoder.encode(errorMessage, StandardCharsets.UTF_8.toString());
+                try {
+                    if ("00".equals(vnp_ResponseCode)) {
+                        // ✅ Thanh toán thành công
+                        Order order = orderRepository.findByOrderCode(orderCode)
+                                .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
+
+                        boolean captured = isAlreadyApplied(order, transactionNo)
+                                || orderService.capturePayment(order.getOrderId(), transactionNo);
+                        idempotencyService.complete(idemKey, order.getOrderId());
+
+                        // Đơn đã bị hủy trong lúc khách thanh toán: báo rõ, không hiện trang đặt hàng thành công
+                        return captured ? "redirect:/order-success?orderCode=" + orderCode : cancelledOrderRedirect();
+                    } else {
+                        // ❌ Thanh toán thất bại
+                        String errorMessage = getVNPayErrorMessage(vnp_ResponseCode);
+
+                        Order order = orderRepository.findByOrderCode(orderCode).orElse(null);
+                        if (order != null && order.getPaymentStatus() != Order.PaymentStatus.PAID) {
+                            // Hoàn kho, hoàn điểm, trả lượt dùng mã (qua outbox)
+                            orderService.cancelOrder(order.getOrderId(), Set.of(Order.OrderStatus.PENDING),
+                                    "Thanh toán VNPay thất bại: " + errorMessage, null);
+                        }
+                        idempotencyService.complete(idemKey, order != null ? order.getOrderId() : null);
+
+                        return "redirect:/checkout?error=payment_failed&message=" +
+                                URLEncoder.encode(errorMessage, StandardCharsets.UTF_8.toString());
+                    }
+                } catch (RuntimeException e) {
+                    idempotencyService.release(idemKey);
+                    throw e;
                 }
             } else {
                 // ❌ Chữ ký không hợp lệ
@@ -295,21 +328,34 @@ public class VNPayController {
                     return Map.of("RspCode", "02", "Message", "Order already confirmed");
                 }
 
-                if ("00".equals(vnp_ResponseCode)) {
-                    order.setPaymentStatus(Order.PaymentStatus.PAID);
-                    order.setTransactionId(transactionNo);
-                    orderRepository.save(order);
-
-                    System.out.println("IPN: Payment successful - " + orderCode);
-                    return Map.of("RspCode", "00", "Message", "Success");
-                } else {
-                    order.setPaymentStatus(Order.PaymentStatus.UNPAID);
-                    order.setStatus(Order.OrderStatus.CANCELLED);
-                    order.setCancelReason("VNPay payment failed: " + vnp_ResponseCode);
-                    order.setCancelledAt(java.time.LocalDateTime.now());
-                    orderRepository.save(order);
-
-                    return Map.of("RspCode", "00", "Message", "Confirmed");
+                // VNPay gửi lại IPN / Return URL đã xử lý cùng giao dịch => không áp dụng lần nữa
+                String idemKey = vnpayIdempotencyKey(orderCode, transactionNo, vnp_ResponseCode);
+                if (idempotencyService.claim(idemKey).status() != IdempotencyService.Status.CLAIMED) {
+                    return Map.of("RspCode", "02", "Message", "Order already confirmed");
+                }
+
+                try {
+                    if ("00".equals(vnp_ResponseCode)) {
+                        boolean captured = orderService.capturePayment(order.getOrderId(), transactionNo);
+                        idempotencyService.complete(idemKey, order.getOrderId());
+
+                        if (!captured) {
+                            // Đơn đã hủy trước khi tiền về: không xác nhận thành công, giao dịch chờ hoàn tiền
+                            System.out.println("IPN: Payment received for cancelled order - " + orderCode);
+                            return Map.of("RspCode", "02", "Message", "Order cancelled, payment will be refunded");
+                        }
+                        System.out.println("IPN: Payment successful - " + orderCode);
+                        return Map.of("RspCode", "00", "Message", "Success");
+                    } else {
+                        orderService.cancelOrder(order.getOrderId(), Set.of(Order.OrderStatus.PENDING),
+                                "VNPay payment failed: " + vnp_ResponseCode, null);
+                        idempotencyService.complete(idemKey, order.getOrderId());
+
+                        return Map.of("RspCode", "00", "Message", "Confirmed");
+                    }
+                } catch (RuntimeException e) {
+                    idempotencyService.release(idemKey);
+                    throw e;
                 }
             } else {
                 return Map.of("RspCode", "97", "Message", "Invalid signature");
@@ -324,6 +370,26 @@ public class VNPayController {
 
     // ==================== HELPER METHODS ====================
 
+    private String cancelledOrderRedirect() throws UnsupportedEncodingException {
+        return "redirect:/checkout?error=order_cancelled&message=" +
+                URLEncoder.encode(CANCELLED_ORDER_PAID_MESSAGE, StandardCharsets.UTF_8.toString());
+    }
+
+    /**
+     * Khóa idempotency dùng chung cho Return URL và IPN của cùng một giao dịch
+     */
+    private String vnpayIdempotencyKey(String orderCode, String transactionNo, String responseCode) {
+        return IdempotencyService.key("VNPAY", orderCode + ":" + transactionNo + ":" + responseCode);
+    }
+
+    /**
+     * Đơn đã được ghi nhận thanh toán bởi chính giao dịch này
+     */
+    private boolean isAlreadyApplied(Order order, String transactionNo) {
+        return order.getPaymentStatus() == Order.PaymentStatus.PAID
+                && Objects.equals(order.getTransactionId(), transactionNo);
+    }
+
     /**
      * ✅ HMAC SHA512 - Theo chuẩn VNPay
      */
@@ -24,4 +24,5 @@ public class CategoryDTO {
     private Integer displayOrder;
     private Boolean isActive;
     private LocalDateTime createdAt;
+    private Long productCount; // Số sản phẩm của danh mục và các danh mục con
 }
\ No newline at end of file
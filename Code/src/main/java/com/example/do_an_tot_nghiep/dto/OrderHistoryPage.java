@@ -0,0 +1,16 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Một trang lịch sử đơn hàng (cuộn vô hạn).
+ * nextCursor truyền lại cho lần gọi sau để lấy trang tiếp theo, null khi đã hết.
+ */
+@Data @Builder @NoArgsConstructor @AllArgsConstructor
+public class OrderHistoryPage {
+    private List<OrderResponse> orders;
+    private String nextCursor;
+    private boolean hasMore;
+}
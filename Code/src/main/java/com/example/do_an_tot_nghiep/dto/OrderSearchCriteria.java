@@ -0,0 +1,18 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Điều kiện tìm đơn hàng ở trang quản trị; trường null = không lọc theo trường đó
+ */
+@Data @Builder @NoArgsConstructor @AllArgsConstructor
+public class OrderSearchCriteria {
+    private String keyword;
+    private Order.OrderStatus status;
+    private Order.PaymentMethod paymentMethod;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
@@ -0,0 +1,17 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Một trang kết quả tìm đơn hàng (keyset).
+ * nextCursor / prevCursor null khi không còn trang sau / trang trước.
+ */
+@Data @Builder @NoArgsConstructor @AllArgsConstructor
+public class OrderSearchPage {
+    private List<Order> orders;
+    private String nextCursor;
+    private String prevCursor;
+}
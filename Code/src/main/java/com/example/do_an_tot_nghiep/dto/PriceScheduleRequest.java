@@ -0,0 +1,21 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Một lịch đổi giá: trong [startAt, endAt) sản phẩm dùng price và / hoặc discountPercent
+ * (null = giữ nguyên giá trị đang có); endAt null = không tự quay lại giá cũ
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceScheduleRequest {
+    private String deviceId;
+    private LocalDateTime startAt;
+    private LocalDateTime endAt;
+    private BigDecimal price;
+    private Integer discountPercent;
+}
@@ -0,0 +1,90 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Giỏ hàng đã tính giá tại một phiên bản giỏ (bất biến, không setter).
+ * Do CartPricingEngine tạo ra; trang giỏ hàng, trang thanh toán và lúc tạo đơn
+ * đều đọc cùng một bản nên số tiền luôn khớp nhau.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class PricedCart {
+    private final Integer customerId;
+    private final long cartVersion;
+    private final List<Line> lines;
+
+    // Tổng giá niêm yết và phần giảm theo % của từng sản phẩm
+    private final BigDecimal listSubtotal;
+    private final BigDecimal itemDiscount;
+    private final BigDecimal subtotal;
+    private final BigDecimal shippingFee;
+
+    // Mã khuyến mãi: promotionMessage là lý do khi mã không áp dụng được
+    private final String promotionCode;
+    private final Integer promotionId;
+    private final BigDecimal promotionDiscount;
+    private final String promotionMessage;
+
+    private final Integer loyaltyPointsUsed;
+    private final BigDecimal loyaltyDiscount;
+
+    private final BigDecimal total;
+    private final LocalDateTime pricedAt;
+
+    /**
+     * Một dòng giỏ hàng: unitPrice là giá sau giảm % (làm tròn đồng), lineTotal = unitPrice x quantity
+     */
+    @Getter
+    @Builder
+    public static class Line {
+        private final Integer cartId;
+        private final String deviceId;
+        private final Integer categoryId;
+        private final String name;
+        private final String imageUrl;
+        private final String brandName;
+        private final BigDecimal listPrice;
+        private final Integer discountPercent;
+        private final BigDecimal unitPrice;
+        private final int quantity;
+        private final BigDecimal lineTotal;
+        private final Integer stockQuantity;
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public boolean isPromotionApplied() {
+        return promotionId != null;
+    }
+
+    public int getItemCount() {
+        return lines.size();
+    }
+
+    /**
+     * deviceId -> số lượng
+     */
+    public Map<String, Integer> quantities() {
+        return lines.stream().collect(Collectors.toMap(Line::getDeviceId, Line::getQuantity, Integer::sum));
+    }
+
+    /**
+     * deviceId -> categoryId (kiểm tra phạm vi áp dụng của mã khuyến mãi)
+     */
+    public Map<String, Integer> deviceCategories() {
+        Map<String, Integer> result = new HashMap<>();
+        lines.forEach(line -> result.put(line.getDeviceId(), line.getCategoryId()));
+        return result;
+    }
+}
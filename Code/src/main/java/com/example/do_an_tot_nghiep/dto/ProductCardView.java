@@ -0,0 +1,42 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Dữ liệu rút gọn của sản phẩm cho các trang danh sách / thẻ sản phẩm.
+ * Chỉ select các cột cần hiển thị (không có các cột TEXT như description,
+ * specification...), không phải entity nên Hibernate không dirty-check.
+ * Thứ tự tham số constructor phải khớp với IMedicalDeviceCardRepositoryImpl.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductCardView {
+    private final String deviceId;
+    private final String name;
+    private final String slug;
+    private final String sku;
+    private final BigDecimal price;
+    private final BigDecimal originalPrice;
+    private final Integer discountPercent;
+    private final BigDecimal salePrice;
+    private final Integer stockQuantity;
+    private final Integer minStockLevel;
+    private final String imageUrl;
+    private final MedicalDevice.DeviceStatus status;
+    private final Boolean isFeatured;
+    private final Boolean isNew;
+    private final Integer viewCount;
+    private final Integer soldCount;
+    private final Double averageRating;
+    private final Integer reviewCount;
+    private final Integer brandId;
+    private final String brandName;
+    private final Integer categoryId;
+    private final String categoryName;
+    private final LocalDateTime createdAt;
+}
@@ -0,0 +1,113 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Số lượng sản phẩm theo từng giá trị bộ lọc của trang /products.
+ * Mỗi nhóm được đếm với các bộ lọc còn lại (bỏ qua bộ lọc của chính nhóm đó)
+ * để người dùng thấy trước số kết quả khi đổi lựa chọn.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductFacetsDTO {
+
+    private long total;
+
+    @Builder.Default
+    private Map<Integer, Long> categoryCounts = new HashMap<>();
+
+    @Builder.Default
+    private Map<Integer, Long> brandCounts = new HashMap<>();
+
+    // key của PriceBand -> số sản phẩm (giữ thứ tự khoảng giá)
+    @Builder.Default
+    private Map<String, Long> priceBandCounts = new LinkedHashMap<>();
+
+    // tên DeviceStatus -> số sản phẩm
+    @Builder.Default
+    private Map<String, Long> statusCounts = new LinkedHashMap<>();
+
+    public long countCategory(Integer categoryId) {
+        return categoryCounts.getOrDefault(categoryId, 0L);
+    }
+
+    public long countBrand(Integer brandId) {
+        return brandCounts.getOrDefault(brandId, 0L);
+    }
+
+    public long countPriceBand(String key) {
+        return priceBandCounts.getOrDefault(key, 0L);
+    }
+
+    public long countStatus(String status) {
+        return statusCounts.getOrDefault(status, 0L);
+    }
+
+    /**
+     * Các khoảng giá cố định cho bộ lọc (VNĐ, min bao gồm, max không bao gồm)
+     */
+    public enum PriceBand {
+        UNDER_500K("0-500000", "Dưới 500.000đ", 0, 500_000),
+        FROM_500K_TO_1M("500000-1000000", "500.000đ - 1.000.000đ", 500_000, 1_000_000),
+        FROM_1M_TO_5M("1000000-5000000", "1.000.000đ - 5.000.000đ", 1_000_000, 5_000_000),
+        FROM_5M_TO_10M("5000000-10000000", "5.000.000đ - 10.000.000đ", 5_000_000, 10_000_000),
+        OVER_10M("10000000-", "Trên 10.000.000đ", 10_000_000, Double.MAX_VALUE);
+
+        private final String key;
+        private final String displayName;
+        private final double min;
+        private final double max;
+
+        PriceBand(String key, String displayName, double min, double max) {
+            this.key = key;
+            this.displayName = displayName;
+            this.min = min;
+            this.max = max;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public boolean contains(double price) {
+            return price >= min && price < max;
+        }
+
+        public boolean isOpenEnded() {
+            return max == Double.MAX_VALUE;
+        }
+
+        public static PriceBand fromKey(String key) {
+            if (key == null || key.isEmpty()) {
+                return null;
+            }
+            for (PriceBand band : values()) {
+                if (band.key.equals(key)) {
+                    return band;
+                }
+            }
+            return null;
+        }
+    }
+}
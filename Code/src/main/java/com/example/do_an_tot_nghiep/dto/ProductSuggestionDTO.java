@@ -0,0 +1,18 @@
+package com.example.do_an_tot_nghiep.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSuggestionDTO {
+    private String label;      // Chuỗi hiển thị (tên sản phẩm / SKU / thương hiệu / danh mục)
+    private String type;       // PRODUCT, SKU, BRAND, CATEGORY
+    private String url;        // Link khi chọn gợi ý
+    private String imageUrl;
+    private Long weight;       // Độ phổ biến (soldCount + viewCount)
+}
@@ -1,5 +1,6 @@
 package com.example.do_an_tot_nghiep.dto;
 
+import com.example.do_an_tot_nghiep.model.Promotion;
 import lombok.*;
 
 import java.math.BigDecimal;
@@ -13,4 +14,5 @@ public class PromotionApplyResponse {
     private String message;
     private BigDecimal discountAmount;
     private Integer promotionId;
+    private Promotion.DiscountType discountType;
 }
@@ -72,7 +72,8 @@ public class Customer {
     @Column(name = "customer_tier", length = 20, nullable = false)
     private CustomerTier customerTier = CustomerTier.BRONZE;
 
-    @Column(name = "loyalty_points")
+    // Số dư tính sẵn của sổ điểm, chỉ đổi qua LoyaltyLedgerService (không ghi đè khi lưu entity)
+    @Column(name = "loyalty_points", updatable = false)
     private Integer loyaltyPoints = 0;
 
     @Column(name = "total_spent", precision = 15, scale = 2)
@@ -2,9 +2,12 @@ package com.example.do_an_tot_nghiep.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Immutable;
 import java.time.LocalDateTime;
 
+// Sổ điểm chỉ thêm: ghi qua LoyaltyLedgerService, không sửa / xóa bút toán
 @Entity
+@Immutable
 @Table(name = "loyalty_history")
 @Data
 @NoArgsConstructor
@@ -47,7 +50,8 @@ public class LoyaltyHistory {
         REDEEMED("Redeemed"),
         EXPIRED("Expired"),
         BONUS("Bonus"),
-        REFUND("Refund");
+        REFUND("Refund"),
+        ADJUSTMENT("Adjustment");
 
         private String value;
 
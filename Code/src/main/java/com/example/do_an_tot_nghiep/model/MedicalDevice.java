@@ -57,6 +57,11 @@ public class MedicalDevice {
     @Column(name = "discount_percent")
     private Integer discountPercent = 0;
 
+    // Giá bán sau giảm %, do MySQL tính sẵn (cột sinh STORED từ price và discount_percent)
+    @Column(name = "sale_price", insertable = false, updatable = false,
+            columnDefinition = "DECIMAL(15,0) AS (ROUND(price * (100 - COALESCE(discount_percent, 0)) / 100, 0)) STORED")
+    private BigDecimal salePrice;
+
     @Column(name = "stock_quantity")
     private Integer stockQuantity = 0;
 
@@ -141,25 +146,29 @@ public class MedicalDevice {
     @OneToMany(mappedBy = "device", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<Review> reviews = new ArrayList<>();
 
-    @Transient
+    // Tổng hợp đánh giá đã duyệt, chỉ được cập nhật bằng IMedicalDeviceRepository.applyRatingDelta
+    // và reconcileRatings (không ghi qua entity để tránh đè giá trị mới bằng bản cũ)
+    @Column(name = "avg_rating", insertable = false, updatable = false,
+            columnDefinition = "DOUBLE DEFAULT 0")
+    private Double averageRating = 0.0;
+
+    @Column(name = "rating_sum", insertable = false, updatable = false,
+            columnDefinition = "INT DEFAULT 0")
+    private Integer ratingSum = 0;
+
+    @Column(name = "review_count", insertable = false, updatable = false,
+            columnDefinition = "INT DEFAULT 0")
+    private Integer reviewCount = 0;
+
     public Double getAverageRating() {
-        if (reviews == null || reviews.isEmpty()) {
-            return 0.0;
-        }
-        return reviews.stream()
-                .filter(r -> r.getStatus() == Review.ReviewStatus.APPROVED && r.getRating() != null)
-                .mapToInt(Review::getRating)
-                .average()
-                .orElse(0.0);
+        return averageRating != null ? averageRating : 0.0;
     }
 
     @Transient
     public Long getTotalReviews() {
-        if (reviews == null) return 0L;
-        return reviews.stream()
-                .filter(r -> r.getStatus() == Review.ReviewStatus.APPROVED)
-                .count();
+        return reviewCount != null ? reviewCount.longValue() : 0L;
     }
+
     public List<String> getGalleryUrlList() {
         if (galleryUrls == null || galleryUrls.isEmpty()) return new ArrayList<>();
         return List.of(galleryUrls.split(","));
@@ -42,7 +42,8 @@ public class Promotion {
     @Column(name = "usage_limit")
     private Integer usageLimit;
 
-    @Column(name = "used_count")
+    // Chỉ tăng / giảm bằng UPDATE có điều kiện (PromotionService.claimPromotion), không ghi đè khi lưu entity
+    @Column(name = "used_count", updatable = false)
     private Integer usedCount = 0;
 
     @Column(name = "usage_per_customer")
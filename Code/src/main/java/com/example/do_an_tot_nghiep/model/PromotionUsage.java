@@ -26,6 +26,10 @@ public class PromotionUsage {
     @JoinColumn(name = "customer_id")
     private Customer customer;
 
+    // Thứ tự lượt dùng của khách với mã này (1..usage_per_customer)
+    @Column(name = "usage_slot", nullable = false)
+    private Integer usageSlot = 1;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "order_id")
     private Order order;
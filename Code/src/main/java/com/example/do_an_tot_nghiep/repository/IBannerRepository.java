@@ -22,6 +22,13 @@ public interface IBannerRepository extends JpaRepository<Banner, Integer> {
             "ORDER BY b.displayOrder ASC")
     List<Banner> findActiveBanners(@Param("now") LocalDateTime now);
 
+    /**
+     * Thời điểm sớm nhất một banner trang chủ sắp bắt đầu hiển thị
+     */
+    @Query("SELECT MIN(b.startDate) FROM Banner b " +
+            "WHERE b.isActive = true AND b.position = 'Home_Slider' AND b.startDate > :now")
+    LocalDateTime findNextStartDate(@Param("now") LocalDateTime now);
+
     /**
      * Lấy banner theo vị trí
      */
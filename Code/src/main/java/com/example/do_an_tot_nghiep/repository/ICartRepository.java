@@ -22,5 +22,10 @@ public interface ICartRepository extends JpaRepository<Cart, Integer> {
     @Query("SELECT COUNT(c) FROM Cart c WHERE c.customer = :customer")
     Long countByCustomer(@Param("customer") Customer customer);
 
-
+    /**
+     * Giỏ hàng kèm sản phẩm và thương hiệu trong một truy vấn (dùng để tính giá giỏ)
+     */
+    @Query("SELECT c FROM Cart c JOIN FETCH c.device d LEFT JOIN FETCH d.brand " +
+            "WHERE c.customer.customerId = :customerId ORDER BY c.addedAt, c.cartId")
+    List<Cart> findPricingRows(@Param("customerId") Integer customerId);
 }
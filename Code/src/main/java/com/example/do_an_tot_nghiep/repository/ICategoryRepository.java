@@ -96,4 +96,17 @@ public interface ICategoryRepository extends JpaRepository<Category, Integer> {
      * Lấy tất cả danh mục đang hoạt động
      */
     List<Category> findByIsActiveTrueOrderByDisplayOrder();
-}
\ No newline at end of file
+
+    /**
+     * Lấy toàn bộ danh mục kèm danh mục cha để dựng CategoryTree
+     */
+    @Query("SELECT c FROM Category c LEFT JOIN FETCH c.parent")
+    List<Category> findAllWithParent();
+
+    /**
+     * Số sản phẩm trực tiếp theo từng danh mục: [categoryId, count]
+     */
+    @Query("SELECT md.category.categoryId, COUNT(md) FROM MedicalDevice md " +
+            "WHERE md.category IS NOT NULL GROUP BY md.category.categoryId")
+    List<Object[]> countProductsGroupByCategory();
+}
@@ -0,0 +1,26 @@
+package com.example.do_an_tot_nghiep.repository;
+
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Truy vấn ProductCardView (chỉ các cột hiển thị trên thẻ sản phẩm)
+ */
+public interface IMedicalDeviceCardRepository {
+
+    /**
+     * Một trang thẻ sản phẩm theo điều kiện lọc (spec null = tất cả)
+     */
+    Page<ProductCardView> findCards(Specification<MedicalDevice> spec, Pageable pageable);
+
+    /**
+     * Thẻ sản phẩm theo danh sách id (không giữ thứ tự)
+     */
+    List<ProductCardView> findCardsByIdIn(Collection<String> deviceIds);
+}
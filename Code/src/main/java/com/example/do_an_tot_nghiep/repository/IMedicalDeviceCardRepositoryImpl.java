@@ -0,0 +1,113 @@
+package com.example.do_an_tot_nghiep.repository;
+
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
+import com.example.do_an_tot_nghiep.model.Brand;
+import com.example.do_an_tot_nghiep.model.Category;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cài đặt IMedicalDeviceCardRepository bằng Criteria API với select new ProductCardView(...)
+ */
+public class IMedicalDeviceCardRepositoryImpl implements IMedicalDeviceCardRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<ProductCardView> findCards(Specification<MedicalDevice> spec, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+        CriteriaQuery<ProductCardView> query = cb.createQuery(ProductCardView.class);
+        Root<MedicalDevice> root = query.from(MedicalDevice.class);
+        query.select(cardSelection(cb, root));
+        applySpec(spec, root, query, cb);
+        if (pageable.getSort().isSorted()) {
+            query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, cb));
+        }
+
+        TypedQuery<ProductCardView> typedQuery = entityManager.createQuery(query);
+        if (pageable.isPaged()) {
+            typedQuery.setFirstResult((int) pageable.getOffset());
+            typedQuery.setMaxResults(pageable.getPageSize());
+        }
+        List<ProductCardView> content = typedQuery.getResultList();
+
+        return PageableExecutionUtils.getPage(content, pageable, () -> count(spec));
+    }
+
+    @Override
+    public List<ProductCardView> findCardsByIdIn(Collection<String> deviceIds) {
+        if (deviceIds == null || deviceIds.isEmpty()) {
+            return List.of();
+        }
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ProductCardView> query = cb.createQuery(ProductCardView.class);
+        Root<MedicalDevice> root = query.from(MedicalDevice.class);
+        query.select(cardSelection(cb, root))
+                .where(root.get("deviceId").in(deviceIds));
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    private long count(Specification<MedicalDevice> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<MedicalDevice> root = query.from(MedicalDevice.class);
+        query.select(cb.count(root));
+        applySpec(spec, root, query, cb);
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    private void applySpec(Specification<MedicalDevice> spec,
+                           Root<MedicalDevice> root,
+                           CriteriaQuery<?> query,
+                           CriteriaBuilder cb) {
+        if (spec == null) {
+            return;
+        }
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+    }
+
+    private CompoundSelection<ProductCardView> cardSelection(CriteriaBuilder cb, Root<MedicalDevice> root) {
+        Join<MedicalDevice, Brand> brand = root.join("brand", JoinType.LEFT);
+        Join<MedicalDevice, Category> category = root.join("category", JoinType.LEFT);
+        return cb.construct(ProductCardView.class,
+                root.get("deviceId"),
+                root.get("name"),
+                root.get("slug"),
+                root.get("sku"),
+                root.get("price"),
+                root.get("originalPrice"),
+                root.get("discountPercent"),
+                root.get("salePrice"),
+                root.get("stockQuantity"),
+                root.get("minStockLevel"),
+                root.get("imageUrl"),
+                root.get("status"),
+                root.get("isFeatured"),
+                root.get("isNew"),
+                root.get("viewCount"),
+                root.get("soldCount"),
+                root.get("averageRating"),
+                root.get("reviewCount"),
+                brand.get("brandId"),
+                brand.get("name"),
+                category.get("categoryId"),
+                category.get("name"),
+                root.get("createdAt"));
+    }
+}
@@ -1,17 +1,36 @@
 package com.example.do_an_tot_nghiep.repository;
 
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO;
 import com.example.do_an_tot_nghiep.model.MedicalDevice;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface IMedicalDeviceRepository extends JpaRepository<MedicalDevice, String> {
+public interface IMedicalDeviceRepository extends JpaRepository<MedicalDevice, String>,
+        JpaSpecificationExecutor<MedicalDevice>, IMedicalDeviceCardRepository {
+
+    /**
+     * Trang danh sách sản phẩm: lọc, sắp xếp, phân trang ngay trong SQL,
+     * chỉ lấy các cột của thẻ sản phẩm
+     */
+    default Page<ProductCardView> findListingCards(String keyword,
+                                                  Collection<Integer> categoryIds,
+                                                  Integer brandId,
+                                                  MedicalDevice.DeviceStatus status,
+                                                  ProductFacetsDTO.PriceBand priceBand,
+                                                  Pageable pageable) {
+        return findCards(MedicalDeviceSpecification.listing(keyword, categoryIds, brandId, status, priceBand), pageable);
+    }
 
     @Query("SELECT d FROM MedicalDevice d WHERE d.stockQuantity <= d.minStockLevel " +
             "AND d.status != 'Ngừng bán' ORDER BY (d.minStockLevel - d.stockQuantity) DESC")
@@ -92,4 +111,51 @@ public interface IMedicalDeviceRepository extends JpaRepository<MedicalDevice, S
     List<MedicalDevice> findByNameContainingIgnoreCaseOrDescriptionContainingIgnoreCase(String searchTerm, String searchTerm1);
 
     List<MedicalDevice> findTop20ByStatusOrderByViewCountDesc(MedicalDevice.DeviceStatus deviceStatus);
-}
\ No newline at end of file
+
+    /**
+     * Lấy toàn bộ sản phẩm kèm brand + category để xây chỉ mục tìm kiếm
+     */
+    @Query("SELECT md FROM MedicalDevice md " +
+            "LEFT JOIN FETCH md.brand b " +
+            "LEFT JOIN FETCH md.category c")
+    List<MedicalDevice> findAllForIndexing();
+
+    /**
+     * Lấy danh sách sản phẩm theo id (kèm brand + category)
+     */
+    @Query("SELECT md FROM MedicalDevice md " +
+            "LEFT JOIN FETCH md.brand b " +
+            "LEFT JOIN FETCH md.category c " +
+            "WHERE md.deviceId IN :ids")
+    List<MedicalDevice> findAllWithDetailsByIdIn(@Param("ids") Collection<String> ids);
+
+    /**
+     * Cộng dồn thay đổi của một đánh giá đã duyệt vào tổng hợp của sản phẩm.
+     * MySQL gán SET từ trái sang phải nên avg_rating phải tính trước khi đổi rating_sum/review_count.
+     */
+    @Modifying
+    @Query(value = "UPDATE medical_device SET " +
+            "avg_rating = IF(review_count + :countDelta > 0, " +
+            "    (rating_sum + :ratingDelta) / (review_count + :countDelta), 0), " +
+            "rating_sum = GREATEST(rating_sum + :ratingDelta, 0), " +
+            "review_count = GREATEST(review_count + :countDelta, 0) " +
+            "WHERE device_id = :deviceId",
+            nativeQuery = true)
+    int applyRatingDelta(@Param("deviceId") String deviceId,
+                         @Param("ratingDelta") int ratingDelta,
+                         @Param("countDelta") int countDelta);
+
+    /**
+     * Tính lại tổng hợp đánh giá của toàn bộ sản phẩm từ bảng review
+     */
+    @Modifying
+    @Query(value = "UPDATE medical_device md " +
+            "LEFT JOIN (SELECT device_id, COUNT(*) AS cnt, SUM(rating) AS total " +
+            "           FROM review WHERE status = 'APPROVED' AND rating IS NOT NULL " +
+            "           GROUP BY device_id) r ON r.device_id = md.device_id " +
+            "SET md.avg_rating = COALESCE(r.total / r.cnt, 0), " +
+            "    md.rating_sum = COALESCE(r.total, 0), " +
+            "    md.review_count = COALESCE(r.cnt, 0)",
+            nativeQuery = true)
+    int reconcileRatings();
+}
@@ -3,11 +3,20 @@ package com.example.do_an_tot_nghiep.repository;
 import com.example.do_an_tot_nghiep.model.Order;
 import com.example.do_an_tot_nghiep.model.OrderDetail;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface IOrderDetailRepository extends JpaRepository<OrderDetail, Integer> {
     List<OrderDetail> findByOrder(Order order);
+
+    /**
+     * Chi tiết của nhiều đơn trong một truy vấn (thay cho findByOrder từng đơn)
+     */
+    @Query("SELECT od FROM OrderDetail od WHERE od.order.orderId IN :orderIds ORDER BY od.orderDetailId")
+    List<OrderDetail> findByOrderIdIn(@Param("orderIds") Collection<Integer> orderIds);
 }
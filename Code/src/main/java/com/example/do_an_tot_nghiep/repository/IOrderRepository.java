@@ -5,7 +5,6 @@ import com.example.do_an_tot_nghiep.dto.OrderStatsDTO;
 import com.example.do_an_tot_nghiep.model.Customer;
 import com.example.do_an_tot_nghiep.model.Employee;
 import com.example.do_an_tot_nghiep.model.Order;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
@@ -18,7 +17,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface IOrderRepository extends JpaRepository<Order, Integer> {
+public interface IOrderRepository extends JpaRepository<Order, Integer>, IOrderSearchRepository {
 
     // ==================== TÌM KIẾM CƠ BẢN ====================
 
@@ -55,11 +54,38 @@ public interface IOrderRepository extends JpaRepository<Order, Integer> {
                                 @Param("endDate") LocalDateTime endDate);
 
     /**
-     * Tìm đơn hàng gần đây
+     * Tìm đơn hàng gần đây (kèm khách hàng)
      */
-    @Query("SELECT o FROM Order o ORDER BY o.createdAt DESC")
+    @Query("SELECT o FROM Order o JOIN FETCH o.customer ORDER BY o.createdAt DESC")
     List<Order> findRecentOrders(Pageable pageable);
 
+    // ==================== LỊCH SỬ ĐƠN HÀNG (KEYSET) ====================
+
+    /**
+     * Trang đầu lịch sử đơn của khách hàng, mới nhất trước (status null = mọi trạng thái)
+     */
+    @Query("SELECT o FROM Order o JOIN FETCH o.customer c " +
+            "WHERE c.customerId = :customerId " +
+            "AND (:status IS NULL OR o.status = :status) " +
+            "ORDER BY o.createdAt DESC, o.orderId DESC")
+    List<Order> findCustomerOrderPage(@Param("customerId") Integer customerId,
+                                      @Param("status") Order.OrderStatus status,
+                                      Pageable pageable);
+
+    /**
+     * Trang tiếp theo: các đơn đứng sau (createdAt, orderId) của đơn cuối trang trước
+     */
+    @Query("SELECT o FROM Order o JOIN FETCH o.customer c " +
+            "WHERE c.customerId = :customerId " +
+            "AND (:status IS NULL OR o.status = :status) " +
+            "AND (o.createdAt < :createdAt OR (o.createdAt = :createdAt AND o.orderId < :orderId)) " +
+            "ORDER BY o.createdAt DESC, o.orderId DESC")
+    List<Order> findCustomerOrderPageAfter(@Param("customerId") Integer customerId,
+                                           @Param("status") Order.OrderStatus status,
+                                           @Param("createdAt") LocalDateTime createdAt,
+                                           @Param("orderId") Integer orderId,
+                                           Pageable pageable);
+
     // ==================== THỐNG KÊ ====================
 
     /**
@@ -96,33 +122,6 @@ public interface IOrderRepository extends JpaRepository<Order, Integer> {
     """, nativeQuery = true)
     OrderStatsDTO getOrderStats();
 
-    // ==================== TÌM KIẾM NÂNG CAO ====================
-
-    /**
-     * Tìm kiếm đơn hàng với nhiều điều kiện
-     */
-    @Query("""
-        SELECT o FROM Order o
-        WHERE 
-            (
-                :keyword IS NULL 
-                OR o.orderCode LIKE %:keyword%
-                OR o.receiverName LIKE %:keyword%
-            )
-        AND (:status IS NULL OR o.status = :status)
-        AND (:paymentMethod IS NULL OR o.paymentMethod = :paymentMethod)
-        AND (:fromDate IS NULL OR o.createdAt >= :fromDate)
-        AND (:toDate IS NULL OR o.createdAt <= :toDate)
-    """)
-    Page<Order> searchOrders(
-            @Param("keyword") String keyword,
-            @Param("status") Order.OrderStatus status,
-            @Param("paymentMethod") Order.PaymentMethod paymentMethod,
-            @Param("fromDate") LocalDateTime fromDate,
-            @Param("toDate") LocalDateTime toDate,
-            Pageable pageable
-    );
-
     // ==================== CHI TIẾT ĐỢN HÀNG ====================
 
     /**
@@ -163,10 +162,16 @@ public interface IOrderRepository extends JpaRepository<Order, Integer> {
     List<Order> findByPaymentStatus(Order.PaymentStatus paymentStatus);
 
     /**
-     * ✅ Tìm đơn hàng VNPay đang chờ thanh toán (timeout check)
+     * ✅ Id đơn VNPay chờ xác nhận quá hạn chưa thanh toán (timeout check),
+     * phân trang keyset theo orderId: trang sau bắt đầu từ id lớn hơn afterId
      */
-    @Query("SELECT o FROM Order o WHERE o.paymentMethod = 'VNPAY' " +
+    @Query("SELECT o.orderId FROM Order o WHERE o.paymentMethod = 'VNPAY' " +
             "AND o.paymentStatus = 'UNPAID' " +
-            "AND o.createdAt < :timeoutDate")
-    List<Order> findExpiredVNPayOrders(@Param("timeoutDate") LocalDateTime timeoutDate);
+            "AND o.status = 'PENDING' " +
+            "AND o.createdAt < :timeoutDate " +
+            "AND o.orderId > :afterId " +
+            "ORDER BY o.orderId")
+    List<Integer> findExpiredVNPayOrderIds(@Param("timeoutDate") LocalDateTime timeoutDate,
+                                           @Param("afterId") Integer afterId,
+                                           Pageable pageable);
 }
\ No newline at end of file
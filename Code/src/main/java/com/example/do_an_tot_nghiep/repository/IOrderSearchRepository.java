@@ -0,0 +1,20 @@
+package com.example.do_an_tot_nghiep.repository;
+
+import com.example.do_an_tot_nghiep.dto.OrderCursor;
+import com.example.do_an_tot_nghiep.dto.OrderSearchCriteria;
+import com.example.do_an_tot_nghiep.model.Order;
+
+import java.util.List;
+
+/**
+ * Tìm đơn hàng cho trang quản trị, phân trang keyset theo (createdAt, orderId) mới nhất trước
+ */
+public interface IOrderSearchRepository {
+
+    /**
+     * Tối đa limit đơn thỏa criteria, kèm customer, theo thứ tự mới nhất trước.
+     * cursor null = trang đầu; backward = lấy các đơn đứng ngay trước cursor (trang trước)
+     * thay vì ngay sau.
+     */
+    List<Order> searchPage(OrderSearchCriteria criteria, OrderCursor cursor, boolean backward, int limit);
+}
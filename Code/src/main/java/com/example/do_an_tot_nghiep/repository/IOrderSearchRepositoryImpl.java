@@ -0,0 +1,132 @@
+package com.example.do_an_tot_nghiep.repository;
+
+import com.example.do_an_tot_nghiep.dto.OrderCursor;
+import com.example.do_an_tot_nghiep.dto.OrderSearchCriteria;
+import com.example.do_an_tot_nghiep.model.Order;
+import com.example.do_an_tot_nghiep.service.OrderCodeAllocator;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Cài đặt IOrderSearchRepository bằng SQL gốc, chỉ ghép các điều kiện thực sự được truyền:
+ *
+ * - Từ khóa dạng mã đơn (ORD...): so khớp tiền tố order_code => dùng idx_order_code.
+ * - Từ khóa khác (tên / SĐT người nhận): MATCH ... AGAINST trên FULLTEXT ngram ft_order_receiver,
+ *   không dùng LIKE '%...%' (quét cả bảng).
+ * - Keyset (created_at, order_id) thay cho OFFSET nên trang sâu cũng nhanh như trang đầu.
+ *
+ * Bước 1 chỉ lấy order_id, bước 2 nạp entity (kèm customer) theo danh sách id.
+ */
+public class IOrderSearchRepositoryImpl implements IOrderSearchRepository {
+
+    // ngram_token_size mặc định của MySQL: từ khóa ngắn hơn không khớp được FULLTEXT
+    private static final int MIN_FULLTEXT_LENGTH = 2;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Order> searchPage(OrderSearchCriteria criteria, OrderCursor cursor, boolean backward, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT o.order_id FROM `order` o WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+
+        String keyword = criteria.getKeyword() != null ? criteria.getKeyword().trim() : "";
+        if (!keyword.isEmpty()) {
+            if (isOrderCode(keyword)) {
+                sql.append(" AND o.order_code LIKE ?");
+                params.add(escapeLike(keyword.toUpperCase(Locale.ROOT)) + "%");
+            } else if (keyword.length() < MIN_FULLTEXT_LENGTH) {
+                sql.append(" AND o.receiver_name LIKE ?");
+                params.add(escapeLike(keyword) + "%");
+            } else {
+                sql.append(" AND MATCH(o.receiver_name, o.receiver_phone) AGAINST (? IN BOOLEAN MODE)");
+                params.add(toPhrase(keyword));
+            }
+        }
+        if (criteria.getStatus() != null) {
+            sql.append(" AND o.status = ?");
+            params.add(criteria.getStatus().name());
+        }
+        if (criteria.getPaymentMethod() != null) {
+            sql.append(" AND o.payment_method = ?");
+            params.add(criteria.getPaymentMethod().name());
+        }
+        if (criteria.getFrom() != null) {
+            sql.append(" AND o.created_at >= ?");
+            params.add(criteria.getFrom());
+        }
+        if (criteria.getTo() != null) {
+            sql.append(" AND o.created_at <= ?");
+            params.add(criteria.getTo());
+        }
+        if (cursor != null) {
+            String op = backward ? ">" : "<";
+            sql.append(" AND (o.created_at ").append(op).append(" ?")
+                    .append(" OR (o.created_at = ? AND o.order_id ").append(op).append(" ?))");
+            params.add(cursor.createdAt());
+            params.add(cursor.createdAt());
+            params.add(cursor.orderId());
+        }
+        String direction = backward ? "ASC" : "DESC";
+        sql.append(" ORDER BY o.created_at ").append(direction)
+                .append(", o.order_id ").append(direction)
+                .append(" LIMIT ?");
+        params.add(limit);
+
+        Query query = entityManager.createNativeQuery(sql.toString());
+        for (int i = 0; i < params.size(); i++) {
+            query.setParameter(i + 1, params.get(i));
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Object id : query.getResultList()) {
+            ids.add(((Number) id).intValue());
+        }
+        if (backward) {
+            Collections.reverse(ids);
+        }
+        return loadInOrder(ids);
+    }
+
+    private List<Order> loadInOrder(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Order> byId = entityManager
+                .createQuery("SELECT o FROM Order o JOIN FETCH o.customer WHERE o.orderId IN :ids", Order.class)
+                .setParameter("ids", ids)
+                .getResultList()
+                .stream()
+                .collect(Collectors.toMap(Order::getOrderId, Function.identity()));
+        List<Order> orders = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Order order = byId.get(id);
+            if (order != null) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    private static boolean isOrderCode(String keyword) {
+        return keyword.regionMatches(true, 0, OrderCodeAllocator.PREFIX, 0, OrderCodeAllocator.PREFIX.length())
+                && keyword.chars().allMatch(Character::isLetterOrDigit);
+    }
+
+    // Cả từ khóa là một cụm (ngram của cụm phải xuất hiện liền nhau); bỏ ký tự đặc biệt của boolean mode
+    private static String toPhrase(String keyword) {
+        return "\"" + keyword.replaceAll("[\"+\\-><()~*@]", " ").trim() + "\"";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
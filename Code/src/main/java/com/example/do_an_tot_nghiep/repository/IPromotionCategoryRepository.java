@@ -44,6 +44,13 @@ public interface IPromotionCategoryRepository extends JpaRepository<PromotionCat
     List<PromotionCategory> findActivePromotionsByCategory(@Param("categoryId") Long categoryId,
                                                            @Param("now") LocalDateTime now);
 
+    /**
+     * (promotionId, categoryId) của mọi khuyến mãi đang bật
+     */
+    @Query("SELECT pc.promotion.promotionId, pc.category.categoryId FROM PromotionCategory pc " +
+            "WHERE pc.promotion.isActive = true")
+    List<Object[]> findActiveLinks();
+
     /**
      * Xóa tất cả khuyến mãi danh mục theo promotion
      */
@@ -53,6 +53,13 @@ public interface IPromotionProductRepository extends JpaRepository<PromotionProd
     List<PromotionProduct> findByPromotionAndCategoryId(@Param("promotion") Promotion promotion,
                                                         @Param("categoryId") Long categoryId);
 
+    /**
+     * (promotionId, deviceId, categoryId của sản phẩm) của mọi khuyến mãi đang bật
+     */
+    @Query("SELECT pp.promotion.promotionId, d.deviceId, c.categoryId FROM PromotionProduct pp " +
+            "JOIN pp.device d LEFT JOIN d.category c WHERE pp.promotion.isActive = true")
+    List<Object[]> findActiveLinks();
+
     /**
      * Xóa tất cả khuyến mãi sản phẩm theo promotion
      */
@@ -31,6 +31,12 @@ public interface IPromotionRepository extends JpaRepository<Promotion, Integer>
             "ORDER BY p.createdAt DESC")
     List<Promotion> findActivePromotions(@Param("now") LocalDateTime now);
 
+    /**
+     * Thời điểm sớm nhất một khuyến mãi sắp bắt đầu (để biết khi nào trang chủ cần làm mới)
+     */
+    @Query("SELECT MIN(p.startDate) FROM Promotion p WHERE p.isActive = true AND p.startDate > :now")
+    LocalDateTime findNextStartDate(@Param("now") LocalDateTime now);
+
     /**
      * Tìm khuyến mãi theo code và thời gian hợp lệ
      */
@@ -72,6 +78,21 @@ public interface IPromotionRepository extends JpaRepository<Promotion, Integer>
      */
     Optional<Promotion> findByPromotionIdAndIsActiveTrue(Integer promotionId);
 
+    /**
+     * Khuyến mãi đang chạy hoặc sắp chạy (để dựng PromotionIndex)
+     */
+    @Query("SELECT p FROM Promotion p " +
+            "WHERE p.isActive = true " +
+            "AND (p.endDate IS NULL OR p.endDate >= :now) " +
+            "ORDER BY p.createdAt DESC")
+    List<Promotion> findIndexable(@Param("now") LocalDateTime now);
+
+    /**
+     * Số lượt đã dùng hiện tại của một khuyến mãi
+     */
+    @Query("SELECT p.usedCount FROM Promotion p WHERE p.promotionId = :promotionId")
+    Integer findUsedCount(@Param("promotionId") Integer promotionId);
+
     /**
      * Lấy tất cả khuyến mãi (không phân biệt active)
      */
@@ -16,6 +16,8 @@ public interface IPromotionUsageRepository extends JpaRepository<PromotionUsage,
 
     List<PromotionUsage> findByPromotion(Promotion promotion);
 
+    boolean existsByOrder_OrderId(Integer orderId);
+
     @Query("SELECT COUNT(pu) FROM PromotionUsage pu WHERE pu.promotion = :promotion AND pu.customer = :customer")
     Long countByPromotionAndCustomer(@Param("promotion") Promotion promotion,
                                      @Param("customer") Customer customer);
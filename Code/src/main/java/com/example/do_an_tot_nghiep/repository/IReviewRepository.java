@@ -7,6 +7,7 @@ import com.example.do_an_tot_nghiep.model.Review;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -74,4 +75,33 @@ public interface IReviewRepository extends JpaRepository<Review, Integer> {
     List<Object[]> findTopReviewers(Pageable pageable);
 
     boolean existsByOrder_OrderId(Integer orderId);
-}
\ No newline at end of file
+
+    /**
+     * Đổi trạng thái khi trạng thái hiện tại đúng bằng :from.
+     * Trả về số dòng đã đổi - chỉ bên đổi được (1) mới cập nhật tổng hợp rating.
+     */
+    @Modifying
+    @Query("UPDATE Review r SET r.status = :to, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.reviewId = :id AND r.status = :from")
+    int updateStatusIf(@Param("id") Integer id,
+                       @Param("from") Review.ReviewStatus from,
+                       @Param("to") Review.ReviewStatus to);
+
+    /**
+     * Đổi trạng thái khi trạng thái hiện tại khác :except
+     */
+    @Modifying
+    @Query("UPDATE Review r SET r.status = :to, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.reviewId = :id AND (r.status IS NULL OR r.status <> :except)")
+    int updateStatusUnless(@Param("id") Integer id,
+                           @Param("except") Review.ReviewStatus except,
+                           @Param("to") Review.ReviewStatus to);
+
+    @Modifying
+    @Query("DELETE FROM Review r WHERE r.reviewId = :id AND r.status = :status")
+    int deleteIfStatus(@Param("id") Integer id, @Param("status") Review.ReviewStatus status);
+
+    @Modifying
+    @Query("DELETE FROM Review r WHERE r.reviewId = :id AND (r.status IS NULL OR r.status <> :status)")
+    int deleteUnlessStatus(@Param("id") Integer id, @Param("status") Review.ReviewStatus status);
+}
@@ -0,0 +1,145 @@
+package com.example.do_an_tot_nghiep.repository;
+
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO.PriceBand;
+import com.example.do_an_tot_nghiep.model.Brand;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+
+/**
+ * Các điều kiện lọc sản phẩm cho trang danh sách /products.
+ * Toàn bộ lọc + sắp xếp được đẩy xuống SQL, chỉ trả về 1 trang dữ liệu.
+ */
+public final class MedicalDeviceSpecification {
+
+    private MedicalDeviceSpecification() {
+    }
+
+    /**
+     * Ghép các điều kiện lọc của trang danh sách (tham số null = bỏ qua).
+     * categoryIds: danh mục được chọn cùng các danh mục con (CategoryTree.getDescendantIds)
+     */
+    public static Specification<MedicalDevice> listing(String keyword,
+                                                       Collection<Integer> categoryIds,
+                                                       Integer brandId,
+                                                       MedicalDevice.DeviceStatus status,
+                                                       PriceBand priceBand) {
+        Specification<MedicalDevice> spec = fetchBrandAndCategory();
+
+        if (keyword != null && !keyword.isBlank()) {
+            spec = spec.and(keywordLike(keyword.trim()));
+        }
+        if (categoryIds != null) {
+            spec = spec.and(inCategories(categoryIds));
+        }
+        if (brandId != null) {
+            spec = spec.and(ofBrand(brandId));
+        }
+        if (priceBand != null) {
+            spec = spec.and(inPriceBand(priceBand));
+        }
+        spec = spec.and(status != null ? hasStatus(status) : notDiscontinued());
+
+        return spec;
+    }
+
+    /**
+     * Tìm theo tên, mô tả hoặc tên thương hiệu
+     */
+    public static Specification<MedicalDevice> keywordLike(String keyword) {
+        String pattern = "%" + keyword.toLowerCase() + "%";
+        return (root, query, cb) -> {
+            Join<MedicalDevice, Brand> brand = root.join("brand", JoinType.LEFT);
+            return cb.or(
+                    cb.like(cb.lower(root.get("name")), pattern),
+                    cb.like(cb.lower(root.get("description")), pattern),
+                    cb.like(cb.lower(brand.get("name")), pattern)
+            );
+        };
+    }
+
+    /**
+     * Tìm theo tên hoặc SKU (trang quản trị)
+     */
+    public static Specification<MedicalDevice> nameOrSkuLike(String keyword) {
+        String pattern = "%" + keyword.toLowerCase() + "%";
+        return (root, query, cb) -> cb.or(
+                cb.like(cb.lower(root.get("name")), pattern),
+                cb.like(cb.lower(root.get("sku")), pattern)
+        );
+    }
+
+    /**
+     * Giới hạn trong tập id (vd: kết quả từ ProductSearchIndex)
+     */
+    public static Specification<MedicalDevice> idIn(Collection<String> deviceIds) {
+        return (root, query, cb) -> deviceIds.isEmpty()
+                ? cb.disjunction()
+                : root.get("deviceId").in(deviceIds);
+    }
+
+    public static Specification<MedicalDevice> inCategory(Integer categoryId) {
+        return (root, query, cb) -> cb.equal(root.get("category").get("categoryId"), categoryId);
+    }
+
+    public static Specification<MedicalDevice> inCategories(Collection<Integer> categoryIds) {
+        return (root, query, cb) -> categoryIds.isEmpty()
+                ? cb.disjunction()
+                : root.get("category").get("categoryId").in(categoryIds);
+    }
+
+    public static Specification<MedicalDevice> ofBrand(Integer brandId) {
+        return (root, query, cb) -> cb.equal(root.get("brand").get("brandId"), brandId);
+    }
+
+    public static Specification<MedicalDevice> inPriceBand(PriceBand priceBand) {
+        return (root, query, cb) -> priceBand.isOpenEnded()
+                ? cb.greaterThanOrEqualTo(root.<BigDecimal>get("price"), BigDecimal.valueOf(priceBand.getMin()))
+                : cb.and(
+                        cb.greaterThanOrEqualTo(root.<BigDecimal>get("price"), BigDecimal.valueOf(priceBand.getMin())),
+                        cb.lessThan(root.<BigDecimal>get("price"), BigDecimal.valueOf(priceBand.getMax())));
+    }
+
+    public static Specification<MedicalDevice> hasStatus(MedicalDevice.DeviceStatus status) {
+        return (root, query, cb) -> cb.equal(root.get("status"), status);
+    }
+
+    public static Specification<MedicalDevice> notDiscontinued() {
+        return (root, query, cb) -> cb.notEqual(root.get("status"), MedicalDevice.DeviceStatus.Ngừng_bán);
+    }
+
+    /**
+     * Fetch brand + category cùng trang dữ liệu để template không bị N+1.
+     * Chỉ áp dụng khi select entity: câu COUNT và projection (ProductCardView)
+     * không được phép fetch join.
+     */
+    public static Specification<MedicalDevice> fetchBrandAndCategory() {
+        return (root, query, cb) -> {
+            if (query.getResultType() == MedicalDevice.class) {
+                root.fetch("brand", JoinType.LEFT);
+                root.fetch("category", JoinType.LEFT);
+            }
+            return cb.conjunction();
+        };
+    }
+
+    /**
+     * Chuyển tham số sortBy của trang danh sách thành Sort.
+     * Luôn kèm deviceId để phân trang ổn định khi trùng giá trị sắp xếp.
+     */
+    public static Sort listingSort(String sortBy) {
+        Sort sort = switch (sortBy == null ? "newest" : sortBy) {
+            case "price-asc" -> Sort.by(Sort.Direction.ASC, "price");
+            case "price-desc" -> Sort.by(Sort.Direction.DESC, "price");
+            case "popular" -> Sort.by(Sort.Direction.DESC, "viewCount");
+            case "sold" -> Sort.by(Sort.Direction.DESC, "soldCount");
+            default -> Sort.by(Sort.Direction.DESC, "createdAt");
+        };
+        return sort.and(Sort.by(Sort.Direction.ASC, "deviceId"));
+    }
+}
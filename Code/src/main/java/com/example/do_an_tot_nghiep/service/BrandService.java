@@ -5,6 +5,7 @@ import com.example.do_an_tot_nghiep.model.Brand;
 import com.example.do_an_tot_nghiep.repository.IBrandRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -22,6 +23,7 @@ public class BrandService implements IBrandService {
 
     private final IBrandRepository brandRepository;
     private final FileUploadService fileUploadService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     public List<BrandDTO> getAllBrands() {
@@ -103,6 +105,7 @@ public class BrandService implements IBrandService {
         }
 
         Brand savedBrand = brandRepository.save(brand);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.BRAND, savedBrand.getBrandId()));
         log.info("Created brand successfully with id: {}", savedBrand.getBrandId());
         return convertToDTO(savedBrand);
     }
@@ -154,6 +157,7 @@ public class BrandService implements IBrandService {
         }
 
         Brand updatedBrand = brandRepository.save(brand);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.BRAND, updatedBrand.getBrandId()));
         return convertToDTO(updatedBrand);
     }
 
@@ -178,6 +182,7 @@ public class BrandService implements IBrandService {
         }
 
         brandRepository.delete(brand);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.BRAND, id));
         log.info("Deleted brand id: {}", id);
     }
 
@@ -212,6 +217,7 @@ public class BrandService implements IBrandService {
 
         brand.setIsActive(!brand.getIsActive());
         brandRepository.save(brand);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.BRAND, id));
         log.info("Toggled brand status to: {}", brand.getIsActive());
     }
 
@@ -0,0 +1,152 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gộp nhiều sản phẩm vào giỏ hàng của khách trong một lần (đồng bộ giỏ khách vãng lai
+ * khi đăng nhập, "Mua lại" một đơn cũ).
+ *
+ * - Số truy vấn không phụ thuộc số sản phẩm: một SELECT sản phẩm, một SELECT giỏ hiện có
+ *   (khóa FOR UPDATE), một batch INSERT ... ON DUPLICATE KEY UPDATE theo (customer_id, device_id).
+ * - Số lượng được cộng dồn trong bộ nhớ và giới hạn theo tồn kho; sản phẩm không còn,
+ *   ngừng bán hoặc hết hàng thì bỏ qua.
+ */
+@Service
+@RequiredArgsConstructor
+public class CartMergeService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CartPricingEngine cartPricingEngine;
+
+    /**
+     * Kết quả gộp: added = dòng mới, updated = dòng đã có được cộng thêm,
+     * capped = dòng bị giới hạn theo tồn kho, skipped = sản phẩm không thêm được
+     */
+    public record MergeResult(int added, int updated, int capped, int skipped) {
+
+        public boolean isEmpty() {
+            return added == 0 && updated == 0;
+        }
+    }
+
+    private record DeviceStock(int stockQuantity, String status) {
+    }
+
+    /**
+     * Cộng thêm số lượng (deviceId -> số lượng) vào giỏ hàng của khách
+     */
+    @Transactional
+    public MergeResult merge(Integer customerId, Map<String, Integer> quantities) {
+        Map<String, Integer> requested = new LinkedHashMap<>();
+        quantities.forEach((deviceId, quantity) -> {
+            if (deviceId != null && quantity != null && quantity > 0) {
+                requested.merge(deviceId, quantity, Integer::sum);
+            }
+        });
+        if (requested.isEmpty()) {
+            return new MergeResult(0, 0, 0, quantities.size());
+        }
+
+        String in = placeholders(requested.size());
+        Object[] deviceIds = requested.keySet().toArray();
+
+        Map<String, DeviceStock> devices = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, stock_quantity, status FROM medical_device WHERE device_id IN (" + in + ")",
+                rs -> {
+                    devices.put(rs.getString("device_id"),
+                            new DeviceStock(rs.getInt("stock_quantity"), rs.getString("status")));
+                },
+                deviceIds);
+
+        List<Object> cartArgs = new ArrayList<>();
+        cartArgs.add(customerId);
+        Collections.addAll(cartArgs, deviceIds);
+        Map<String, Integer> existing = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, quantity FROM cart WHERE customer_id = ? AND device_id IN (" + in + ") FOR UPDATE",
+                rs -> {
+                    existing.put(rs.getString("device_id"), rs.getInt("quantity"));
+                },
+                cartArgs.toArray());
+
+        int added = 0;
+        int updated = 0;
+        int capped = 0;
+        int skipped = quantities.size() - requested.size();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+
+        for (Map.Entry<String, Integer> entry : requested.entrySet()) {
+            DeviceStock device = devices.get(entry.getKey());
+            if (device == null || device.stockQuantity() <= 0
+                    || MedicalDevice.DeviceStatus.Ngừng_bán.name().equals(device.status())) {
+                skipped++;
+                continue;
+            }
+
+            Integer current = existing.get(entry.getKey());
+            int merged = (current != null ? current : 0) + entry.getValue();
+            if (merged > device.stockQuantity()) {
+                merged = device.stockQuantity();
+                capped++;
+            }
+            if (current != null && merged <= current) {
+                // Đã có đủ (hoặc đã chạm tồn kho), không cần ghi
+                continue;
+            }
+
+            rows.add(new Object[]{customerId, entry.getKey(), merged, now, now});
+            if (current != null) {
+                updated++;
+            } else {
+                added++;
+            }
+        }
+
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO cart (customer_id, device_id, quantity, added_at, updated_at) " +
+                    "VALUES (?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE quantity = VALUES(quantity), updated_at = VALUES(updated_at)",
+                    rows);
+            cartPricingEngine.invalidate(customerId);
+        }
+
+        return new MergeResult(added, updated, capped, skipped);
+    }
+
+    /**
+     * "Mua lại": thêm toàn bộ sản phẩm của một đơn vào giỏ hàng
+     * (quyền sở hữu đơn do controller kiểm tra)
+     */
+    @Transactional
+    public MergeResult addOrderToCart(Integer customerId, Integer orderId) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, SUM(quantity) AS quantity FROM order_detail " +
+                "WHERE order_id = ? AND device_id IS NOT NULL GROUP BY device_id",
+                rs -> {
+                    quantities.put(rs.getString("device_id"), rs.getInt("quantity"));
+                },
+                orderId);
+        return merge(customerId, quantities);
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.dto.PricedCart;
+import com.example.do_an_tot_nghiep.dto.PromotionApplyResponse;
+import com.example.do_an_tot_nghiep.model.*;
+import com.example.do_an_tot_nghiep.repository.ICartRepository;
+import com.example.do_an_tot_nghiep.repository.ICustomerRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tính giá giỏ hàng ở một chỗ duy nhất cho trang giỏ hàng, trang thanh toán,
+ * API tính tiền / áp mã và lúc tạo đơn.
+ *
+ * - Kết quả là PricedCart bất biến, gắn với phiên bản giỏ hàng của khách.
+ * - Ghi nhớ theo khách hàng: phần giỏ (dòng, tạm tính, phí ship) tính một lần cho mỗi phiên bản,
+ *   các biến thể mã khuyến mãi / điểm tích lũy ghi nhớ kèm theo.
+ * - Hết hạn khi: giỏ thay đổi (invalidate), có CatalogChangedEvent PRODUCT / PROMOTION
+ *   (giá, khuyến mãi đổi), hoặc quá MAX_AGE (thay đổi ngoài ứng dụng, lượt dùng mã...).
+ */
+@Service
+@RequiredArgsConstructor
+public class CartPricingEngine {
+
+    public static final BigDecimal FREE_SHIPPING_THRESHOLD = new BigDecimal("500000");
+    public static final BigDecimal DEFAULT_SHIPPING_FEE = new BigDecimal("30000");
+    // 1 điểm = 1000 VNĐ
+    public static final BigDecimal LOYALTY_POINT_VALUE = new BigDecimal("1000");
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+    private static final int MAX_VARIANTS = 8;
+    private static final int MAX_MEMOS = 10000;
+
+    private final ICartRepository cartRepository;
+    private final ICustomerRepository customerRepository;
+    private final PromotionService promotionService;
+
+    private final Map<Integer, Long> cartVersions = new ConcurrentHashMap<>();
+    private final Map<Integer, Memo> memos = new ConcurrentHashMap<>();
+    private final AtomicLong catalogGeneration = new AtomicLong();
+
+    /**
+     * Giỏ đã tính của một khách tại một phiên bản giỏ + thế hệ dữ liệu giá
+     */
+    private static final class Memo {
+        final long cartVersion;
+        final long generation;
+        final LocalDateTime validUntil;
+        final PricedCart base;
+        final Map<String, PricedCart> variants = new ConcurrentHashMap<>();
+
+        Memo(long cartVersion, long generation, PricedCart base) {
+            this.cartVersion = cartVersion;
+            this.generation = generation;
+            this.validUntil = base.getPricedAt().plus(MAX_AGE);
+            this.base = base;
+        }
+    }
+
+    /**
+     * Giỏ hàng của khách đã tính giá, kèm mã khuyến mãi và điểm tích lũy (có thể null).
+     * Mã không hợp lệ thì không giảm và promotionMessage cho biết lý do;
+     * dùng quá số điểm đang có thì ném IllegalArgumentException.
+     */
+    public PricedCart price(Integer customerId, String promotionCode, Integer loyaltyPointsUsed) {
+        String code = promotionCode != null && !promotionCode.isBlank() ? promotionCode.trim() : null;
+        int points = loyaltyPointsUsed != null && loyaltyPointsUsed > 0 ? loyaltyPointsUsed : 0;
+
+        Memo memo = currentMemo(customerId);
+        if (code == null && points == 0) {
+            return memo.base;
+        }
+
+        String key = code + "|" + points;
+        PricedCart cached = memo.variants.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        PricedCart priced = applyAdjustments(memo.base, code, points);
+        if (memo.variants.size() < MAX_VARIANTS) {
+            memo.variants.putIfAbsent(key, priced);
+        }
+        return priced;
+    }
+
+    /**
+     * Báo giỏ hàng của khách vừa thay đổi. Trong transaction thì hết hạn lại lần nữa sau commit
+     * để không giữ bản tính từ dữ liệu chưa commit.
+     */
+    public void invalidate(Integer customerId) {
+        if (customerId == null) {
+            return;
+        }
+        bumpVersion(customerId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bumpVersion(customerId);
+                }
+            });
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (event.type() == CatalogChangedEvent.Type.PRODUCT || event.type() == CatalogChangedEvent.Type.PROMOTION) {
+            catalogGeneration.incrementAndGet();
+            memos.clear();
+        }
+    }
+
+    /**
+     * Giá bán một sản phẩm sau giảm % (làm tròn về đồng).
+     * Đọc cột sale_price tính sẵn; entity chưa đọc lại từ DB (vừa tạo) thì tự tính.
+     */
+    public static BigDecimal unitPrice(MedicalDevice device) {
+        if (device.getSalePrice() != null) {
+            return device.getSalePrice();
+        }
+        BigDecimal price = device.getPrice();
+
+        if (device.getDiscountPercent() != null && device.getDiscountPercent() > 0) {
+            BigDecimal discountMultiplier = BigDecimal.ONE
+                    .subtract(BigDecimal.valueOf(device.getDiscountPercent())
+                            .divide(BigDecimal.valueOf(100), 4, RoundingMode.HALF_UP));
+            price = price.multiply(discountMultiplier)
+                    .setScale(0, RoundingMode.HALF_UP);
+        }
+
+        return price;
+    }
+
+    /**
+     * Miễn phí ship với đơn >= 500,000đ
+     */
+    public static BigDecimal shippingFee(BigDecimal subtotal) {
+        return subtotal.compareTo(FREE_SHIPPING_THRESHOLD) >= 0 ? BigDecimal.ZERO : DEFAULT_SHIPPING_FEE;
+    }
+
+    private Memo currentMemo(Integer customerId) {
+        // Đọc phiên bản trước khi đọc giỏ: giỏ đổi giữa chừng thì bản này tự hết hạn ở lần sau
+        long version = cartVersions.getOrDefault(customerId, 0L);
+        long generation = catalogGeneration.get();
+
+        Memo memo = memos.get(customerId);
+        if (memo != null && memo.cartVersion == version && memo.generation == generation
+                && LocalDateTime.now().isBefore(memo.validUntil)) {
+            return memo;
+        }
+
+        Memo built = new Memo(version, generation, priceCart(customerId, version));
+        if (memos.size() >= MAX_MEMOS) {
+            memos.clear();
+        }
+        memos.put(customerId, built);
+        return built;
+    }
+
+    private void bumpVersion(Integer customerId) {
+        cartVersions.merge(customerId, 1L, Long::sum);
+        memos.remove(customerId);
+    }
+
+    /**
+     * Phần giỏ hàng: một truy vấn lấy giỏ + sản phẩm + thương hiệu
+     */
+    private PricedCart priceCart(Integer customerId, long version) {
+        List<PricedCart.Line> lines = new ArrayList<>();
+        BigDecimal listSubtotal = BigDecimal.ZERO;
+        BigDecimal subtotal = BigDecimal.ZERO;
+
+        for (Cart cart : cartRepository.findPricingRows(customerId)) {
+            MedicalDevice device = cart.getDevice();
+            int quantity = cart.getQuantity() != null ? cart.getQuantity() : 0;
+            BigDecimal unitPrice = unitPrice(device);
+            BigDecimal lineTotal = unitPrice.multiply(BigDecimal.valueOf(quantity));
+
+            lines.add(PricedCart.Line.builder()
+                    .cartId(cart.getCartId())
+                    .deviceId(device.getDeviceId())
+                    .categoryId(device.getCategory() != null ? device.getCategory().getCategoryId() : null)
+                    .name(device.getName())
+                    .imageUrl(device.getImageUrl())
+                    .brandName(device.getBrand() != null ? device.getBrand().getName() : null)
+                    .listPrice(device.getPrice())
+                    .discountPercent(device.getDiscountPercent())
+                    .unitPrice(unitPrice)
+                    .quantity(quantity)
+                    .lineTotal(lineTotal)
+                    .stockQuantity(device.getStockQuantity())
+                    .build());
+
+            listSubtotal = listSubtotal.add(device.getPrice().multiply(BigDecimal.valueOf(quantity)));
+            subtotal = subtotal.add(lineTotal);
+        }
+
+        BigDecimal shippingFee = lines.isEmpty() ? BigDecimal.ZERO : shippingFee(subtotal);
+
+        return PricedCart.builder()
+                .customerId(customerId)
+                .cartVersion(version)
+                .lines(List.copyOf(lines))
+                .listSubtotal(listSubtotal)
+                .itemDiscount(listSubtotal.subtract(subtotal))
+                .subtotal(subtotal)
+                .shippingFee(shippingFee)
+                .promotionDiscount(BigDecimal.ZERO)
+                .loyaltyPointsUsed(0)
+                .loyaltyDiscount(BigDecimal.ZERO)
+                .total(subtotal.add(shippingFee))
+                .pricedAt(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * Áp mã khuyến mãi và điểm tích lũy lên phần giỏ đã tính
+     */
+    private PricedCart applyAdjustments(PricedCart base, String code, int points) {
+        BigDecimal promotionDiscount = BigDecimal.ZERO;
+        Integer promotionId = null;
+        String promotionMessage = null;
+
+        if (code != null) {
+            PromotionApplyResponse promoResponse = promotionService.applyPromotion(
+                    code, base.getCustomerId(), base.getSubtotal(), base.deviceCategories());
+            if (Boolean.TRUE.equals(promoResponse.getSuccess())) {
+                promotionId = promoResponse.getPromotionId();
+                // Miễn phí ship: giảm đúng phí ship của giỏ (đã được miễn thì không giảm thêm)
+                BigDecimal cap = promoResponse.getDiscountType() == Promotion.DiscountType.FreeShip
+                        ? base.getShippingFee()
+                        : base.getSubtotal();
+                promotionDiscount = promoResponse.getDiscountAmount().min(cap)
+                        .setScale(0, RoundingMode.HALF_UP);
+            } else {
+                promotionMessage = promoResponse.getMessage();
+            }
+        }
+
+        BigDecimal loyaltyDiscount = BigDecimal.ZERO;
+        if (points > 0) {
+            Customer customer = customerRepository.findById(base.getCustomerId())
+                    .orElseThrow(() -> new RuntimeException("Customer not found"));
+            int available = customer.getLoyaltyPoints() != null ? customer.getLoyaltyPoints() : 0;
+            if (points > available) {
+                throw new IllegalArgumentException("Bạn chỉ có " + available + " điểm");
+            }
+            loyaltyDiscount = LOYALTY_POINT_VALUE.multiply(BigDecimal.valueOf(points));
+        }
+
+        BigDecimal total = base.getSubtotal()
+                .add(base.getShippingFee())
+                .subtract(promotionDiscount)
+                .subtract(loyaltyDiscount);
+        if (total.compareTo(BigDecimal.ZERO) < 0) {
+            total = BigDecimal.ZERO;
+        }
+
+        return base.toBuilder()
+                .promotionCode(promotionId != null ? code : null)
+                .promotionId(promotionId)
+                .promotionDiscount(promotionDiscount)
+                .promotionMessage(promotionMessage)
+                .loyaltyPointsUsed(points)
+                .loyaltyDiscount(loyaltyDiscount)
+                .total(total)
+                .build();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.do_an_tot_nghiep.service;
+
+/**
+ * Sự kiện phát ra khi dữ liệu hiển thị cho khách thay đổi (sản phẩm, danh mục,
+ * thương hiệu, khuyến mãi...). Các bộ nhớ đệm / chỉ mục lắng nghe để làm mới.
+ */
+public record CatalogChangedEvent(Type type, Object id) {
+
+    public enum Type {
+        PRODUCT,
+        CATEGORY,
+        BRAND,
+        PROMOTION,
+        BANNER,
+        BLOG_POST
+    }
+
+    public static CatalogChangedEvent of(Type type, Object id) {
+        return new CatalogChangedEvent(type, id);
+    }
+}
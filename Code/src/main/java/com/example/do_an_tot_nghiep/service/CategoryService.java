@@ -7,6 +7,7 @@ import com.example.do_an_tot_nghiep.service.ICategoryService;
 import com.example.do_an_tot_nghiep.service.FileUploadService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -25,6 +26,8 @@ public class CategoryService implements ICategoryService {
 
     private final ICategoryRepository categoryRepository;
     private final FileUploadService fileUploadService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CategoryTreeService categoryTreeService;
 
     @Override
     public List<CategoryDTO> getAllCategories() {
@@ -45,8 +48,7 @@ public class CategoryService implements ICategoryService {
     @Override
     public List<CategoryDTO> getAllParentCategories() {
         log.info("Getting all parent categories");
-        // SỬA: Thay findByParentIdIsNull() thành findByParentIsNull()
-        return categoryRepository.findByParentIsNull().stream()
+        return categoryTreeService.get().getRoots().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
@@ -123,6 +125,7 @@ public class CategoryService implements ICategoryService {
         }
 
         Category savedCategory = categoryRepository.save(category);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.CATEGORY, savedCategory.getCategoryId()));
         log.info("Created category successfully with id: {}", savedCategory.getCategoryId());
         return convertToDTO(savedCategory);
     }
@@ -164,6 +167,10 @@ public class CategoryService implements ICategoryService {
             if (dto.getParentId().equals(id)) {
                 throw new RuntimeException("Không thể chọn danh mục cha là chính nó");
             }
+            // Không cho phép chọn danh mục con cháu làm cha (tạo vòng)
+            if (categoryTreeService.get().isDescendantOf(dto.getParentId(), id)) {
+                throw new RuntimeException("Không thể chọn danh mục con làm danh mục cha");
+            }
             Category parent = categoryRepository.findById(dto.getParentId())
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy danh mục cha"));
             category.setParent(parent);
@@ -188,6 +195,7 @@ public class CategoryService implements ICategoryService {
         }
 
         Category updatedCategory = categoryRepository.save(category);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.CATEGORY, updatedCategory.getCategoryId()));
         log.info("Updated category successfully with id: {}", id);
         return convertToDTO(updatedCategory);
     }
@@ -221,6 +229,7 @@ public class CategoryService implements ICategoryService {
         }
 
         categoryRepository.delete(category);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.CATEGORY, id));
         log.info("Deleted category successfully with id: {}", id);
     }
 
@@ -259,6 +268,7 @@ public class CategoryService implements ICategoryService {
 
         category.setIsActive(!category.getIsActive());
         categoryRepository.save(category);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.CATEGORY, id));
 
         log.info("Toggled category status to: {}", category.getIsActive());
     }
@@ -290,13 +300,13 @@ public class CategoryService implements ICategoryService {
 
     @Override
     public long countProducts(Integer categoryId) {
-        return categoryRepository.countProductsByCategory(categoryId);
+        return categoryTreeService.get().getDirectProductCount(categoryId);
     }
 
     @Override
     public List<CategoryDTO> getSubcategories(Integer parentId) {
         log.info("Getting subcategories for parent id: {}", parentId);
-        return categoryRepository.findByParentIdOrderByDisplayOrder(parentId).stream()
+        return categoryTreeService.get().getChildren(parentId).stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
@@ -342,10 +352,16 @@ public class CategoryService implements ICategoryService {
         dto.setIsActive(category.getIsActive());
         dto.setCreatedAt(category.getCreatedAt());
 
+        // Tên danh mục cha lấy từ CategoryTree, tránh mỗi dòng một truy vấn
+        CategoryTree tree = categoryTreeService.get();
         if (category.getParent() != null) {
-            dto.setParentId(category.getParent().getCategoryId());
-            dto.setParentName(category.getParent().getName());
+            Integer parentId = category.getParent().getCategoryId();
+            dto.setParentId(parentId);
+            dto.setParentName(tree.find(parentId)
+                    .map(Category::getName)
+                    .orElseGet(() -> category.getParent().getName()));
         }
+        dto.setProductCount(tree.getProductCount(category.getCategoryId()));
 
         return dto;
     }
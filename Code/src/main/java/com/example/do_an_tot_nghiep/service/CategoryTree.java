@@ -0,0 +1,236 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Category;
+
+import java.util.*;
+
+/**
+ * Cây danh mục dựng sẵn trong bộ nhớ (bất biến, dùng chung giữa các luồng).
+ *
+ * - Đường dẫn tổ tiên (gốc -> chính nó) cho breadcrumb.
+ * - Tập id con cháu (gồm chính nó) cho bộ lọc "danh mục này và các danh mục con".
+ * - Số sản phẩm trực tiếp và cộng dồn cả cây con.
+ * Mọi truy vấn đều là tra map, không chạm DB.
+ */
+public final class CategoryTree {
+
+    private static final Comparator<Category> DISPLAY_ORDER = Comparator
+            .comparing((Category c) -> c.getDisplayOrder() != null ? c.getDisplayOrder() : Integer.MAX_VALUE)
+            .thenComparing(c -> c.getName() != null ? c.getName() : "")
+            .thenComparing(Category::getCategoryId);
+
+    private final Map<Integer, Category> byId;
+    private final Map<Integer, List<Category>> children;
+    private final List<Category> roots;
+    private final List<Category> ordered;
+    private final List<Category> active;
+    private final Map<Integer, List<Category>> ancestorPaths;
+    private final Map<Integer, Set<Integer>> descendantIds;
+    private final Map<Integer, Long> directProductCounts;
+    private final Map<Integer, Long> totalProductCounts;
+
+    private CategoryTree(Map<Integer, Category> byId,
+                         Map<Integer, List<Category>> children,
+                         List<Category> roots,
+                         List<Category> ordered,
+                         List<Category> active,
+                         Map<Integer, List<Category>> ancestorPaths,
+                         Map<Integer, Set<Integer>> descendantIds,
+                         Map<Integer, Long> directProductCounts,
+                         Map<Integer, Long> totalProductCounts) {
+        this.byId = byId;
+        this.children = children;
+        this.roots = roots;
+        this.ordered = ordered;
+        this.active = active;
+        this.ancestorPaths = ancestorPaths;
+        this.descendantIds = descendantIds;
+        this.directProductCounts = directProductCounts;
+        this.totalProductCounts = totalProductCounts;
+    }
+
+    public static CategoryTree empty() {
+        return build(List.of(), Map.of());
+    }
+
+    /**
+     * Dựng cây từ toàn bộ danh mục và số sản phẩm trực tiếp của từng danh mục.
+     * Danh mục có parent trỏ tới id không tồn tại (hoặc tạo vòng) được coi là gốc.
+     */
+    public static CategoryTree build(List<Category> categories, Map<Integer, Long> productCounts) {
+        Map<Integer, Category> byId = new HashMap<>();
+        for (Category category : categories) {
+            if (category.getCategoryId() != null) {
+                byId.put(category.getCategoryId(), category);
+            }
+        }
+
+        // Cha của từng danh mục; bỏ liên kết cha nếu tạo thành vòng
+        Map<Integer, Integer> parentOf = new HashMap<>();
+        for (Category category : byId.values()) {
+            Integer parentId = category.getParent() != null ? category.getParent().getCategoryId() : null;
+            if (parentId != null && byId.containsKey(parentId)) {
+                parentOf.put(category.getCategoryId(), parentId);
+            }
+        }
+        for (Integer id : new ArrayList<>(parentOf.keySet())) {
+            Set<Integer> seen = new HashSet<>();
+            Integer current = id;
+            while (current != null && seen.add(current)) {
+                current = parentOf.get(current);
+            }
+            if (current != null) {
+                parentOf.remove(current);
+            }
+        }
+
+        List<Category> ordered = new ArrayList<>(byId.values());
+        ordered.sort(DISPLAY_ORDER);
+
+        Map<Integer, List<Category>> children = new HashMap<>();
+        List<Category> roots = new ArrayList<>();
+        for (Category category : ordered) {
+            Integer parentId = parentOf.get(category.getCategoryId());
+            if (parentId == null) {
+                roots.add(category);
+            } else {
+                children.computeIfAbsent(parentId, k -> new ArrayList<>()).add(category);
+            }
+        }
+
+        // Duyệt từ gốc xuống: đường dẫn tổ tiên của con = của cha + chính nó
+        Map<Integer, List<Category>> ancestorPaths = new HashMap<>();
+        Deque<Category> stack = new ArrayDeque<>(roots);
+        for (Category root : roots) {
+            ancestorPaths.put(root.getCategoryId(), List.of(root));
+        }
+        List<Category> preOrder = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            Category node = stack.pop();
+            preOrder.add(node);
+            List<Category> path = ancestorPaths.get(node.getCategoryId());
+            for (Category child : children.getOrDefault(node.getCategoryId(), List.of())) {
+                List<Category> childPath = new ArrayList<>(path);
+                childPath.add(child);
+                ancestorPaths.put(child.getCategoryId(), List.copyOf(childPath));
+                stack.push(child);
+            }
+        }
+
+        // Duyệt ngược (con trước cha) để gộp tập con cháu và số sản phẩm
+        Map<Integer, Set<Integer>> descendantIds = new HashMap<>();
+        Map<Integer, Long> directCounts = new HashMap<>();
+        Map<Integer, Long> totalCounts = new HashMap<>();
+        for (int i = preOrder.size() - 1; i >= 0; i--) {
+            Integer id = preOrder.get(i).getCategoryId();
+            Set<Integer> ids = new HashSet<>();
+            ids.add(id);
+            long direct = productCounts.getOrDefault(id, 0L);
+            long total = direct;
+            for (Category child : children.getOrDefault(id, List.of())) {
+                ids.addAll(descendantIds.get(child.getCategoryId()));
+                total += totalCounts.get(child.getCategoryId());
+            }
+            descendantIds.put(id, Set.copyOf(ids));
+            directCounts.put(id, direct);
+            totalCounts.put(id, total);
+        }
+
+        Map<Integer, List<Category>> frozenChildren = new HashMap<>();
+        children.forEach((id, list) -> frozenChildren.put(id, List.copyOf(list)));
+
+        return new CategoryTree(
+                Map.copyOf(byId),
+                Map.copyOf(frozenChildren),
+                List.copyOf(roots),
+                List.copyOf(ordered),
+                ordered.stream().filter(c -> Boolean.TRUE.equals(c.getIsActive())).toList(),
+                Map.copyOf(ancestorPaths),
+                Map.copyOf(descendantIds),
+                Map.copyOf(directCounts),
+                Map.copyOf(totalCounts));
+    }
+
+    public Optional<Category> find(Integer categoryId) {
+        return categoryId == null ? Optional.empty() : Optional.ofNullable(byId.get(categoryId));
+    }
+
+    /**
+     * Toàn bộ danh mục theo thứ tự hiển thị
+     */
+    public List<Category> getAll() {
+        return ordered;
+    }
+
+    /**
+     * Danh mục đang hoạt động theo thứ tự hiển thị
+     */
+    public List<Category> getActive() {
+        return active;
+    }
+
+    public List<Category> getTopActive(int limit) {
+        return active.size() <= limit ? active : active.subList(0, limit);
+    }
+
+    public List<Category> getRoots() {
+        return roots;
+    }
+
+    public List<Category> getChildren(Integer categoryId) {
+        return categoryId == null ? List.of() : children.getOrDefault(categoryId, List.of());
+    }
+
+    /**
+     * Đường dẫn từ danh mục gốc tới chính danh mục này (rỗng nếu không tồn tại)
+     */
+    public List<Category> getAncestorPath(Integer categoryId) {
+        return categoryId == null ? List.of() : ancestorPaths.getOrDefault(categoryId, List.of());
+    }
+
+    /**
+     * Id của danh mục và toàn bộ danh mục con cháu (rỗng nếu không tồn tại)
+     */
+    public Set<Integer> getDescendantIds(Integer categoryId) {
+        return categoryId == null ? Set.of() : descendantIds.getOrDefault(categoryId, Set.of());
+    }
+
+    public boolean isDescendantOf(Integer categoryId, Integer ancestorId) {
+        return categoryId != null && getDescendantIds(ancestorId).contains(categoryId);
+    }
+
+    /**
+     * Số sản phẩm gắn trực tiếp vào danh mục
+     */
+    public long getDirectProductCount(Integer categoryId) {
+        return categoryId == null ? 0 : directProductCounts.getOrDefault(categoryId, 0L);
+    }
+
+    /**
+     * Số sản phẩm của danh mục và mọi danh mục con cháu
+     */
+    public long getProductCount(Integer categoryId) {
+        return categoryId == null ? 0 : totalProductCounts.getOrDefault(categoryId, 0L);
+    }
+
+    /**
+     * Cộng dồn số đếm theo danh mục (vd: facet) lên các danh mục cha
+     */
+    public Map<Integer, Long> rollUp(Map<Integer, Long> directCounts) {
+        Map<Integer, Long> result = new HashMap<>();
+        directCounts.forEach((id, count) -> {
+            List<Category> path = getAncestorPath(id);
+            if (path.isEmpty()) {
+                result.merge(id, count, Long::sum);
+            }
+            for (Category ancestor : path) {
+                result.merge(ancestor.getCategoryId(), count, Long::sum);
+            }
+        });
+        return result;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
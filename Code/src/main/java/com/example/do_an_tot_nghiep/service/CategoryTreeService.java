@@ -0,0 +1,74 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Category;
+import com.example.do_an_tot_nghiep.repository.ICategoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Giữ CategoryTree hiện hành.
+ *
+ * - Dựng lần đầu khi có người đọc, sau đó chỉ dựng lại khi danh mục / sản phẩm thay đổi
+ *   (CatalogChangedEvent, sau khi transaction commit).
+ * - Cây mới được dựng xong rồi mới thay tham chiếu nên người đọc luôn thấy một cây trọn vẹn.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CategoryTreeService {
+
+    private final ICategoryRepository categoryRepository;
+
+    private volatile CategoryTree tree;
+
+    public CategoryTree get() {
+        CategoryTree current = tree;
+        return current != null ? current : buildIfAbsent();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (event.type() == CatalogChangedEvent.Type.CATEGORY
+                || event.type() == CatalogChangedEvent.Type.PRODUCT) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Dựng lại cây từ DB và thay thế cây cũ
+     */
+    public synchronized void rebuild() {
+        try {
+            tree = load();
+        } catch (Exception e) {
+            // Giữ cây cũ; lần thay đổi kế tiếp sẽ thử lại
+            log.error("Error rebuilding category tree", e);
+        }
+    }
+
+    private synchronized CategoryTree buildIfAbsent() {
+        if (tree == null) {
+            tree = load();
+        }
+        return tree;
+    }
+
+    private CategoryTree load() {
+        long start = System.currentTimeMillis();
+        List<Category> categories = categoryRepository.findAllWithParent();
+        Map<Integer, Long> productCounts = new HashMap<>();
+        for (Object[] row : categoryRepository.countProductsGroupByCategory()) {
+            productCounts.put((Integer) row[0], ((Number) row[1]).longValue());
+        }
+        CategoryTree built = CategoryTree.build(categories, productCounts);
+        log.info("Built category tree: {} categories in {} ms",
+                built.size(), System.currentTimeMillis() - start);
+        return built;
+    }
+}
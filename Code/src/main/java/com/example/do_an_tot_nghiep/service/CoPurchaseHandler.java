@@ -0,0 +1,45 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import com.example.do_an_tot_nghiep.repository.IOrderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Cập nhật bảng "thường được mua cùng" khi đơn vào / rời trạng thái Hoàn thành
+ */
+@Component
+@RequiredArgsConstructor
+public class CoPurchaseHandler implements OrderEventHandler {
+
+    private final IOrderRepository orderRepository;
+    private final ProductAssociationService productAssociationService;
+
+    @Override
+    public String name() {
+        return "co-purchase";
+    }
+
+    @Override
+    public Set<OrderEvent.Type> types() {
+        return Set.of(OrderEvent.Type.ORDER_STATUS_CHANGED);
+    }
+
+    @Override
+    public void handle(OrderEvent event) {
+        boolean wasCompleted = event.oldStatus() == Order.OrderStatus.COMPLETED;
+        boolean isCompleted = event.newStatus() == Order.OrderStatus.COMPLETED;
+        if (wasCompleted == isCompleted) {
+            return;
+        }
+        orderRepository.findById(event.orderId()).ifPresent(order -> {
+            if (isCompleted) {
+                productAssociationService.recordCompletedOrder(order);
+            } else {
+                productAssociationService.revertCompletedOrder(order);
+            }
+        });
+    }
+}
@@ -3,6 +3,7 @@ package com.example.do_an_tot_nghiep.service;
 import com.example.do_an_tot_nghiep.dto.CustomerDTO;
 import com.example.do_an_tot_nghiep.dto.CustomerRegistrationRequest;
 import com.example.do_an_tot_nghiep.model.Customer;
+import com.example.do_an_tot_nghiep.model.LoyaltyHistory;
 import com.example.do_an_tot_nghiep.repository.ICustomerRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -25,6 +26,9 @@ public class CustomerService implements ICustomerService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private LoyaltyLedgerService loyaltyLedgerService;
+
     @Transactional
     @Override
     public CustomerDTO registerCustomer(CustomerRegistrationRequest request) {
@@ -102,25 +106,14 @@ public class CustomerService implements ICustomerService {
     @Transactional
     @Override
     public void addLoyaltyPoints(Integer customerId, Integer points, String description) {
-        Customer customer = customerRepository.findById(customerId)
-                .orElseThrow(() -> new RuntimeException("Customer not found"));
-
-        customer.setLoyaltyPoints(customer.getLoyaltyPoints() + points);
-        customerRepository.save(customer);
+        loyaltyLedgerService.credit(customerId, points, LoyaltyHistory.PointType.EARNED, null, description);
     }
 
     @Transactional
     @Override
     public void redeemLoyaltyPoints(Integer customerId, Integer points) {
-        Customer customer = customerRepository.findById(customerId)
-                .orElseThrow(() -> new RuntimeException("Customer not found"));
-
-        if (customer.getLoyaltyPoints() < points) {
-            throw new RuntimeException("Insufficient loyalty points");
-        }
-
-        customer.setLoyaltyPoints(customer.getLoyaltyPoints() - points);
-        customerRepository.save(customer);
+        loyaltyLedgerService.debit(customerId, points, LoyaltyHistory.PointType.REDEEMED, null,
+                "Sử dụng điểm tích lũy");
     }
 
     @Override
@@ -222,8 +215,7 @@ public class CustomerService implements ICustomerService {
                     .customerTier(customerDTO.getCustomerTier() != null ?
                             Customer.CustomerTier.valueOf(customerDTO.getCustomerTier()) :
                             Customer.CustomerTier.BRONZE)
-                    .loyaltyPoints(customerDTO.getLoyaltyPoints() != null ?
-                            customerDTO.getLoyaltyPoints() : 0)
+                    .loyaltyPoints(0)
                     .totalSpent(customerDTO.getTotalSpent() != null ?
                             customerDTO.getTotalSpent() : BigDecimal.ZERO)
                     .totalOrders(customerDTO.getTotalOrders() != null ?
@@ -241,6 +233,13 @@ public class CustomerService implements ICustomerService {
         }
 
         customer = customerRepository.save(customer);
+
+        // Điểm do quản trị nhập đi qua sổ điểm (bút toán ADJUSTMENT)
+        if (customerDTO.getLoyaltyPoints() != null) {
+            loyaltyLedgerService.adjustTo(customer.getCustomerId(), customerDTO.getLoyaltyPoints(),
+                    "Quản trị điều chỉnh điểm");
+            customer.setLoyaltyPoints(customerDTO.getLoyaltyPoints());
+        }
         return convertToDTO(customer);
     }
 
@@ -287,9 +286,6 @@ public class CustomerService implements ICustomerService {
         if (dto.getCustomerTier() != null) {
             customer.setCustomerTier(Customer.CustomerTier.valueOf(dto.getCustomerTier()));
         }
-        if (dto.getLoyaltyPoints() != null) {
-            customer.setLoyaltyPoints(dto.getLoyaltyPoints());
-        }
         if (dto.getTotalSpent() != null) {
             customer.setTotalSpent(dto.getTotalSpent());
         }
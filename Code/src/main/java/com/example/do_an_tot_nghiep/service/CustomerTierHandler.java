@@ -0,0 +1,40 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import com.example.do_an_tot_nghiep.repository.IOrderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Tính lại hạng khách hàng khi đơn vào / rời trạng thái Hoàn thành
+ * (tổng chi tiêu đã được trigger trg_order_COMPLETED cập nhật trong transaction của đơn)
+ */
+@Component
+@RequiredArgsConstructor
+public class CustomerTierHandler implements OrderEventHandler {
+
+    private final IOrderRepository orderRepository;
+    private final CustomerService customerService;
+
+    @Override
+    public String name() {
+        return "customer-tier";
+    }
+
+    @Override
+    public Set<OrderEvent.Type> types() {
+        return Set.of(OrderEvent.Type.ORDER_STATUS_CHANGED);
+    }
+
+    @Override
+    public void handle(OrderEvent event) {
+        if (event.newStatus() != Order.OrderStatus.COMPLETED && event.oldStatus() != Order.OrderStatus.COMPLETED) {
+            return;
+        }
+        orderRepository.findById(event.orderId())
+                .filter(order -> order.getCustomer() != null)
+                .ifPresent(order -> customerService.updateCustomerTier(order.getCustomer().getCustomerId()));
+    }
+}
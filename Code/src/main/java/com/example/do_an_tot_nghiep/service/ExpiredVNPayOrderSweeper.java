@@ -0,0 +1,192 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import com.example.do_an_tot_nghiep.repository.IOrderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Hủy các đơn VNPay quá hạn chưa thanh toán và hoàn lại tồn kho đã giữ.
+ *
+ * - Đọc id theo từng khối CHUNK_SIZE (keyset theo orderId), mỗi khối một transaction:
+ *   khóa các đơn còn UNPAID + PENDING (FOR UPDATE, tránh đè lên IPN vừa thanh toán),
+ *   một UPDATE hủy cả khối, một batch INSERT lịch sử trạng thái, một UPDATE hoàn kho
+ *   cho cả khối (số lượng đã gộp theo sản phẩm) và hoàn điểm đã dùng (như OrderService.cancelOrder).
+ * - Mỗi lượt xử lý tối đa maxPerRun đơn, phần còn lại để lượt sau.
+ * - Số đơn / số sản phẩm đã hoàn được cộng dồn, xem qua getStats().
+ */
+@Slf4j
+@Component
+public class ExpiredVNPayOrderSweeper {
+
+    static final int CHUNK_SIZE = 100;
+
+    private final IOrderRepository orderRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StockService stockService;
+    private final OrderOutbox orderOutbox;
+    private final LoyaltyLedgerService loyaltyLedgerService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${vnpay.sweeper.timeoutMinutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${vnpay.sweeper.maxPerRun:1000}")
+    private int maxPerRun;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong cancelledOrders = new AtomicLong();
+    private final AtomicLong releasedUnits = new AtomicLong();
+    private volatile LocalDateTime lastRunAt;
+
+    public record SweepStats(long runs, long cancelledOrders, long releasedUnits, LocalDateTime lastRunAt) {
+    }
+
+    private record ChunkResult(int cancelledOrders, long releasedUnits) {
+    }
+
+    private record PointsRefund(Integer orderId, Integer customerId, String orderCode, int points) {
+    }
+
+    public ExpiredVNPayOrderSweeper(IOrderRepository orderRepository,
+                                    JdbcTemplate jdbcTemplate,
+                                    StockService stockService,
+                                    OrderOutbox orderOutbox,
+                                    LoyaltyLedgerService loyaltyLedgerService,
+                                    PlatformTransactionManager transactionManager) {
+        this.orderRepository = orderRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stockService = stockService;
+        this.orderOutbox = orderOutbox;
+        this.loyaltyLedgerService = loyaltyLedgerService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${vnpay.sweeper.intervalMs:60000}")
+    public void sweep() {
+        long start = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(timeoutMinutes);
+        int processed = 0;
+        int cancelled = 0;
+        long units = 0;
+        Integer afterId = 0;
+
+        try {
+            while (processed < maxPerRun) {
+                int limit = Math.min(CHUNK_SIZE, maxPerRun - processed);
+                List<Integer> ids = orderRepository.findExpiredVNPayOrderIds(cutoff, afterId, PageRequest.of(0, limit));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                ChunkResult result = transactionTemplate.execute(status -> sweepChunk(ids));
+                if (result != null) {
+                    cancelled += result.cancelledOrders();
+                    units += result.releasedUnits();
+                }
+                processed += ids.size();
+                afterId = ids.get(ids.size() - 1);
+                if (ids.size() < limit) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error sweeping expired VNPay orders", e);
+        } finally {
+            runs.incrementAndGet();
+            cancelledOrders.addAndGet(cancelled);
+            releasedUnits.addAndGet(units);
+            lastRunAt = LocalDateTime.now();
+        }
+
+        if (cancelled > 0) {
+            log.info("Cancelled {} expired VNPay orders, released {} units in {} ms",
+                    cancelled, units, System.currentTimeMillis() - start);
+        }
+    }
+
+    public SweepStats getStats() {
+        return new SweepStats(runs.get(), cancelledOrders.get(), releasedUnits.get(), lastRunAt);
+    }
+
+    private ChunkResult sweepChunk(List<Integer> candidateIds) {
+        // Khóa và lọc lại: đơn có thể vừa được thanh toán / hủy sau khi đọc danh sách id
+        List<Integer> ids = jdbcTemplate.queryForList(
+                "SELECT order_id FROM `order` WHERE order_id IN (" + placeholders(candidateIds.size()) + ") " +
+                "AND payment_status = 'UNPAID' AND status = 'PENDING' ORDER BY order_id FOR UPDATE",
+                Integer.class, candidateIds.toArray());
+        if (ids.isEmpty()) {
+            return new ChunkResult(0, 0);
+        }
+        String in = placeholders(ids.size());
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Object> args = new ArrayList<>();
+        args.add(Order.OrderStatus.CANCELLED.name());
+        args.add(Timestamp.valueOf(now));
+        args.add("Hết hạn thanh toán VNPay");
+        args.addAll(ids);
+        jdbcTemplate.update(
+                "UPDATE `order` SET status = ?, cancelled_at = ?, cancel_reason = ? WHERE order_id IN (" + in + ")",
+                args.toArray());
+
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO order_status_history (order_id, old_status, new_status, note, changed_at) " +
+                "VALUES (?, ?, ?, ?, ?)",
+                ids.stream()
+                        .map(id -> new Object[]{id, Order.OrderStatus.PENDING.name(),
+                                Order.OrderStatus.CANCELLED.name(),
+                                "Tự động hủy: quá hạn thanh toán VNPay", Timestamp.valueOf(now)})
+                        .collect(Collectors.toList()));
+
+        // Gộp số lượng theo sản phẩm cho cả khối => mỗi sản phẩm chỉ được cập nhật một lần
+        Map<String, Integer> quantities = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, SUM(quantity) AS quantity FROM order_detail " +
+                "WHERE order_id IN (" + in + ") AND device_id IS NOT NULL GROUP BY device_id",
+                rs -> {
+                    quantities.put(rs.getString("device_id"), rs.getInt("quantity"));
+                },
+                ids.toArray());
+        stockService.release(quantities);
+
+        // Hoàn điểm tích lũy đã trừ lúc tạo đơn
+        List<PointsRefund> refunds = jdbcTemplate.query(
+                "SELECT order_id, customer_id, order_code, loyalty_points_used FROM `order` " +
+                "WHERE order_id IN (" + in + ") AND loyalty_points_used > 0",
+                (rs, rowNum) -> new PointsRefund(rs.getInt("order_id"), rs.getInt("customer_id"),
+                        rs.getString("order_code"), rs.getInt("loyalty_points_used")),
+                ids.toArray());
+        for (PointsRefund refund : refunds) {
+            loyaltyLedgerService.refundOrder(refund.customerId(), refund.points(),
+                    refund.orderId(), refund.orderCode());
+        }
+
+        Map<Integer, Order.OrderStatus> oldStatuses = new LinkedHashMap<>();
+        ids.forEach(id -> oldStatuses.put(id, Order.OrderStatus.PENDING));
+        orderOutbox.publish(OrderEvent.Type.ORDER_STATUS_CHANGED, oldStatuses, Order.OrderStatus.CANCELLED);
+
+        long units = quantities.values().stream().mapToLong(Integer::longValue).sum();
+        return new ChunkResult(ids.size(), units);
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.do_an_tot_nghiep.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chế độ flash sale cho một số sản phẩm được chọn: tồn kho bán ra từ pool token trong bộ nhớ
+ * thay vì khóa dòng medical_device ở mỗi đơn.
+ *
+ * - Bật (start): chuyển allocated suất ra khỏi medical_device.stock_quantity sang flash_sale_stock
+ *   và tạo FlashSaleTokenPool. Từ đó mọi đơn có sản phẩm này lấy token trong bộ nhớ, không đụng
+ *   dòng medical_device; stock_quantity chỉ còn phần ngoài flash sale nên đơn trừ kho trực tiếp
+ *   (kể cả sau khi tắt) không thể lấy vào phần đã bán / đang bán qua token.
+ * - Mỗi lần lấy / trả token ghi một dòng flash_sale_reservation trong transaction của đơn
+ *   (chỉ INSERT, không tranh khóa). Đây là nhật ký để dựng lại pool khi khởi động lại:
+ *   còn lại = allocated - sold - tổng nhật ký chưa ghi.
+ * - Định kỳ flush nhật ký theo lô: cộng sold_count một lần cho mỗi sản phẩm,
+ *   cộng flash_sale_stock.sold, rồi xóa các dòng đã ghi.
+ * - Tắt (stop): đóng pool, trạng thái CLOSING, đơn mới quay lại trừ kho bằng UPDATE có điều kiện
+ *   (StockService); khi không còn đơn đang dở thì flush lần cuối, trả phần chưa bán
+ *   (allocated - sold) về stock_quantity và chuyển ENDED.
+ * - Pool nằm trong bộ nhớ của một node: chỉ dùng khi ứng dụng chạy một instance.
+ */
+@Slf4j
+@Service
+public class FlashSaleService {
+
+    private static final int FLUSH_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // deviceId -> pool của flash sale đang chạy / đang đóng
+    private final Map<String, FlashSaleTokenPool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong flushedUnits = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile LocalDateTime lastFlushAt;
+
+    public FlashSaleService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Dựng lại pool của các flash sale chưa kết thúc từ flash_sale_stock và nhật ký chưa ghi
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        Map<String, Integer> pending = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, SUM(quantity) AS quantity FROM flash_sale_reservation GROUP BY device_id",
+                rs -> {
+                    pending.put(rs.getString("device_id"), rs.getInt("quantity"));
+                });
+
+        jdbcTemplate.query(
+                "SELECT device_id, allocated, sold, status FROM flash_sale_stock WHERE status IN ('ACTIVE', 'CLOSING')",
+                rs -> {
+                    String deviceId = rs.getString("device_id");
+                    int allocated = rs.getInt("allocated");
+                    int remaining = allocated - rs.getInt("sold") - pending.getOrDefault(deviceId, 0);
+                    FlashSaleTokenPool pool = new FlashSaleTokenPool(deviceId, allocated, Math.max(remaining, 0));
+                    if ("CLOSING".equals(rs.getString("status"))) {
+                        pool.close();
+                    }
+                    pools.put(deviceId, pool);
+                });
+
+        if (!pools.isEmpty()) {
+            log.info("Recovered {} flash sale pools", pools.size());
+        }
+    }
+
+    /**
+     * Bật flash sale cho một sản phẩm với quantity suất (không vượt tồn kho hiện tại)
+     */
+    @Transactional
+    public void start(String deviceId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Số suất flash sale phải lớn hơn 0");
+        }
+
+        // Khóa dòng sản phẩm để hai lần bật đồng thời không cùng đọc tồn kho
+        List<Integer> stock = jdbcTemplate.queryForList(
+                "SELECT stock_quantity FROM medical_device WHERE device_id = ? FOR UPDATE",
+                Integer.class, deviceId);
+        if (stock.isEmpty()) {
+            throw new IllegalArgumentException("Không tìm thấy sản phẩm");
+        }
+        List<String> status = jdbcTemplate.queryForList(
+                "SELECT status FROM flash_sale_stock WHERE device_id = ?", String.class, deviceId);
+        if (!status.isEmpty() && !"ENDED".equals(status.get(0))) {
+            throw new IllegalArgumentException("Sản phẩm đang có flash sale");
+        }
+        if (quantity > stock.get(0)) {
+            throw new IllegalArgumentException("Chỉ còn " + stock.get(0) + " sản phẩm trong kho");
+        }
+
+        // Chuyển số suất ra khỏi tồn kho thường, trả phần chưa bán lại khi kết thúc (finish)
+        jdbcTemplate.update(
+                "UPDATE medical_device SET stock_quantity = stock_quantity - ? WHERE device_id = ?",
+                quantity, deviceId);
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(
+                "INSERT INTO flash_sale_stock (device_id, allocated, sold, status, started_at, ended_at) " +
+                "VALUES (?, ?, 0, 'ACTIVE', ?, NULL) " +
+                "ON DUPLICATE KEY UPDATE allocated = VALUES(allocated), sold = 0, status = 'ACTIVE', " +
+                "started_at = VALUES(started_at), ended_at = NULL",
+                deviceId, quantity, now);
+
+        // Chỉ nhận đơn sau khi bản ghi flash sale đã commit
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                pools.put(deviceId, new FlashSaleTokenPool(deviceId, quantity, quantity));
+                log.info("Started flash sale for {} with {} units", deviceId, quantity);
+            }
+        });
+    }
+
+    /**
+     * Tắt flash sale: không nhận thêm đơn, chốt xuống DB ở lần flush kế tiếp khi hết đơn đang dở
+     */
+    public void stop(String deviceId) {
+        FlashSaleTokenPool pool = pools.get(deviceId);
+        if (pool == null || !pool.isOpen()) {
+            throw new IllegalArgumentException("Sản phẩm không có flash sale đang chạy");
+        }
+        jdbcTemplate.update(
+                "UPDATE flash_sale_stock SET status = 'CLOSING' WHERE device_id = ? AND status = 'ACTIVE'",
+                deviceId);
+        pool.close();
+    }
+
+    /**
+     * Lấy token cho các sản phẩm đang flash sale trong đơn (deviceId -> số lượng), ghi nhật ký
+     * trong transaction của đơn. Trả về phần còn lại cần trừ kho trực tiếp.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<String, Integer> reserve(Map<String, Integer> quantities) {
+        if (pools.isEmpty()) {
+            return quantities;
+        }
+
+        Map<String, Integer> rest = new TreeMap<>();
+        List<Object[]> reservations = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            FlashSaleTokenPool pool = pools.get(entry.getKey());
+            if (pool == null) {
+                rest.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            int quantity = entry.getValue();
+            if (!pool.tryTake(quantity)) {
+                if (!pool.isOpen()) {
+                    // Flash sale vừa đóng: trừ kho như bình thường
+                    rest.put(entry.getKey(), quantity);
+                    continue;
+                }
+                throw new RuntimeException("Sản phẩm " + entry.getKey() + " đã hết suất flash sale");
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    pool.complete(quantity, status == STATUS_COMMITTED);
+                }
+            });
+            reservations.add(new Object[]{entry.getKey(), quantity, now});
+        }
+
+        insertReservations(reservations);
+        return rest;
+    }
+
+    /**
+     * Trả token cho các sản phẩm đang flash sale của đơn bị hủy. Trả về phần còn lại
+     * cần hoàn kho trực tiếp.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<String, Integer> release(Map<String, Integer> quantities) {
+        if (pools.isEmpty()) {
+            return quantities;
+        }
+
+        Map<String, Integer> rest = new TreeMap<>();
+        List<Object[]> reservations = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            FlashSaleTokenPool pool = pools.get(entry.getKey());
+            if (pool == null || !pool.isOpen()) {
+                rest.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            int quantity = entry.getValue();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pool.giveBack(quantity);
+                }
+            });
+            reservations.add(new Object[]{entry.getKey(), -quantity, now});
+        }
+
+        insertReservations(reservations);
+        return rest;
+    }
+
+    /**
+     * Ghi nhật ký xuống medical_device / flash_sale_stock theo lô và chốt các flash sale đã đóng
+     */
+    @Scheduled(fixedDelayString = "${flashsale.flushIntervalMs:1000}", initialDelay = 10000)
+    public synchronized void flush() {
+        try {
+            int units;
+            do {
+                Integer flushed = transactionTemplate.execute(status -> flushBatch());
+                units = flushed != null ? flushed : 0;
+            } while (units == FLUSH_BATCH_SIZE);
+
+            for (FlashSaleTokenPool pool : new ArrayList<>(pools.values())) {
+                if (pool.isDrained()) {
+                    finish(pool);
+                }
+            }
+        } catch (Exception e) {
+            failedFlushes.incrementAndGet();
+            log.error("Error flushing flash sale reservations", e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        log.info("Flushing flash sale reservations before shutdown");
+        flush();
+    }
+
+    public boolean isActive(String deviceId) {
+        FlashSaleTokenPool pool = pools.get(deviceId);
+        return pool != null && pool.isOpen();
+    }
+
+    /**
+     * Số liệu theo dõi flash sale
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> sales = new ArrayList<>();
+        for (FlashSaleTokenPool pool : pools.values()) {
+            Map<String, Object> sale = new LinkedHashMap<>();
+            sale.put("deviceId", pool.getDeviceId());
+            sale.put("allocated", pool.getAllocated());
+            sale.put("remaining", pool.getRemaining());
+            sale.put("inFlight", pool.getInFlight());
+            sale.put("open", pool.isOpen());
+            sales.add(sale);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sales", sales);
+        stats.put("flushedUnits", flushedUnits.get());
+        stats.put("flushCount", flushCount.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("lastFlushAt", lastFlushAt);
+        return stats;
+    }
+
+    private void insertReservations(List<Object[]> reservations) {
+        if (!reservations.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO flash_sale_reservation (device_id, quantity, created_at) VALUES (?, ?, ?)",
+                    reservations);
+        }
+    }
+
+    /**
+     * Ghi một lô nhật ký: mỗi sản phẩm một câu UPDATE cho cả lô. Xóa đúng các dòng đã đọc
+     * (id nhỏ hơn có thể commit muộn hơn nên không xóa theo khoảng id).
+     * stock_quantity không đổi: số suất đã được trừ khỏi kho lúc start.
+     */
+    private int flushBatch() {
+        List<Long> ids = new ArrayList<>();
+        Map<String, Integer> deltas = new TreeMap<>();
+        jdbcTemplate.query(
+                "SELECT reservation_id, device_id, quantity FROM flash_sale_reservation " +
+                "ORDER BY reservation_id LIMIT " + FLUSH_BATCH_SIZE,
+                rs -> {
+                    ids.add(rs.getLong("reservation_id"));
+                    deltas.merge(rs.getString("device_id"), rs.getInt("quantity"), Integer::sum);
+                });
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        jdbcTemplate.update(
+                "DELETE FROM flash_sale_reservation WHERE reservation_id IN (" + placeholders(ids.size()) + ")",
+                ids.toArray());
+
+        List<Object[]> deviceRows = new ArrayList<>();
+        List<Object[]> saleRows = new ArrayList<>();
+        deltas.forEach((deviceId, delta) -> {
+            if (delta != 0) {
+                deviceRows.add(new Object[]{delta, deviceId});
+                saleRows.add(new Object[]{delta, deviceId});
+            }
+        });
+        if (!deviceRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE medical_device SET sold_count = GREATEST(sold_count + ?, 0) WHERE device_id = ?",
+                    deviceRows);
+            jdbcTemplate.batchUpdate(
+                    "UPDATE flash_sale_stock SET sold = sold + ? WHERE device_id = ?",
+                    saleRows);
+        }
+
+        flushedUnits.addAndGet(deltas.values().stream().mapToLong(Integer::longValue).sum());
+        flushCount.incrementAndGet();
+        lastFlushAt = LocalDateTime.now();
+        return ids.size();
+    }
+
+    /**
+     * Chốt flash sale đã đóng và không còn đơn đang dở (nhật ký đã được flush ở trên):
+     * trả phần chưa bán (allocated - sold) về stock_quantity rồi chuyển ENDED
+     */
+    private void finish(FlashSaleTokenPool pool) {
+        transactionTemplate.executeWithoutResult(status -> {
+            flushBatch();
+            int ended = jdbcTemplate.update(
+                    "UPDATE flash_sale_stock SET status = 'ENDED', ended_at = ? " +
+                    "WHERE device_id = ? AND status = 'CLOSING'",
+                    Timestamp.valueOf(LocalDateTime.now()), pool.getDeviceId());
+            if (ended > 0) {
+                jdbcTemplate.update(
+                        "UPDATE medical_device m JOIN flash_sale_stock f ON f.device_id = m.device_id " +
+                        "SET m.stock_quantity = m.stock_quantity + (f.allocated - f.sold) " +
+                        "WHERE m.device_id = ?",
+                        pool.getDeviceId());
+            }
+        });
+        pools.remove(pool.getDeviceId(), pool);
+        log.info("Finished flash sale for {}: {} of {} units left",
+                pool.getDeviceId(), pool.getRemaining(), pool.getAllocated());
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.do_an_tot_nghiep.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suất flash sale của một sản phẩm trong bộ nhớ, không dùng khóa (CAS trên AtomicInteger).
+ *
+ * - tryTake lấy token khi còn đủ; complete trả lại token nếu transaction của đơn rollback.
+ * - inFlight đếm số lần lấy token mà transaction chưa kết thúc: sau close() không lấy thêm được,
+ *   và chỉ khi isDrained() (không còn đơn đang dở) mới được chốt flash sale xuống DB.
+ */
+public class FlashSaleTokenPool {
+
+    private final String deviceId;
+    private final int allocated;
+    private final AtomicInteger remaining;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean open = true;
+
+    public FlashSaleTokenPool(String deviceId, int allocated, int remaining) {
+        this.deviceId = deviceId;
+        this.allocated = allocated;
+        this.remaining = new AtomicInteger(remaining);
+    }
+
+    /**
+     * Lấy quantity token; false nếu không đủ hoặc pool đã đóng
+     */
+    public boolean tryTake(int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Số lượng phải lớn hơn 0");
+        }
+        // Tăng inFlight trước khi kiểm tra open: close() đồng thời sẽ thấy lần lấy này
+        inFlight.incrementAndGet();
+        if (!open) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        while (true) {
+            int current = remaining.get();
+            if (current < quantity) {
+                inFlight.decrementAndGet();
+                return false;
+            }
+            if (remaining.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Transaction của lần lấy token đã kết thúc: rollback thì trả token lại
+     */
+    public void complete(int quantity, boolean committed) {
+        if (!committed) {
+            remaining.addAndGet(quantity);
+        }
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Trả token của đơn đã hủy
+     */
+    public void giveBack(int quantity) {
+        remaining.addAndGet(quantity);
+    }
+
+    public void close() {
+        open = false;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public boolean isDrained() {
+        return !open && inFlight.get() == 0;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public int getAllocated() {
+        return allocated;
+    }
+
+    public int getRemaining() {
+        return remaining.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
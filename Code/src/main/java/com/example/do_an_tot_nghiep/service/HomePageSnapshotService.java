@@ -0,0 +1,155 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.*;
+import com.example.do_an_tot_nghiep.repository.*;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Dữ liệu trang chủ dựng sẵn trong bộ nhớ (giống nhau với mọi khách).
+ *
+ * - Snapshot bất biến, đọc không khóa; chỉ truy vấn DB khi dựng lại.
+ * - Hết hạn khi: có CatalogChangedEvent, một banner / khuyến mãi bắt đầu hoặc kết thúc,
+ *   hoặc quá MAX_AGE (lượt xem, đã bán, tồn kho thay đổi liên tục).
+ * - Hết hạn thì vẫn trả bản cũ và dựng lại ở nền (stale-while-revalidate).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class HomePageSnapshotService {
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+    private final CategoryTreeService categoryTreeService;
+    private final IMedicalDeviceRepository medicalDeviceRepository;
+    private final IPromotionRepository promotionRepository;
+    private final IBannerRepository bannerRepository;
+    private final IBlogPostRepository blogPostRepository;
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "home-snapshot-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private volatile Snapshot snapshot;
+    private volatile boolean invalidated = false;
+
+    /**
+     * Dữ liệu trang chủ tại một thời điểm
+     */
+    public record Snapshot(List<Category> categories,
+                           List<MedicalDevice> featuredProducts,
+                           List<MedicalDevice> newProducts,
+                           List<Promotion> promotions,
+                           List<Banner> banners,
+                           List<BlogPost> blogPosts,
+                           LocalDateTime builtAt,
+                           LocalDateTime validUntil) {
+    }
+
+    /**
+     * Lấy snapshot hiện tại; lần đầu dựng đồng bộ, sau đó làm mới ở nền khi hết hạn
+     */
+    public Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return buildIfAbsent();
+        }
+        if (invalidated || !LocalDateTime.now().isBefore(current.validUntil())) {
+            refreshAsync();
+        }
+        return current;
+    }
+
+    /**
+     * Đánh dấu hết hạn, lần truy cập kế tiếp sẽ kích hoạt dựng lại
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        invalidate();
+    }
+
+    private synchronized Snapshot buildIfAbsent() {
+        if (snapshot == null) {
+            invalidated = false;
+            snapshot = build();
+        }
+        return snapshot;
+    }
+
+    private void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                invalidated = false;
+                snapshot = build();
+            } catch (Exception e) {
+                invalidated = true;
+                log.error("Error refreshing home page snapshot", e);
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    private Snapshot build() {
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Category> categories = categoryTreeService.get().getTopActive(6);
+        List<MedicalDevice> featuredProducts = medicalDeviceRepository.findFeaturedProducts();
+        List<MedicalDevice> newProducts = medicalDeviceRepository.findTop4NewProducts();
+        List<Promotion> promotions = promotionRepository.findActivePromotions(now);
+        List<Banner> banners = bannerRepository.findActiveBanners(now);
+        List<BlogPost> blogPosts = blogPostRepository.findTop3PublishedPosts();
+
+        // Hết hạn ở mốc sớm nhất: banner / khuyến mãi kết thúc hoặc sắp bắt đầu
+        LocalDateTime validUntil = Stream.concat(
+                        Stream.concat(
+                                promotions.stream().map(Promotion::getEndDate),
+                                banners.stream().map(Banner::getEndDate))
+                                .filter(Objects::nonNull)
+                                .map(end -> end.plusSeconds(1)),
+                        Stream.of(promotionRepository.findNextStartDate(now),
+                                bannerRepository.findNextStartDate(now))
+                                .filter(Objects::nonNull))
+                .min(LocalDateTime::compareTo)
+                .filter(boundary -> boundary.isBefore(now.plus(MAX_AGE)))
+                .orElse(now.plus(MAX_AGE));
+
+        log.debug("Home page snapshot built, valid until {}", validUntil);
+        return new Snapshot(
+                List.copyOf(categories),
+                List.copyOf(featuredProducts),
+                List.copyOf(newProducts),
+                List.copyOf(promotions),
+                List.copyOf(banners),
+                List.copyOf(blogPosts),
+                now,
+                validUntil);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+}
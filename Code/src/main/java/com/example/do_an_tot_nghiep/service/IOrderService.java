@@ -3,17 +3,17 @@ package com.example.do_an_tot_nghiep.service;
 import com.example.do_an_tot_nghiep.dto.OrderDetailDTO;
 import com.example.do_an_tot_nghiep.dto.OrderRequest;
 import com.example.do_an_tot_nghiep.dto.OrderResponse;
+import com.example.do_an_tot_nghiep.dto.OrderSearchPage;
 import com.example.do_an_tot_nghiep.dto.OrderStatsDTO;
 import com.example.do_an_tot_nghiep.model.Employee;
 import com.example.do_an_tot_nghiep.model.Order;
 import com.example.do_an_tot_nghiep.model.OrderDetail;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public interface IOrderService {
     @Transactional
@@ -37,10 +37,18 @@ public interface IOrderService {
 
     List<OrderResponse> getRecentOrders(int i);
 
-    Page<Order> searchOrders(String keyword, String status, String paymentMethod, String fromDate, String toDate, PageRequest of);
+    OrderSearchPage searchOrders(String keyword, String status, String paymentMethod, String fromDate, String toDate,
+                                 String after, String before, int size);
 
     void updateStatus(Integer orderId, Order.OrderStatus status);
 
+    boolean cancelOrder(Integer orderId, Set<Order.OrderStatus> allowedFrom, String reason, Employee changedBy);
+
+    /**
+     * @return false nếu đơn đã bị hủy trước khi thanh toán về (không ghi PAID, cần hoàn tiền)
+     */
+    boolean capturePayment(Integer orderId, String transactionId);
+
     void deleteOrder(Integer id);
 
     Map<String, Long> getStatusCounts();
@@ -0,0 +1,161 @@
+package com.example.do_an_tot_nghiep.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Khóa idempotency cho các thao tác không được chạy hai lần (đặt hàng, callback VNPay).
+ *
+ * - Bảng idempotency_key: mỗi khóa một dòng (IN_PROGRESS -> COMPLETED + id kết quả), có hạn TTL.
+ *   Khóa chính của bảng đảm bảo chỉ một request giành được khóa kể cả khi chạy nhiều node.
+ * - IN_PROGRESS chỉ giữ trong thời hạn ngắn (IN_PROGRESS_LEASE): nếu node chết hoặc complete lỗi
+ *   sau khi thao tác đã xong thì khóa tự hết hạn thay vì chặn người dùng suốt TTL.
+ * - Khóa đã COMPLETED được giữ thêm trong bộ nhớ nên request lặp lại không cần truy vấn DB.
+ * - Thao tác lỗi thì nhả khóa để người dùng thử lại với cùng khóa.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    public static final Duration DEFAULT_TTL = Duration.ofHours(24);
+    public static final Duration IN_PROGRESS_LEASE = Duration.ofMinutes(2);
+
+    // Khóa dài hơn mức này (do client gửi) được băm lại cho vừa cột idem_key
+    private static final int MAX_RAW_KEY_LENGTH = 64;
+    private static final int MAX_CACHED = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, CachedResult> completed = new ConcurrentHashMap<>();
+
+    public enum Status {
+        // Request này giành được khóa, được phép thực hiện thao tác
+        CLAIMED,
+        // Một request khác đang thực hiện cùng thao tác
+        IN_PROGRESS,
+        // Thao tác đã hoàn tất trước đó, resultId là kết quả cũ
+        COMPLETED
+    }
+
+    public record Claim(Status status, Integer resultId) {
+    }
+
+    private record CachedResult(Integer resultId, LocalDateTime expiresAt) {
+    }
+
+    /**
+     * Tạo khóa trong một phạm vi (vd: CHECKOUT:<customerId>), băm phần do client gửi nếu quá dài
+     */
+    public static String key(String scope, String rawKey) {
+        String value = rawKey.length() > MAX_RAW_KEY_LENGTH ? sha256(rawKey) : rawKey;
+        return scope + ":" + value;
+    }
+
+    public static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Giành khóa để thực hiện thao tác (giữ trong IN_PROGRESS_LEASE),
+     * hoặc cho biết thao tác đã / đang được thực hiện
+     */
+    public Claim claim(String key) {
+        LocalDateTime now = LocalDateTime.now();
+        CachedResult cached = completed.get(key);
+        if (cached != null && cached.expiresAt().isAfter(now)) {
+            return new Claim(Status.COMPLETED, cached.resultId());
+        }
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                jdbcTemplate.update(
+                        "INSERT INTO idempotency_key (idem_key, status, expires_at) VALUES (?, 'IN_PROGRESS', ?)",
+                        key, Timestamp.valueOf(now.plus(IN_PROGRESS_LEASE)));
+                return new Claim(Status.CLAIMED, null);
+            } catch (DuplicateKeyException e) {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                        "SELECT status, result_id, expires_at FROM idempotency_key WHERE idem_key = ?", key);
+                if (rows.isEmpty()) {
+                    continue; // vừa bị xóa, thử giành lại
+                }
+                Map<String, Object> row = rows.get(0);
+                LocalDateTime expiresAt = ((Timestamp) row.get("expires_at")).toLocalDateTime();
+                if (!expiresAt.isAfter(now)) {
+                    // Khóa hết hạn (vd: node chết giữa chừng): xóa rồi giành lại
+                    jdbcTemplate.update("DELETE FROM idempotency_key WHERE idem_key = ? AND expires_at <= ?",
+                            key, Timestamp.valueOf(now));
+                    continue;
+                }
+                if ("COMPLETED".equals(row.get("status"))) {
+                    Integer resultId = row.get("result_id") != null ? ((Number) row.get("result_id")).intValue() : null;
+                    remember(key, resultId, expiresAt);
+                    return new Claim(Status.COMPLETED, resultId);
+                }
+                return new Claim(Status.IN_PROGRESS, null);
+            }
+        }
+        return new Claim(Status.IN_PROGRESS, null);
+    }
+
+    public void complete(String key, Integer resultId) {
+        complete(key, resultId, DEFAULT_TTL);
+    }
+
+    /**
+     * Đánh dấu thao tác đã hoàn tất với id kết quả (vd: orderId), giữ kết quả trong ttl
+     */
+    public void complete(String key, Integer resultId, Duration ttl) {
+        LocalDateTime expiresAt = LocalDateTime.now().plus(ttl);
+        jdbcTemplate.update(
+                "UPDATE idempotency_key SET status = 'COMPLETED', result_id = ?, expires_at = ? WHERE idem_key = ?",
+                resultId, Timestamp.valueOf(expiresAt), key);
+        remember(key, resultId, expiresAt);
+    }
+
+    /**
+     * Thao tác thất bại: nhả khóa để có thể thử lại
+     */
+    public void release(String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_key WHERE idem_key = ? AND status = 'IN_PROGRESS'", key);
+    }
+
+    private void remember(String key, Integer resultId, LocalDateTime expiresAt) {
+        if (completed.size() < MAX_CACHED) {
+            completed.put(key, new CachedResult(resultId, expiresAt));
+        }
+    }
+
+    /**
+     * Dọn khóa hết hạn (mỗi giờ)
+     */
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgeExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        completed.values().removeIf(result -> !result.expiresAt().isAfter(now));
+        int deleted = jdbcTemplate.update("DELETE FROM idempotency_key WHERE expires_at <= ?", Timestamp.valueOf(now));
+        if (deleted > 0) {
+            log.debug("Purged {} expired idempotency keys", deleted);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.do_an_tot_nghiep.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+
+/**
+ * Giữ khối số thứ tự mã đơn trong bảng order_code_sequence.
+ * Chạy trong transaction riêng (REQUIRES_NEW) để khóa dòng của ngày chỉ giữ trong
+ * một câu lệnh, không kéo dài theo transaction tạo đơn; đơn rollback thì khối vẫn được giữ.
+ */
+@Component
+public class JdbcOrderCodeBlockSource implements OrderCodeAllocator.BlockSource {
+
+    // LAST_INSERT_ID(expr) ghi nhớ giá trị cho connection hiện tại => đọc lại không cần khóa thêm
+    private static final String RESERVE_SQL =
+            "INSERT INTO order_code_sequence (seq_date, next_value) VALUES (?, LAST_INSERT_ID(?)) " +
+            "ON DUPLICATE KEY UPDATE next_value = LAST_INSERT_ID(next_value + ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public JdbcOrderCodeBlockSource(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public long reserveBlock(LocalDate date, int size) {
+        Long end = transactionTemplate.execute(status -> {
+            jdbcTemplate.update(RESERVE_SQL, Date.valueOf(date), OrderCodeAllocator.FIRST_VALUE + size, size);
+            return jdbcTemplate.queryForObject("SELECT LAST_INSERT_ID()", Long.class);
+        });
+        if (end == null) {
+            throw new RuntimeException("Không cấp được mã đơn hàng");
+        }
+        return end - size;
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.LoyaltyHistory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sổ điểm tích lũy: loyalty_history là sổ chỉ thêm (nguồn gốc), customer.loyalty_points là
+ * số dư tính sẵn, cả hai luôn được ghi trong cùng một transaction.
+ *
+ * - Trừ điểm bằng UPDATE ... WHERE loyalty_points >= ? nên hai đơn đồng thời không thể
+ *   cùng tiêu một số điểm; không đủ điểm thì ném lỗi và rollback.
+ * - Mỗi đêm chụp số dư (loyalty_balance_snapshot) cho khách có phát sinh trong ngày:
+ *   số dư tại một thời điểm = bản chụp gần nhất + các bút toán sau đó (không quét lại cả sổ).
+ * - Sau khi chụp, đối soát tổng sổ với số dư của từng khách; lệch thì ghi log và giữ lại
+ *   để xem qua getStats() (không tự sửa vì không biết bên nào đúng).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LoyaltyLedgerService {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile LocalDateTime lastSnapshotAt;
+    private volatile int lastSnapshotRows;
+    private volatile LocalDateTime lastReconciledAt;
+    private volatile List<Mismatch> lastMismatches = List.of();
+
+    /**
+     * Khách có số dư khác tổng sổ điểm
+     */
+    public record Mismatch(Integer customerId, int balance, long ledgerSum) {
+    }
+
+    /**
+     * Cộng điểm
+     */
+    @Transactional
+    public void credit(Integer customerId, int points, LoyaltyHistory.PointType type,
+                       Integer referenceId, String description) {
+        if (points <= 0) {
+            throw new IllegalArgumentException("Số điểm phải lớn hơn 0");
+        }
+        int updated = jdbcTemplate.update(
+                "UPDATE customer SET loyalty_points = COALESCE(loyalty_points, 0) + ? WHERE customer_id = ?",
+                points, customerId);
+        if (updated == 0) {
+            throw new RuntimeException("Customer not found");
+        }
+        append(customerId, points, type, referenceId, description);
+    }
+
+    /**
+     * Trừ điểm, chỉ khi còn đủ
+     */
+    @Transactional
+    public void debit(Integer customerId, int points, LoyaltyHistory.PointType type,
+                      Integer referenceId, String description) {
+        if (points <= 0) {
+            throw new IllegalArgumentException("Số điểm phải lớn hơn 0");
+        }
+        int updated = jdbcTemplate.update(
+                "UPDATE customer SET loyalty_points = loyalty_points - ? " +
+                "WHERE customer_id = ? AND loyalty_points >= ?",
+                points, customerId, points);
+        if (updated == 0) {
+            throw new RuntimeException("Insufficient loyalty points");
+        }
+        append(customerId, -points, type, referenceId, description);
+    }
+
+    /**
+     * Hoàn điểm đã dùng cho đơn bị hủy
+     */
+    @Transactional
+    public void refundOrder(Integer customerId, int points, Integer orderId, String orderCode) {
+        credit(customerId, points, LoyaltyHistory.PointType.REFUND, orderId,
+                "Hoàn điểm đơn hàng bị hủy #" + orderCode);
+    }
+
+    /**
+     * Quản trị đặt lại số điểm: ghi bút toán ADJUSTMENT đúng bằng phần chênh lệch
+     */
+    @Transactional
+    public void adjustTo(Integer customerId, int target, String description) {
+        if (target < 0) {
+            throw new IllegalArgumentException("Số điểm không được âm");
+        }
+        List<Integer> current = jdbcTemplate.queryForList(
+                "SELECT COALESCE(loyalty_points, 0) FROM customer WHERE customer_id = ? FOR UPDATE",
+                Integer.class, customerId);
+        if (current.isEmpty()) {
+            throw new RuntimeException("Customer not found");
+        }
+        int delta = target - current.get(0);
+        if (delta == 0) {
+            return;
+        }
+        jdbcTemplate.update("UPDATE customer SET loyalty_points = ? WHERE customer_id = ?", target, customerId);
+        append(customerId, delta, LoyaltyHistory.PointType.ADJUSTMENT, null, description);
+    }
+
+    /**
+     * Số dư điểm của khách tại thời điểm at: bản chụp gần nhất trước at + bút toán sau bản chụp
+     */
+    public int balanceAsOf(Integer customerId, LocalDateTime at) {
+        Timestamp until = Timestamp.valueOf(at);
+        List<Map<String, Object>> snapshot = jdbcTemplate.queryForList(
+                "SELECT snapshot_at, balance FROM loyalty_balance_snapshot " +
+                "WHERE customer_id = ? AND snapshot_at <= ? ORDER BY snapshot_at DESC LIMIT 1",
+                customerId, until);
+
+        Timestamp from = snapshot.isEmpty() ? null : (Timestamp) snapshot.get(0).get("snapshot_at");
+        long base = snapshot.isEmpty() ? 0 : ((Number) snapshot.get(0).get("balance")).longValue();
+        Long delta = from == null
+                ? jdbcTemplate.queryForObject(
+                        "SELECT COALESCE(SUM(points), 0) FROM loyalty_history " +
+                        "WHERE customer_id = ? AND created_at <= ?",
+                        Long.class, customerId, until)
+                : jdbcTemplate.queryForObject(
+                        "SELECT COALESCE(SUM(points), 0) FROM loyalty_history " +
+                        "WHERE customer_id = ? AND created_at > ? AND created_at <= ?",
+                        Long.class, customerId, from, until);
+        return (int) (base + (delta != null ? delta : 0));
+    }
+
+    /**
+     * Chụp số dư tới 0h hôm nay rồi đối soát
+     */
+    @Scheduled(cron = "${loyalty.ledger.cron:0 30 2 * * *}")
+    public void nightly() {
+        try {
+            snapshot(LocalDate.now().atStartOfDay());
+            reconcile();
+        } catch (Exception e) {
+            log.error("Error running loyalty ledger nightly job", e);
+        }
+    }
+
+    /**
+     * Chụp số dư tại thời điểm at cho các khách có bút toán từ lần chụp trước:
+     * số dư mới = bản chụp trước của khách + tổng bút toán trong khoảng (lần chụp trước, at]
+     */
+    @Transactional
+    public int snapshot(LocalDateTime at) {
+        Timestamp previous = jdbcTemplate.queryForObject(
+                "SELECT MAX(snapshot_at) FROM loyalty_balance_snapshot", Timestamp.class);
+        if (previous != null && !previous.toLocalDateTime().isBefore(at)) {
+            return 0;
+        }
+        Timestamp from = previous != null ? previous : Timestamp.valueOf(LocalDateTime.of(1970, 1, 1, 0, 0));
+        Timestamp until = Timestamp.valueOf(at);
+
+        int rows = jdbcTemplate.update(
+                "INSERT INTO loyalty_balance_snapshot (customer_id, snapshot_at, balance) " +
+                "SELECT d.customer_id, ?, d.delta + COALESCE((" +
+                "    SELECT s.balance FROM loyalty_balance_snapshot s " +
+                "    WHERE s.customer_id = d.customer_id ORDER BY s.snapshot_at DESC LIMIT 1), 0) " +
+                "FROM (SELECT customer_id, SUM(points) AS delta FROM loyalty_history " +
+                "      WHERE created_at > ? AND created_at <= ? GROUP BY customer_id) d",
+                until, from, until);
+
+        lastSnapshotAt = at;
+        lastSnapshotRows = rows;
+        log.info("Took loyalty balance snapshot at {} for {} customers", at, rows);
+        return rows;
+    }
+
+    /**
+     * Đối soát tổng sổ điểm với số dư của từng khách
+     */
+    public List<Mismatch> reconcile() {
+        long start = System.currentTimeMillis();
+        List<Mismatch> mismatches = jdbcTemplate.query(
+                "SELECT c.customer_id, COALESCE(c.loyalty_points, 0) AS balance, COALESCE(h.total, 0) AS ledger_sum " +
+                "FROM customer c " +
+                "LEFT JOIN (SELECT customer_id, SUM(points) AS total FROM loyalty_history GROUP BY customer_id) h " +
+                "ON h.customer_id = c.customer_id " +
+                "WHERE COALESCE(c.loyalty_points, 0) <> COALESCE(h.total, 0)",
+                (rs, rowNum) -> new Mismatch(rs.getInt("customer_id"), rs.getInt("balance"), rs.getLong("ledger_sum")));
+
+        lastReconciledAt = LocalDateTime.now();
+        lastMismatches = List.copyOf(mismatches);
+        if (mismatches.isEmpty()) {
+            log.info("Loyalty ledger reconciled in {} ms, no mismatches", System.currentTimeMillis() - start);
+        } else {
+            log.warn("Loyalty ledger reconciliation found {} mismatched customers: {}", mismatches.size(),
+                    mismatches.subList(0, Math.min(20, mismatches.size())));
+        }
+        return mismatches;
+    }
+
+    /**
+     * Số liệu theo dõi sổ điểm
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lastSnapshotAt", lastSnapshotAt);
+        stats.put("lastSnapshotRows", lastSnapshotRows);
+        stats.put("lastReconciledAt", lastReconciledAt);
+        stats.put("mismatches", lastMismatches);
+        return stats;
+    }
+
+    private void append(Integer customerId, int points, LoyaltyHistory.PointType type,
+                        Integer referenceId, String description) {
+        jdbcTemplate.update(
+                "INSERT INTO loyalty_history (customer_id, points, type, reference_id, description, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)",
+                customerId, points, type.name(), referenceId, description, Timestamp.valueOf(LocalDateTime.now()));
+    }
+}
@@ -15,6 +15,8 @@ import java.util.stream.Collectors;
 public class MedicalDevicePromptService {
 
     private final IMedicalDeviceRepository deviceRepository;
+    private final ProductSearchIndex productSearchIndex;
+    private final ProductAssociationService productAssociationService;
     private static final String SITE_URL = "http://localhost:8080";
 
     // Từ khóa cho các nhóm sản phẩm
@@ -99,26 +101,23 @@ public class MedicalDevicePromptService {
     }
 
     private List<MedicalDevice> findRelevantDevices(List<String> keywords, String message) {
-        List<MedicalDevice> devices;
+        // Tìm bằng chỉ mục trong bộ nhớ (đã bỏ dấu, xếp hạng BM25)
+        String query = keywords.isEmpty() ? message : String.join(" ", keywords) + " " + message;
+        List<String> matchedIds = productSearchIndex.search(query, 20);
 
-        if (keywords.isEmpty()) {
+        List<MedicalDevice> devices;
+        if (!matchedIds.isEmpty()) {
+            devices = deviceRepository.findAllWithDetailsByIdIn(matchedIds);
+        } else if (keywords.isEmpty()) {
             // Không có từ khóa cụ thể -> lấy sản phẩm nổi bật
             devices = deviceRepository.findTop10ByStatusOrderBySoldCountDesc(
                     MedicalDevice.DeviceStatus.Còn_hàng
             );
         } else {
-            // Tìm theo từ khóa
-            String searchTerm = String.join(" ", keywords);
-            devices = deviceRepository.findByNameContainingIgnoreCaseOrDescriptionContainingIgnoreCase(
-                    searchTerm, searchTerm
+            // Không tìm thấy -> search rộng hơn
+            devices = deviceRepository.findTop20ByStatusOrderByViewCountDesc(
+                    MedicalDevice.DeviceStatus.Còn_hàng
             );
-
-            // Nếu không tìm thấy, search rộng hơn
-            if (devices.isEmpty()) {
-                devices = deviceRepository.findTop20ByStatusOrderByViewCountDesc(
-                        MedicalDevice.DeviceStatus.Còn_hàng
-                );
-            }
         }
 
         // Sắp xếp và lọc theo tiêu chí
@@ -178,6 +177,7 @@ public class MedicalDevicePromptService {
             context.append("\n---\n\n");
         }
 
+        context.append(buildCrossSellContext(devices));
         context.append(buildRecommendationGuide(intent));
 
         return context.toString();
@@ -236,6 +236,27 @@ public class MedicalDevicePromptService {
 
     }
 
+    /**
+     * Sản phẩm khách hay mua cùng (từ đơn đã hoàn thành) để chatbot gợi ý bán kèm.
+     * Tên lấy từ chỉ mục tìm kiếm, không truy vấn thêm sản phẩm.
+     */
+    private String buildCrossSellContext(List<MedicalDevice> devices) {
+        List<String> deviceIds = devices.stream().map(MedicalDevice::getDeviceId).toList();
+        List<String> relatedIds = productAssociationService.findRelatedIds(deviceIds, 3);
+
+        StringBuilder context = new StringBuilder();
+        for (String relatedId : relatedIds) {
+            productSearchIndex.getDocument(relatedId)
+                    .filter(doc -> doc.getStatus() == MedicalDevice.DeviceStatus.Còn_hàng)
+                    .ifPresent(doc -> context.append(String.format("- %s: %s/products/%s\n",
+                            doc.getName(), SITE_URL, doc.getDeviceId())));
+        }
+        if (context.isEmpty()) {
+            return "";
+        }
+        return "=== KHÁCH THƯỜNG MUA KÈM ===\n" + context + "\n";
+    }
+
     private String getIntentDescription(String intent) {
         return switch (intent) {
             case "PRICE_INQUIRY" -> "Hỏi về giá";
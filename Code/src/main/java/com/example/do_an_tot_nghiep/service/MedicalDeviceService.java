@@ -1,10 +1,12 @@
 package com.example.do_an_tot_nghiep.service;
 
 import com.example.do_an_tot_nghiep.dto.MedicalDeviceDTO;
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
 import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.repository.*;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -24,8 +26,6 @@ public class MedicalDeviceService implements IMedicalDeviceService {
     @Autowired
     private IMedicalDeviceRepository deviceRepository;
     @Autowired
-    private IReviewRepository reviewRepository;
-    @Autowired
     private ICategoryRepository categoryRepository;
     @Autowired
     private IBrandRepository brandRepository;
@@ -33,6 +33,8 @@ public class MedicalDeviceService implements IMedicalDeviceService {
     private ISupplierRepository supplierRepository;
     @Autowired
     private CloudinaryService cloudinaryService;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     @Override
     public List<MedicalDeviceDTO> getLowStockProducts() {
@@ -51,28 +53,31 @@ public class MedicalDeviceService implements IMedicalDeviceService {
 
     @Override
     public Page<MedicalDeviceDTO> getAllProducts(Pageable pageable) {
-        return deviceRepository.findAll(pageable).map(this::convertToDTO);
+        return deviceRepository.findCards(null, pageable).map(this::convertCardToDTO);
     }
 
     @Override
     public Page<MedicalDeviceDTO> getProductsByStatus(MedicalDevice.DeviceStatus status, Pageable pageable) {
-        return deviceRepository.findByStatus(status, pageable).map(this::convertToDTO);
+        return deviceRepository.findCards(MedicalDeviceSpecification.hasStatus(status), pageable)
+                .map(this::convertCardToDTO);
     }
 
     @Override
     public Page<MedicalDeviceDTO> getProductsByBrand(Integer brandId, Pageable pageable) {
-        return deviceRepository.findByBrandBrandId(brandId, pageable).map(this::convertToDTO);
+        return deviceRepository.findCards(MedicalDeviceSpecification.ofBrand(brandId), pageable)
+                .map(this::convertCardToDTO);
     }
 
     @Override
     public Page<MedicalDeviceDTO> getProductsByCategory(Integer categoryId, Pageable pageable) {
-        return deviceRepository.findByCategoryCategoryId(categoryId, pageable).map(this::convertToDTO);
+        return deviceRepository.findCards(MedicalDeviceSpecification.inCategory(categoryId), pageable)
+                .map(this::convertCardToDTO);
     }
 
     @Override
     public Page<MedicalDeviceDTO> searchProducts(String keyword, Pageable pageable) {
-        return deviceRepository.findByNameContainingIgnoreCaseOrSkuContainingIgnoreCase(keyword, keyword, pageable)
-                .map(this::convertToDTO);
+        return deviceRepository.findCards(MedicalDeviceSpecification.nameOrSkuLike(keyword.trim()), pageable)
+                .map(this::convertCardToDTO);
     }
 
     @Override
@@ -98,6 +103,7 @@ public class MedicalDeviceService implements IMedicalDeviceService {
         }
 
         deviceRepository.delete(device);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PRODUCT, id));
     }
 
     @Transactional
@@ -161,6 +167,7 @@ public class MedicalDeviceService implements IMedicalDeviceService {
         }
 
         deviceRepository.save(device);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PRODUCT, device.getDeviceId()));
     }
 
     @Transactional
@@ -259,6 +266,7 @@ public class MedicalDeviceService implements IMedicalDeviceService {
 
         // === 7. LƯU DATABASE ===
         deviceRepository.save(device);
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PRODUCT, device.getDeviceId()));
     }
 
 
@@ -323,9 +331,6 @@ public class MedicalDeviceService implements IMedicalDeviceService {
 
     @Override
     public MedicalDeviceDTO convertToDTO(MedicalDevice device) {
-        Double avgRating = reviewRepository.getAverageRatingByDevice(device);
-        Long reviewCount = reviewRepository.countApprovedReviewsByDevice(device);
-
         return MedicalDeviceDTO.builder()
                 .deviceId(device.getDeviceId())
                 .name(device.getName())
@@ -359,10 +364,41 @@ public class MedicalDeviceService implements IMedicalDeviceService {
                 .galleryUrls(device.getGalleryUrlList())
                 .metaKeywords(device.getMetaKeywords())
                 .metaDescription(device.getMetaDescription())
-                .avgRating(avgRating)
-                .reviewCount(reviewCount)
+                .avgRating(device.getAverageRating())
+                .reviewCount(device.getTotalReviews())
                 .createdAt(device.getCreatedAt())
                 .updatedAt(device.getUpdatedAt())
                 .build();
     }
-}
\ No newline at end of file
+
+    /**
+     * DTO cho lưới sản phẩm trang quản trị: chỉ có các trường của thẻ sản phẩm,
+     * không có mô tả / thông số / thư viện ảnh
+     */
+    private MedicalDeviceDTO convertCardToDTO(ProductCardView card) {
+        return MedicalDeviceDTO.builder()
+                .deviceId(card.getDeviceId())
+                .name(card.getName())
+                .slug(card.getSlug())
+                .sku(card.getSku())
+                .categoryId(card.getCategoryId())
+                .brandId(card.getBrandId())
+                .categoryName(card.getCategoryName())
+                .brandName(card.getBrandName())
+                .price(card.getPrice() != null ? card.getPrice().doubleValue() : null)
+                .originalPrice(card.getOriginalPrice() != null ? card.getOriginalPrice().doubleValue() : null)
+                .discountPercent(card.getDiscountPercent())
+                .stockQuantity(card.getStockQuantity())
+                .minStockLevel(card.getMinStockLevel())
+                .status(card.getStatus())
+                .isFeatured(card.getIsFeatured())
+                .isNew(card.getIsNew())
+                .viewCount(card.getViewCount())
+                .soldCount(card.getSoldCount())
+                .imageUrl(card.getImageUrl())
+                .avgRating(card.getAverageRating() != null ? card.getAverageRating() : 0.0)
+                .reviewCount(card.getReviewCount() != null ? card.getReviewCount().longValue() : 0L)
+                .createdAt(card.getCreatedAt())
+                .build();
+    }
+}
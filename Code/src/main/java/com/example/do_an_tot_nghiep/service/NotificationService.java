@@ -19,8 +19,15 @@ public class NotificationService implements INotificationService {
     private ICustomerRepository customerRepository;
 
     public void sendOrderStatusNotification(Order order) {
+        sendOrderStatusNotification(order, order.getStatus());
+    }
+
+    /**
+     * Thông báo theo trạng thái tại thời điểm đổi (đơn có thể đã đổi tiếp khi thông báo được gửi)
+     */
+    public void sendOrderStatusNotification(Order order, Order.OrderStatus status) {
         String title = "Cập nhật đơn hàng #" + order.getOrderCode();
-        String content = getOrderStatusMessage(order.getStatus());
+        String content = getOrderStatusMessage(status);
 
         Notification notification = Notification.builder()
                 .targetType(Notification.TargetType.CUSTOMER)
@@ -35,6 +42,20 @@ public class NotificationService implements INotificationService {
         notificationRepository.save(notification);
     }
 
+    public void sendPaymentNotification(Order order) {
+        Notification notification = Notification.builder()
+                .targetType(Notification.TargetType.CUSTOMER)
+                .customer(order.getCustomer())
+                .title("Thanh toán đơn hàng #" + order.getOrderCode())
+                .content("Đơn hàng của bạn đã được thanh toán thành công")
+                .type(Notification.NotificationType.ORDER)
+                .referenceId(order.getOrderId())
+                .isRead(false)
+                .build();
+
+        notificationRepository.save(notification);
+    }
+
     public void sendPromotionNotification(Customer customer, String promotionInfo) {
         Notification notification = Notification.builder()
                 .targetType(Notification.TargetType.CUSTOMER)
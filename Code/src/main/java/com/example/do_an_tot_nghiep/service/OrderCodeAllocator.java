@@ -0,0 +1,71 @@
+package com.example.do_an_tot_nghiep.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Cấp mã đơn hàng dạng ORD + yyyyMMdd + số thứ tự trong ngày (vd: ORD2025101710042).
+ *
+ * - Hi/lo: mỗi lần hết số, node này giữ trước một khối BLOCK_SIZE số liên tiếp từ bảng
+ *   order_code_sequence (một câu lệnh), sau đó cấp trong bộ nhớ không cần truy vấn DB.
+ * - Các node dùng chung bảng nên không bao giờ cấp trùng; số chưa dùng khi tắt máy chỉ bị bỏ qua.
+ * - Số thứ tự bắt đầu từ FIRST_VALUE (5 chữ số) để không trùng mã cũ sinh ngẫu nhiên 4 chữ số.
+ */
+@Service
+public class OrderCodeAllocator {
+
+    public static final String PREFIX = "ORD";
+    public static final long FIRST_VALUE = 10_000;
+    static final int BLOCK_SIZE = 100;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * Nguồn cấp khối số thứ tự dùng chung giữa các node
+     */
+    public interface BlockSource {
+        /**
+         * Giữ size số liên tiếp của ngày date, trả về số đầu tiên của khối
+         */
+        long reserveBlock(LocalDate date, int size);
+    }
+
+    private final BlockSource blockSource;
+    private final Clock clock;
+    private final int blockSize;
+
+    // Khối hiện tại: [next, limit) của ngày blockDate
+    private LocalDate blockDate;
+    private long next;
+    private long limit;
+
+    @Autowired
+    public OrderCodeAllocator(BlockSource blockSource) {
+        this(blockSource, Clock.systemDefaultZone(), BLOCK_SIZE);
+    }
+
+    public OrderCodeAllocator(BlockSource blockSource, Clock clock, int blockSize) {
+        this.blockSource = blockSource;
+        this.clock = clock;
+        this.blockSize = blockSize;
+    }
+
+    public String nextCode() {
+        LocalDate today = LocalDate.now(clock);
+        long value;
+        synchronized (this) {
+            if (!today.equals(blockDate) || next >= limit) {
+                long start = blockSource.reserveBlock(today, blockSize);
+                blockDate = today;
+                next = start;
+                limit = start + blockSize;
+            }
+            value = next++;
+        }
+        return PREFIX + today.format(DATE_FORMAT) + value;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+
+/**
+ * Sự kiện đơn hàng đọc ra từ bảng order_outbox, giao cho OrderEventHandler.
+ * oldStatus / newStatus là trạng thái tại thời điểm ghi sự kiện (không phải trạng thái hiện tại).
+ */
+public record OrderEvent(long eventId, Type type, Integer orderId,
+                         Order.OrderStatus oldStatus, Order.OrderStatus newStatus, int attempts) {
+
+    public enum Type {
+        ORDER_PLACED,
+        ORDER_STATUS_CHANGED,
+        PAYMENT_CAPTURED
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.do_an_tot_nghiep.service;
+
+import java.util.Set;
+
+/**
+ * Tác vụ phụ chạy sau khi đơn hàng thay đổi (thông báo, hạng khách hàng...).
+ *
+ * - Mỗi handler có một dòng outbox riêng cho mỗi sự kiện nên lỗi / thử lại của handler này
+ *   không làm handler khác chạy lại.
+ * - Có thể bị gọi lại sau lỗi hoặc khi node chết giữa chừng => handle() phải chịu được chạy lại.
+ */
+public interface OrderEventHandler {
+
+    /**
+     * Tên cố định, lưu trong cột handler của order_outbox (không đổi khi đã có dữ liệu)
+     */
+    String name();
+
+    Set<OrderEvent.Type> types();
+
+    void handle(OrderEvent event);
+}
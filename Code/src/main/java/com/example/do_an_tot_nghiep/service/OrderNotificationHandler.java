@@ -0,0 +1,39 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.repository.IOrderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Gửi thông báo cho khách khi đơn đổi trạng thái / thanh toán thành công
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderNotificationHandler implements OrderEventHandler {
+
+    private final IOrderRepository orderRepository;
+    private final NotificationService notificationService;
+
+    @Override
+    public String name() {
+        return "notification";
+    }
+
+    @Override
+    public Set<OrderEvent.Type> types() {
+        return Set.of(OrderEvent.Type.ORDER_STATUS_CHANGED, OrderEvent.Type.PAYMENT_CAPTURED);
+    }
+
+    @Override
+    public void handle(OrderEvent event) {
+        orderRepository.findById(event.orderId()).ifPresent(order -> {
+            if (event.type() == OrderEvent.Type.PAYMENT_CAPTURED) {
+                notificationService.sendPaymentNotification(order);
+            } else {
+                notificationService.sendOrderStatusNotification(order, event.newStatus());
+            }
+        });
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bảng order_outbox: sự kiện đơn hàng được ghi cùng transaction với Order,
+ * OrderOutboxWorker đọc ra và giao cho các OrderEventHandler sau khi commit.
+ *
+ * - Đơn rollback thì sự kiện cũng mất; đơn commit thì sự kiện chắc chắn được xử lý.
+ * - Dòng được đánh dấu DONE trong cùng transaction với handler (markDone kiểm tra claimed_by),
+ *   nên giao lại sau khi node chết / hết lease không chạy handler lần hai.
+ * - Mỗi sự kiện ghi một dòng cho mỗi handler đăng ký loại đó.
+ * - Trạng thái dòng: PENDING -> PROCESSING -> DONE, lỗi thì quay lại PENDING với lịch thử lại,
+ *   quá MAX_ATTEMPTS thì FAILED (giữ lại last_error để kiểm tra).
+ */
+@Service
+public class OrderOutbox {
+
+    static final int MAX_ATTEMPTS = 8;
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(5);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(30);
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, OrderEventHandler> handlers = new LinkedHashMap<>();
+
+    public OrderOutbox(JdbcTemplate jdbcTemplate, List<OrderEventHandler> handlers) {
+        this.jdbcTemplate = jdbcTemplate;
+        for (OrderEventHandler handler : handlers) {
+            if (this.handlers.put(handler.name(), handler) != null) {
+                throw new IllegalStateException("Trùng tên OrderEventHandler: " + handler.name());
+            }
+        }
+    }
+
+    /**
+     * Ghi sự kiện trong transaction hiện tại của đơn hàng
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publish(OrderEvent.Type type, Order order, Order.OrderStatus oldStatus) {
+        Map<Integer, Order.OrderStatus> oldStatuses = new HashMap<>();
+        oldStatuses.put(order.getOrderId(), oldStatus);
+        publish(type, oldStatuses, order.getStatus());
+    }
+
+    /**
+     * Ghi cùng một loại sự kiện cho nhiều đơn (orderId -> trạng thái cũ) trong một batch
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publish(OrderEvent.Type type, Map<Integer, Order.OrderStatus> oldStatuses, Order.OrderStatus newStatus) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (OrderEventHandler handler : handlers.values()) {
+            if (!handler.types().contains(type)) {
+                continue;
+            }
+            oldStatuses.forEach((orderId, oldStatus) -> rows.add(new Object[]{
+                    type.name(), handler.name(), orderId,
+                    oldStatus != null ? oldStatus.name() : null,
+                    newStatus != null ? newStatus.name() : null,
+                    now}));
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO order_outbox (event_type, handler, order_id, old_status, new_status, " +
+                "status, attempts, next_attempt_at) VALUES (?, ?, ?, ?, ?, 'PENDING', 0, ?)",
+                rows);
+    }
+
+    OrderEventHandler handler(String name) {
+        return handlers.get(name);
+    }
+
+    /**
+     * Giành tối đa limit dòng đến hạn (kể cả dòng PROCESSING mà node khác giữ quá lease)
+     * bằng một câu UPDATE, sau đó đọc lại các dòng vừa giành theo claimToken
+     */
+    List<Claimed> claim(String claimToken, int limit, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        int claimed = jdbcTemplate.update(
+                "UPDATE order_outbox SET status = 'PROCESSING', claimed_by = ?, locked_until = ? " +
+                "WHERE (status = 'PENDING' AND next_attempt_at <= ?) " +
+                "OR (status = 'PROCESSING' AND locked_until < ?) " +
+                "ORDER BY event_id LIMIT ?",
+                claimToken, Timestamp.valueOf(now.plus(lease)), Timestamp.valueOf(now), Timestamp.valueOf(now), limit);
+        if (claimed == 0) {
+            return List.of();
+        }
+        return jdbcTemplate.query(
+                "SELECT event_id, event_type, handler, order_id, old_status, new_status, attempts, claimed_by " +
+                "FROM order_outbox WHERE claimed_by = ? AND status = 'PROCESSING' ORDER BY event_id",
+                CLAIMED_MAPPER, claimToken);
+    }
+
+    /**
+     * Đánh dấu DONE nếu dòng vẫn do claimToken giữ. Gọi trong transaction của handler:
+     * dòng bị khóa tới khi handler commit, handler lỗi thì rollback cả trạng thái DONE.
+     * false = dòng đã được xử lý hoặc đã bị node khác giành lại, không chạy handler.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    boolean markDone(long eventId, String claimToken) {
+        return jdbcTemplate.update(
+                "UPDATE order_outbox SET status = 'DONE', attempts = attempts + 1, processed_at = ?, " +
+                "claimed_by = NULL, locked_until = NULL, last_error = NULL " +
+                "WHERE event_id = ? AND status = 'PROCESSING' AND claimed_by = ?",
+                Timestamp.valueOf(LocalDateTime.now()), eventId, claimToken) > 0;
+    }
+
+    /**
+     * Lỗi: lùi lịch thử lại theo cấp số nhân (5s, 10s, 20s... tối đa 30 phút)
+     */
+    void markFailed(long eventId, String claimToken, int attempts, Throwable error) {
+        int nextAttempts = attempts + 1;
+        String status = nextAttempts >= MAX_ATTEMPTS ? "FAILED" : "PENDING";
+        jdbcTemplate.update(
+                "UPDATE order_outbox SET status = ?, attempts = ?, next_attempt_at = ?, " +
+                "claimed_by = NULL, locked_until = NULL, last_error = ? " +
+                "WHERE event_id = ? AND status = 'PROCESSING' AND claimed_by = ?",
+                status, nextAttempts, Timestamp.valueOf(LocalDateTime.now().plus(backoff(nextAttempts))),
+                truncate(String.valueOf(error)), eventId, claimToken);
+    }
+
+    /**
+     * Dọn dòng đã xử lý xong cũ hơn retention
+     */
+    int purgeDone(Duration retention) {
+        return jdbcTemplate.update("DELETE FROM order_outbox WHERE status = 'DONE' AND processed_at < ?",
+                Timestamp.valueOf(LocalDateTime.now().minus(retention)));
+    }
+
+    static Duration backoff(int attempts) {
+        Duration delay = BASE_BACKOFF.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay;
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    record Claimed(String handler, String claimToken, OrderEvent event) {
+    }
+
+    private static final RowMapper<Claimed> CLAIMED_MAPPER = (rs, rowNum) -> new Claimed(
+            rs.getString("handler"),
+            rs.getString("claimed_by"),
+            new OrderEvent(
+                    rs.getLong("event_id"),
+                    OrderEvent.Type.valueOf(rs.getString("event_type")),
+                    rs.getInt("order_id"),
+                    toStatus(rs.getString("old_status")),
+                    toStatus(rs.getString("new_status")),
+                    rs.getInt("attempts")));
+
+    private static Order.OrderStatus toStatus(String value) {
+        return value != null ? Order.OrderStatus.valueOf(value) : null;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.do_an_tot_nghiep.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Đọc order_outbox và chạy các OrderEventHandler trên một pool luồng có giới hạn.
+ *
+ * - Mỗi giây giành tối đa số dòng bằng số chỗ trống của pool (không giành quá khả năng xử lý,
+ *   dòng còn lại để node khác / lượt sau).
+ * - Mỗi handler chạy trong transaction riêng, cùng với việc đánh dấu DONE (có kiểm tra claimed_by):
+ *   hai node không cùng commit một dòng, nhưng handler vẫn có thể chạy lại (hết LEASE, lỗi khi commit)
+ *   nên phải giữ đúng hợp đồng của OrderEventHandler; lỗi thì OrderOutbox lùi lịch thử lại.
+ * - Dòng đã giành mà node chết giữa chừng sẽ được giành lại khi hết LEASE.
+ */
+@Slf4j
+@Component
+public class OrderOutboxWorker {
+
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final Duration DONE_RETENTION = Duration.ofDays(7);
+
+    private final OrderOutbox outbox;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    public OrderOutboxWorker(OrderOutbox outbox, PlatformTransactionManager transactionManager) {
+        this.outbox = outbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_IN_FLIGHT),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "order-outbox-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void poll() {
+        int capacity = inFlight.availablePermits();
+        if (capacity == 0) {
+            return;
+        }
+        List<OrderOutbox.Claimed> claimed;
+        try {
+            claimed = outbox.claim(UUID.randomUUID().toString(), capacity, LEASE);
+        } catch (Exception e) {
+            log.error("Error claiming order outbox events", e);
+            return;
+        }
+        for (OrderOutbox.Claimed item : claimed) {
+            // Luôn có chỗ vì chỉ giành tối đa số chỗ trống; nếu không, dòng sẽ được giành lại sau LEASE
+            if (!inFlight.tryAcquire()) {
+                break;
+            }
+            executor.execute(() -> {
+                try {
+                    deliver(item);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private void deliver(OrderOutbox.Claimed item) {
+        OrderEvent event = item.event();
+        OrderEventHandler handler = outbox.handler(item.handler());
+        try {
+            if (handler == null) {
+                throw new IllegalStateException("Không có OrderEventHandler tên " + item.handler());
+            }
+            Boolean handled = transactionTemplate.execute(status -> {
+                if (!outbox.markDone(event.eventId(), item.claimToken())) {
+                    return false;
+                }
+                handler.handle(event);
+                return true;
+            });
+            if (!Boolean.TRUE.equals(handled)) {
+                log.debug("Order event {} ({} -> {}) already processed or reclaimed, skipped",
+                        event.eventId(), event.type(), item.handler());
+            }
+        } catch (Exception e) {
+            log.warn("Order event {} ({} -> {}) failed, attempt {}: {}",
+                    event.eventId(), event.type(), item.handler(), event.attempts() + 1, e.getMessage());
+            try {
+                outbox.markFailed(event.eventId(), item.claimToken(), event.attempts(), e);
+            } catch (Exception markError) {
+                // Dòng vẫn PROCESSING, sẽ được giành lại khi hết lease
+                log.error("Error recording failure of order event {}", event.eventId(), markError);
+            }
+        }
+    }
+
+    /**
+     * Dọn sự kiện đã xử lý (mỗi giờ)
+     */
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgeDone() {
+        int deleted = outbox.purgeDone(DONE_RETENTION);
+        if (deleted > 0) {
+            log.debug("Purged {} processed order outbox events", deleted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -4,20 +4,28 @@ import com.example.do_an_tot_nghiep.dto.*;
 import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
 public class OrderService implements IOrderService {
+    private static final int MAX_HISTORY_PAGE_SIZE = 50;
+
+    /**
+     * Trạng thái quản trị được phép hủy (đơn đã hoàn thành / trả hàng thì không hủy được)
+     */
+    public static final Set<Order.OrderStatus> ADMIN_CANCELLABLE = Set.of(
+            Order.OrderStatus.PENDING, Order.OrderStatus.CONFIRMED,
+            Order.OrderStatus.PREPARING, Order.OrderStatus.SHIPPING);
+
     @Autowired
     private IOrderRepository orderRepository;
 
@@ -37,7 +45,7 @@ public class OrderService implements IOrderService {
     private PromotionService promotionService;
 
     @Autowired
-    private CustomerService customerService;
+    private LoyaltyLedgerService loyaltyLedgerService;
 
     @Autowired
     private IOrderDetailRepository orderDetailRepository;
@@ -45,84 +53,64 @@ public class OrderService implements IOrderService {
     @Autowired
     private IEmployeeRepository employeeRepository;
 
-    @Autowired
-    private NotificationService notificationService;
-
     @Autowired
     private IOrderStatusHistoryRepository orderStatusHistoryRepository;
 
     @Autowired
     private IReviewRepository reviewRepository;
 
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderCodeAllocator orderCodeAllocator;
+
+    @Autowired
+    private OrderOutbox orderOutbox;
+
+    @Autowired
+    private CartPricingEngine cartPricingEngine;
+
     @Transactional
     @Override
     public OrderResponse createOrder(OrderRequest request) {
         Customer customer = customerRepository.findById(request.getCustomerId())
                 .orElseThrow(() -> new RuntimeException("Customer not found"));
 
-        // Calculate order totals
-        BigDecimal subtotal = BigDecimal.ZERO;
-        List<OrderDetail> orderDetails = new ArrayList<>();
-
-        for (OrderItemRequest item : request.getItems()) {
-            MedicalDevice device = deviceRepository.findById(item.getDeviceId())
-                    .orElseThrow(() -> new RuntimeException("Device not found: " + item.getDeviceId()));
-
-            // Check stock
-            if (device.getStockQuantity() < item.getQuantity()) {
-                throw new RuntimeException("Insufficient stock for: " + device.getName());
-            }
-
-            // ✅ TÍNH GIÁ ĐÃ GIẢM (áp dụng discountPercent)
-            BigDecimal actualPrice = calculateDiscountedPrice(device);
-
-            BigDecimal itemTotal = actualPrice.multiply(new BigDecimal(item.getQuantity()));
-            subtotal = subtotal.add(itemTotal);
+        // Giá, khuyến mãi, phí ship, điểm tích lũy: cùng một bản tính với trang thanh toán
+        PricedCart priced = cartPricingEngine.price(
+                customer.getCustomerId(), request.getPromotionCode(), request.getLoyaltyPointsUsed());
+        if (priced.isEmpty()) {
+            throw new RuntimeException("Giỏ hàng trống");
+        }
+        Map<String, Integer> requested = request.getItems().stream()
+                .collect(Collectors.toMap(OrderItemRequest::getDeviceId, OrderItemRequest::getQuantity, Integer::sum));
+        if (!priced.quantities().equals(requested)) {
+            throw new RuntimeException("Giỏ hàng đã thay đổi, vui lòng tải lại trang thanh toán");
+        }
 
+        // Tồn kho không kiểm tra ở đây (số tồn trong bản tính có thể đã cũ):
+        // UPDATE có điều kiện ở cuối mới là chỗ quyết định
+        List<OrderDetail> orderDetails = new ArrayList<>();
+        for (PricedCart.Line line : priced.getLines()) {
             OrderDetail detail = OrderDetail.builder()
-                    .device(device)
-                    .deviceName(device.getName())
-                    .deviceImage(device.getImageUrl())
-                    .quantity(item.getQuantity())
-                    .unitPrice(actualPrice)  // ✅ Dùng giá đã giảm
-                    .totalPrice(itemTotal)
+                    .device(deviceRepository.getReferenceById(line.getDeviceId()))
+                    .deviceName(line.getName())
+                    .deviceImage(line.getImageUrl())
+                    .quantity(line.getQuantity())
+                    .unitPrice(line.getUnitPrice())  // ✅ Dùng giá đã giảm
+                    .totalPrice(line.getLineTotal())
                     .build();
 
             orderDetails.add(detail);
         }
 
-        // Calculate shipping fee
-        BigDecimal shippingFee = calculateShippingFee(subtotal);
-
-        // Apply promotion if provided
-        BigDecimal discountAmount = BigDecimal.ZERO;
-        Promotion promotion = null;
-        if (request.getPromotionCode() != null) {
-            PromotionApplyResponse promoResponse = promotionService.applyPromotion(
-                    request.getPromotionCode(),
-                    customer.getCustomerId(),
-                    subtotal
-            );
-            if (promoResponse.getSuccess()) {
-                discountAmount = promoResponse.getDiscountAmount();
-                promotion = promotionRepository.findById(promoResponse.getPromotionId())
-                        .orElse(null);
-            }
-        }
-
-        // Apply loyalty points
-        BigDecimal loyaltyDiscount = BigDecimal.ZERO;
-        if (request.getLoyaltyPointsUsed() != null && request.getLoyaltyPointsUsed() > 0) {
-            // 1 point = 1000 VND
-            loyaltyDiscount = new BigDecimal(request.getLoyaltyPointsUsed() * 1000);
-            customerService.redeemLoyaltyPoints(customer.getCustomerId(), request.getLoyaltyPointsUsed());
-        }
-
-        // Calculate total
-        BigDecimal totalPrice = subtotal
-                .add(shippingFee)
-                .subtract(discountAmount)
-                .subtract(loyaltyDiscount);
+        Promotion promotion = priced.isPromotionApplied()
+                ? promotionRepository.getReferenceById(priced.getPromotionId())
+                : null;
 
         // Generate order code
         String orderCode = generateOrderCode();
@@ -134,12 +122,12 @@ public class OrderService implements IOrderService {
                 .receiverName(request.getReceiverName())
                 .receiverPhone(request.getReceiverPhone())
                 .receiverAddress(request.getReceiverAddress())
-                .subtotal(subtotal)
-                .shippingFee(shippingFee)
-                .discountAmount(discountAmount)
-                .loyaltyPointsUsed(request.getLoyaltyPointsUsed())
-                .loyaltyDiscount(loyaltyDiscount)
-                .totalPrice(totalPrice)
+                .subtotal(priced.getSubtotal())
+                .shippingFee(priced.getShippingFee())
+                .discountAmount(priced.getPromotionDiscount())
+                .loyaltyPointsUsed(priced.getLoyaltyPointsUsed())
+                .loyaltyDiscount(priced.getLoyaltyDiscount())
+                .totalPrice(priced.getTotal())
                 .promotion(promotion)
                 .paymentMethod(Order.PaymentMethod.valueOf(request.getPaymentMethod()))
                 .paymentStatus(Order.PaymentStatus.UNPAID)
@@ -149,40 +137,58 @@ public class OrderService implements IOrderService {
 
         order = orderRepository.save(order);
 
-        // Save order details
+        // Save order details: một batch INSERT cho cả đơn
         for (OrderDetail detail : orderDetails) {
             detail.setOrder(order);
-            orderDetailRepository.save(detail);
+        }
+        insertOrderDetails(orderDetails);
+
+        // Trừ tồn kho: một câu UPDATE có điều kiện cho cả đơn (chỉ trừ khi còn đủ hàng),
+        // làm sau cùng để giữ khóa dòng ngắn nhất; thiếu hàng thì rollback cả đơn
+        stockService.reserve(toQuantities(orderDetails));
+
+        // Giành lượt dùng mã khuyến mãi trong cùng transaction: hết lượt thì rollback cả đơn
+        if (promotion != null) {
+            promotionService.claimPromotion(priced.getPromotionId(), customer.getCustomerId(),
+                    order.getOrderId(), priced.getPromotionDiscount());
+        }
 
-            // Update stock
-            MedicalDevice device = detail.getDevice();
-            device.setStockQuantity(device.getStockQuantity() - detail.getQuantity());
-            device.setSoldCount(device.getSoldCount() + detail.getQuantity());
-            deviceRepository.save(device);
+        // Trừ điểm tích lũy bằng UPDATE có điều kiện + bút toán sổ điểm: không đủ điểm thì rollback cả đơn
+        if (priced.getLoyaltyPointsUsed() > 0) {
+            loyaltyLedgerService.debit(customer.getCustomerId(), priced.getLoyaltyPointsUsed(),
+                    LoyaltyHistory.PointType.REDEEMED, order.getOrderId(),
+                    "Sử dụng điểm cho đơn hàng #" + order.getOrderCode());
         }
 
         // Clear customer's cart
         cartRepository.deleteByCustomer(customer);
+        cartPricingEngine.invalidate(customer.getCustomerId());
+
+        // Tác vụ phụ (thông báo, hạng khách...) chạy sau commit qua outbox
+        orderOutbox.publish(OrderEvent.Type.ORDER_PLACED, order, null);
 
         return convertToOrderResponse(order, orderDetails);
     }
 
     /**
-     * ✅ HELPER METHOD: Tính giá sau khi áp dụng discount của sản phẩm
+     * Ghi chi tiết đơn bằng JDBC batch. order_detail dùng AUTO_INCREMENT (IDENTITY) nên
+     * Hibernate không gom INSERT thành batch; với rewriteBatchedStatements cả batch
+     * được gửi thành một câu INSERT nhiều dòng.
      */
-    private BigDecimal calculateDiscountedPrice(MedicalDevice device) {
-        BigDecimal price = device.getPrice();
-
-        // Áp dụng discount nếu có
-        if (device.getDiscountPercent() != null && device.getDiscountPercent() > 0) {
-            BigDecimal discountMultiplier = BigDecimal.ONE
-                    .subtract(BigDecimal.valueOf(device.getDiscountPercent())
-                            .divide(BigDecimal.valueOf(100), 4, RoundingMode.HALF_UP));
-            price = price.multiply(discountMultiplier)
-                    .setScale(0, RoundingMode.HALF_UP); // Làm tròn về số nguyên
-        }
-
-        return price;
+    private void insertOrderDetails(List<OrderDetail> details) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO order_detail (order_id, device_id, device_name, device_image, " +
+                "quantity, unit_price, total_price) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                details.stream()
+                        .map(d -> new Object[]{
+                                d.getOrder().getOrderId(),
+                                d.getDevice().getDeviceId(),
+                                d.getDeviceName(),
+                                d.getDeviceImage(),
+                                d.getQuantity(),
+                                d.getUnitPrice(),
+                                d.getTotalPrice()})
+                        .collect(Collectors.toList()));
     }
 
     @Override
@@ -194,16 +200,57 @@ public class OrderService implements IOrderService {
         return convertToOrderResponse(order, details);
     }
 
-    public List<OrderResponse> getCustomerOrders(Integer customerId) {
-        Customer customer = customerRepository.findById(customerId)
-                .orElseThrow(() -> new RuntimeException("Customer not found"));
+    /**
+     * Một trang lịch sử đơn của khách hàng, mới nhất trước.
+     * Keyset theo (createdAt, orderId): cursor là vị trí đơn cuối của trang trước
+     * nên trang sau không phải bỏ qua (OFFSET) các đơn đã đọc.
+     */
+    @Transactional(readOnly = true)
+    public OrderHistoryPage getCustomerOrderHistory(Integer customerId, String status, String cursor, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+        Order.OrderStatus statusFilter = status != null && !status.isBlank()
+                ? Order.OrderStatus.valueOf(status.trim().toUpperCase())
+                : null;
+        // Lấy dư một đơn để biết còn trang sau hay không
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<Order> orders;
+        if (cursor == null || cursor.isBlank()) {
+            orders = orderRepository.findCustomerOrderPage(customerId, statusFilter, limit);
+        } else {
+            OrderCursor after = OrderCursor.decode(cursor);
+            orders = orderRepository.findCustomerOrderPageAfter(
+                    customerId, statusFilter, after.createdAt(), after.orderId(), limit);
+        }
+
+        boolean hasMore = orders.size() > pageSize;
+        if (hasMore) {
+            orders = orders.subList(0, pageSize);
+        }
+        Order last = orders.isEmpty() ? null : orders.get(orders.size() - 1);
+
+        return OrderHistoryPage.builder()
+                .orders(toOrderResponses(orders))
+                .nextCursor(hasMore ? new OrderCursor(last.getCreatedAt(), last.getOrderId()).encode() : null)
+                .hasMore(hasMore)
+                .build();
+    }
 
-        return orderRepository.findByCustomerOrderByCreatedAtDesc(customer)
+    /**
+     * Chuyển nhiều đơn sang OrderResponse, chi tiết của tất cả đơn đọc trong một truy vấn IN
+     */
+    private List<OrderResponse> toOrderResponses(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, List<OrderDetail>> detailsByOrder = orderDetailRepository
+                .findByOrderIdIn(orders.stream().map(Order::getOrderId).collect(Collectors.toList()))
                 .stream()
-                .map(order -> {
-                    List<OrderDetail> details = orderDetailRepository.findByOrder(order);
-                    return convertToOrderResponse(order, details);
-                })
+                .collect(Collectors.groupingBy(d -> d.getOrder().getOrderId()));
+
+        return orders.stream()
+                .map(order -> convertToOrderResponse(order,
+                        detailsByOrder.getOrDefault(order.getOrderId(), List.of())))
                 .collect(Collectors.toList());
     }
 
@@ -219,6 +266,13 @@ public class OrderService implements IOrderService {
         Order.OrderStatus oldStatus = order.getStatus();
         Order.OrderStatus status = Order.OrderStatus.valueOf(newStatus);
 
+        if (status == Order.OrderStatus.CANCELLED) {
+            if (!cancelOrder(orderId, ADMIN_CANCELLABLE, null, employee)) {
+                throw new RuntimeException("Không thể hủy đơn hàng ở trạng thái hiện tại");
+            }
+            return;
+        }
+
         order.setStatus(status);
 
         // Update timestamps based on status
@@ -238,15 +292,76 @@ public class OrderService implements IOrderService {
                 order.setCompletedAt(now);
                 order.setPaymentStatus(Order.PaymentStatus.PAID);
                 break;
-            case CANCELLED:
-                order.setCancelledAt(now);
-                restoreStock(order);
-                break;
         }
 
         orderRepository.save(order);
         createOrderStatusHistory(order, oldStatus, status, employee);
-        notificationService.sendOrderStatusNotification(order);
+        // Thông báo, hạng khách hàng, "thường mua cùng": chạy sau commit qua outbox
+        orderOutbox.publish(OrderEvent.Type.ORDER_STATUS_CHANGED, order, oldStatus);
+    }
+
+    /**
+     * Hủy đơn - đường hủy duy nhất (quản trị, khách hủy, VNPay thất bại).
+     * Khóa dòng đơn rồi đọc trạng thái từ DB (không tin entity có thể đã nằm sẵn trong session)
+     * nên hai lần hủy đồng thời chỉ hoàn một lần, và điều kiện trạng thái của từng đường hủy
+     * (allowedFrom) được kiểm tra trên dòng đã khóa. Trong cùng transaction: hoàn tồn kho
+     * (kể cả suất flash sale), hoàn điểm đã dùng, ghi lịch sử và phát ORDER_STATUS_CHANGED
+     * (PromotionUsageHandler trả lượt dùng mã sau commit).
+     *
+     * @param allowedFrom trạng thái được phép hủy (vd: khách chỉ hủy được đơn PENDING)
+     * @return false nếu trạng thái hiện tại không nằm trong allowedFrom (kể cả đơn đã bị hủy trước đó)
+     */
+    @Transactional
+    @Override
+    public boolean cancelOrder(Integer orderId, Set<Order.OrderStatus> allowedFrom, String reason, Employee changedBy) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT status, customer_id, order_code, loyalty_points_used FROM `order` " +
+                "WHERE order_id = ? FOR UPDATE", orderId);
+        if (rows.isEmpty()) {
+            throw new RuntimeException("Order not found");
+        }
+        Map<String, Object> row = rows.get(0);
+        Order.OrderStatus oldStatus = Order.OrderStatus.valueOf((String) row.get("status"));
+        if (oldStatus == Order.OrderStatus.CANCELLED || !allowedFrom.contains(oldStatus)) {
+            return false;
+        }
+
+        jdbcTemplate.update(
+                "UPDATE `order` SET status = ?, cancelled_at = ?, cancel_reason = COALESCE(?, cancel_reason) " +
+                "WHERE order_id = ?",
+                Order.OrderStatus.CANCELLED.name(), Timestamp.valueOf(LocalDateTime.now()), reason, orderId);
+
+        // Hoàn kho theo số lượng gộp của từng sản phẩm
+        Map<String, Integer> quantities = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT device_id, SUM(quantity) AS quantity FROM order_detail " +
+                "WHERE order_id = ? AND device_id IS NOT NULL GROUP BY device_id",
+                rs -> {
+                    quantities.put(rs.getString("device_id"), rs.getInt("quantity"));
+                },
+                orderId);
+        stockService.release(quantities);
+
+        // Hoàn điểm đã trừ lúc tạo đơn
+        Number pointsUsed = (Number) row.get("loyalty_points_used");
+        if (pointsUsed != null && pointsUsed.intValue() > 0) {
+            loyaltyLedgerService.refundOrder(((Number) row.get("customer_id")).intValue(),
+                    pointsUsed.intValue(), orderId, (String) row.get("order_code"));
+        }
+
+        orderStatusHistoryRepository.save(OrderStatusHistory.builder()
+                .order(orderRepository.getReferenceById(orderId))
+                .oldStatus(oldStatus)
+                .newStatus(Order.OrderStatus.CANCELLED)
+                .changedBy(changedBy)
+                .note(reason != null
+                        ? "Hủy đơn: " + reason
+                        : "Trạng thái đơn hàng thay đổi từ " + oldStatus + " sang " + Order.OrderStatus.CANCELLED)
+                .build());
+
+        orderOutbox.publish(OrderEvent.Type.ORDER_STATUS_CHANGED,
+                Map.of(orderId, oldStatus), Order.OrderStatus.CANCELLED);
+        return true;
     }
 
     @Override
@@ -264,91 +379,147 @@ public class OrderService implements IOrderService {
 
     @Override
     public void restoreStock(Order order) {
-        List<OrderDetail> details = orderDetailRepository.findByOrder(order);
+        stockService.release(toQuantities(orderDetailRepository.findByOrder(order)));
+    }
+
+    /**
+     * Gộp số lượng theo sản phẩm (deviceId -> số lượng)
+     */
+    private Map<String, Integer> toQuantities(List<OrderDetail> details) {
+        Map<String, Integer> quantities = new HashMap<>();
         for (OrderDetail detail : details) {
-            MedicalDevice device = detail.getDevice();
-            device.setStockQuantity(device.getStockQuantity() + detail.getQuantity());
-            device.setSoldCount(device.getSoldCount() - detail.getQuantity());
-            deviceRepository.save(device);
+            if (detail.getDevice() != null && detail.getQuantity() != null) {
+                quantities.merge(detail.getDevice().getDeviceId(), detail.getQuantity(), Integer::sum);
+            }
         }
+        return quantities;
     }
 
     @Override
     public BigDecimal calculateShippingFee(BigDecimal subtotal) {
-        BigDecimal freeShippingThreshold = new BigDecimal("500000");
-        BigDecimal defaultShippingFee = new BigDecimal("30000");
-
-        if (subtotal.compareTo(freeShippingThreshold) >= 0) {
-            return BigDecimal.ZERO;
-        }
-        return defaultShippingFee;
+        return CartPricingEngine.shippingFee(subtotal);
     }
 
     @Override
     public String generateOrderCode() {
-        String dateStr = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        String randomStr = String.format("%04d", new Random().nextInt(10000));
-        return "ORD" + dateStr + randomStr;
+        // Cấp từ khối số giữ sẵn (hi/lo), không trùng và thường không cần truy vấn DB
+        return orderCodeAllocator.nextCode();
     }
 
     @Override
     public List<OrderResponse> getRecentOrders(int limit) {
-        return orderRepository.findRecentOrders(PageRequest.of(0, limit))
-                .stream()
-                .map(order -> {
-                    List<OrderDetail> details = orderDetailRepository.findByOrder(order);
-                    return convertToOrderResponse(order, details);
-                })
-                .collect(Collectors.toList());
+        return toOrderResponses(orderRepository.findRecentOrders(PageRequest.of(0, limit)));
     }
 
+    /**
+     * Tìm đơn hàng cho trang quản trị, phân trang keyset:
+     * after = cursor để sang trang sau, before = cursor để về trang trước, cả hai null = trang đầu
+     */
+    @Transactional(readOnly = true)
     @Override
-    public Page<Order> searchOrders(
+    public OrderSearchPage searchOrders(
             String keyword,
             String status,
             String paymentMethod,
             String fromDate,
             String toDate,
-            PageRequest pageRequest
+            String after,
+            String before,
+            int size
     ) {
-        Order.OrderStatus orderStatus = null;
-        if (status != null && !status.isEmpty()) {
-            orderStatus = Order.OrderStatus.valueOf(status);
-        }
+        OrderSearchCriteria criteria = OrderSearchCriteria.builder()
+                .keyword(keyword)
+                .status(status != null && !status.isEmpty() ? Order.OrderStatus.valueOf(status) : null)
+                .paymentMethod(paymentMethod != null && !paymentMethod.isEmpty()
+                        ? Order.PaymentMethod.valueOf(paymentMethod) : null)
+                .from(fromDate != null && !fromDate.isEmpty() ? LocalDateTime.parse(fromDate + "T00:00:00") : null)
+                .to(toDate != null && !toDate.isEmpty() ? LocalDateTime.parse(toDate + "T23:59:59") : null)
+                .build();
 
-        Order.PaymentMethod payMethod = null;
-        if (paymentMethod != null && !paymentMethod.isEmpty()) {
-            payMethod = Order.PaymentMethod.valueOf(paymentMethod);
-        }
+        boolean backward = before != null && !before.isEmpty();
+        String cursorValue = backward ? before : after;
+        OrderCursor cursor = cursorValue != null && !cursorValue.isEmpty() ? OrderCursor.decode(cursorValue) : null;
 
-        LocalDateTime from = null;
-        if (fromDate != null && !fromDate.isEmpty()) {
-            from = LocalDateTime.parse(fromDate + "T00:00:00");
+        // Lấy dư một đơn để biết còn trang tiếp theo (theo hướng đang đi) hay không
+        List<Order> orders = orderRepository.searchPage(criteria, cursor, backward, size + 1);
+        boolean hasMore = orders.size() > size;
+        if (hasMore) {
+            orders = backward ? orders.subList(1, orders.size()) : orders.subList(0, size);
         }
-
-        LocalDateTime to = null;
-        if (toDate != null && !toDate.isEmpty()) {
-            to = LocalDateTime.parse(toDate + "T23:59:59");
+        if (orders.isEmpty()) {
+            return OrderSearchPage.builder().orders(orders).build();
         }
 
-        return orderRepository.searchOrders(
-                keyword,
-                orderStatus,
-                payMethod,
-                from,
-                to,
-                pageRequest
-        );
+        boolean hasNext = backward || hasMore;
+        boolean hasPrev = backward ? hasMore : cursor != null;
+        Order first = orders.get(0);
+        Order last = orders.get(orders.size() - 1);
+        return OrderSearchPage.builder()
+                .orders(orders)
+                .nextCursor(hasNext ? new OrderCursor(last.getCreatedAt(), last.getOrderId()).encode() : null)
+                .prevCursor(hasPrev ? new OrderCursor(first.getCreatedAt(), first.getOrderId()).encode() : null)
+                .build();
     }
 
+    @Transactional
     @Override
     public void updateStatus(Integer orderId, Order.OrderStatus status) {
+        if (status == Order.OrderStatus.CANCELLED) {
+            if (!cancelOrder(orderId, ADMIN_CANCELLABLE, null, null)) {
+                throw new RuntimeException("Không thể hủy đơn hàng ở trạng thái hiện tại");
+            }
+            return;
+        }
         orderRepository.findById(orderId).ifPresent(order -> {
+            Order.OrderStatus oldStatus = order.getStatus();
             order.setStatus(status);
             orderRepository.save(order);
+            orderOutbox.publish(OrderEvent.Type.ORDER_STATUS_CHANGED, order, oldStatus);
         });
     }
 
+    /**
+     * Ghi nhận thanh toán online (VNPay) thành công.
+     * Khóa dòng đơn rồi đọc trạng thái từ DB: đơn đã bị hủy (hết hạn, khách hủy) trong lúc khách
+     * đang thanh toán thì không ghi PAID mà lưu mã giao dịch + ghi lịch sử để hoàn tiền.
+     *
+     * @return false nếu đơn đã bị hủy (tiền cần hoàn lại cho khách)
+     */
+    @Transactional
+    @Override
+    public boolean capturePayment(Integer orderId, String transactionId) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT status, payment_status FROM `order` WHERE order_id = ? FOR UPDATE", orderId);
+        if (rows.isEmpty()) {
+            throw new RuntimeException("Không tìm thấy đơn hàng");
+        }
+        Order.OrderStatus status = Order.OrderStatus.valueOf((String) rows.get(0).get("status"));
+
+        if (status == Order.OrderStatus.CANCELLED) {
+            jdbcTemplate.update("UPDATE `order` SET transaction_id = COALESCE(transaction_id, ?) WHERE order_id = ?",
+                    transactionId, orderId);
+            orderStatusHistoryRepository.save(OrderStatusHistory.builder()
+                    .order(orderRepository.getReferenceById(orderId))
+                    .oldStatus(status)
+                    .newStatus(status)
+                    .note("Nhận thanh toán VNPay (mã GD " + transactionId + ") sau khi đơn đã hủy - cần hoàn tiền cho khách")
+                    .build());
+            return false;
+        }
+        if (Order.PaymentStatus.PAID.name().equals(rows.get(0).get("payment_status"))) {
+            return true;
+        }
+
+        jdbcTemplate.update("UPDATE `order` SET payment_status = ?, transaction_id = ? WHERE order_id = ?",
+                Order.PaymentStatus.PAID.name(), transactionId, orderId);
+        // Thanh toán không đổi trạng thái đơn: oldStatus để trống để handler theo dõi đổi trạng thái
+        // không hiểu nhầm thành chuyển từ trạng thái hiện tại sang chính nó
+        Map<Integer, Order.OrderStatus> oldStatuses = new HashMap<>();
+        oldStatuses.put(orderId, null);
+        orderOutbox.publish(OrderEvent.Type.PAYMENT_CAPTURED, oldStatuses, status);
+        return true;
+    }
+
     @Override
     public void deleteOrder(Integer id) {
         Order order = orderRepository.findById(id)
@@ -0,0 +1,350 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.dto.PriceScheduleRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lịch đổi giá sản phẩm theo thời gian (bảng price_schedule).
+ *
+ * - Giá đang áp dụng luôn nằm trên medical_device (price, discount_percent) và giá bán sau giảm
+ *   là cột sinh sale_price, nên danh sách, lọc / sắp xếp, giỏ hàng và thanh toán cùng đọc một giá.
+ * - Trong bộ nhớ chỉ giữ mốc kế tiếp (lịch bắt đầu hoặc kết thúc sớm nhất); mỗi giây so với
+ *   đồng hồ, chưa tới mốc thì không truy vấn DB.
+ * - Tới mốc: một transaction chuyển toàn bộ lịch đến hạn (kết thúc trước, bắt đầu sau),
+ *   mỗi bước một câu UPDATE cho cả nhóm sản phẩm (theo khối CHUNK_SIZE), nên khách thấy hoặc
+ *   toàn bộ giá cũ hoặc toàn bộ giá mới. Lúc bắt đầu lưu giá cũ vào lịch, lúc kết thúc trả lại
+ *   (chỉ khi quản trị chưa sửa tay giá đó trong lúc lịch chạy).
+ * - Mốc được đọc lại sau mỗi lần chuyển / tạo / hủy lịch, và tối đa mỗi MAX_AGE
+ *   (lịch tạo từ node khác).
+ */
+@Slf4j
+@Service
+public class PriceScheduleService {
+
+    static final int CHUNK_SIZE = 1000;
+    private static final Duration MAX_AGE = Duration.ofMinutes(1);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile LocalDateTime nextBoundary;
+    private volatile LocalDateTime boundaryLoadedAt;
+
+    private final AtomicLong startedSchedules = new AtomicLong();
+    private final AtomicLong endedSchedules = new AtomicLong();
+    private volatile LocalDateTime lastSwitchAt;
+
+    public PriceScheduleService(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+    }
+
+    private record Window(LocalDateTime startAt, LocalDateTime endAt) {
+    }
+
+    /**
+     * Tạo nhiều lịch đổi giá một lần (batch INSERT). Lịch của cùng một sản phẩm không được chồng nhau.
+     * Trả về số lịch đã tạo.
+     */
+    @Transactional
+    public int schedule(List<PriceScheduleRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("Chưa có lịch đổi giá nào");
+        }
+        Map<String, List<Window>> windows = new HashMap<>();
+        for (PriceScheduleRequest request : requests) {
+            validate(request);
+            windows.computeIfAbsent(request.getDeviceId(), id -> new ArrayList<>())
+                    .add(new Window(request.getStartAt(), request.getEndAt()));
+        }
+
+        List<String> deviceIds = new ArrayList<>(windows.keySet());
+        for (List<String> chunk : chunks(deviceIds)) {
+            String in = placeholders(chunk.size());
+            List<String> found = jdbcTemplate.queryForList(
+                    "SELECT device_id FROM medical_device WHERE device_id IN (" + in + ")",
+                    String.class, chunk.toArray());
+            if (found.size() < chunk.size()) {
+                Set<String> missing = new TreeSet<>(chunk);
+                found.forEach(missing::remove);
+                throw new IllegalArgumentException("Không tìm thấy sản phẩm: " + String.join(", ", missing));
+            }
+            jdbcTemplate.query(
+                    "SELECT device_id, start_at, end_at FROM price_schedule " +
+                    "WHERE device_id IN (" + in + ") AND status IN ('SCHEDULED', 'ACTIVE')",
+                    rs -> {
+                        Timestamp end = rs.getTimestamp("end_at");
+                        windows.get(rs.getString("device_id")).add(new Window(
+                                rs.getTimestamp("start_at").toLocalDateTime(),
+                                end != null ? end.toLocalDateTime() : null));
+                    },
+                    chunk.toArray());
+        }
+        windows.forEach((deviceId, list) -> {
+            list.sort(Comparator.comparing(Window::startAt));
+            for (int i = 1; i < list.size(); i++) {
+                if (list.get(i).startAt().isBefore(lastMoment(list.get(i - 1)))) {
+                    throw new IllegalArgumentException("Lịch đổi giá của sản phẩm " + deviceId + " bị chồng thời gian");
+                }
+            }
+        });
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (PriceScheduleRequest request : requests) {
+            rows.add(new Object[]{
+                    request.getDeviceId(),
+                    Timestamp.valueOf(request.getStartAt()),
+                    request.getEndAt() != null ? Timestamp.valueOf(request.getEndAt()) : null,
+                    request.getPrice(),
+                    request.getDiscountPercent(),
+                    now});
+        }
+        for (List<Object[]> chunk : chunks(rows)) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO price_schedule (device_id, start_at, end_at, price, discount_percent, status, created_at) " +
+                    "VALUES (?, ?, ?, ?, ?, 'SCHEDULED', ?)",
+                    chunk);
+        }
+
+        reloadBoundaryAfterCommit();
+        return rows.size();
+    }
+
+    /**
+     * Hủy một lịch: chưa chạy thì bỏ, đang chạy thì trả lại giá cũ ngay
+     */
+    public void cancel(Integer scheduleId) {
+        boolean changed = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            List<String> current = jdbcTemplate.queryForList(
+                    "SELECT status FROM price_schedule WHERE schedule_id = ? FOR UPDATE", String.class, scheduleId);
+            if (current.isEmpty()) {
+                throw new IllegalArgumentException("Không tìm thấy lịch đổi giá");
+            }
+            if ("SCHEDULED".equals(current.get(0))) {
+                jdbcTemplate.update("UPDATE price_schedule SET status = 'CANCELLED' WHERE schedule_id = ?", scheduleId);
+                return false;
+            }
+            if (!"ACTIVE".equals(current.get(0))) {
+                throw new IllegalArgumentException("Lịch đổi giá đã kết thúc");
+            }
+            restore(List.of(scheduleId), LocalDateTime.now(), "CANCELLED");
+            eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PRODUCT, null));
+            return true;
+        }));
+        if (changed) {
+            endedSchedules.incrementAndGet();
+        }
+        loadBoundary();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadBoundary() {
+        LocalDateTime loadedAt = LocalDateTime.now();
+        Timestamp next = jdbcTemplate.queryForObject(
+                "SELECT MIN(t) FROM (" +
+                "SELECT MIN(start_at) AS t FROM price_schedule WHERE status = 'SCHEDULED' " +
+                "UNION ALL " +
+                "SELECT MIN(end_at) AS t FROM price_schedule WHERE status = 'ACTIVE') boundaries",
+                Timestamp.class);
+        nextBoundary = next != null ? next.toLocalDateTime() : null;
+        boundaryLoadedAt = loadedAt;
+    }
+
+    /**
+     * Chuyển giá khi tới mốc kế tiếp (không tới mốc thì không truy vấn DB)
+     */
+    @Scheduled(fixedDelay = 1000, initialDelay = 10000)
+    public synchronized void tick() {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            if (boundaryLoadedAt == null || boundaryLoadedAt.plus(MAX_AGE).isBefore(now)) {
+                loadBoundary();
+            }
+            LocalDateTime boundary = nextBoundary;
+            if (boundary == null || boundary.isAfter(now)) {
+                return;
+            }
+            switchPrices(now);
+            loadBoundary();
+        } catch (Exception e) {
+            log.error("Error applying price schedules", e);
+        }
+    }
+
+    /**
+     * Số liệu theo dõi lịch đổi giá
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nextBoundary", nextBoundary);
+        stats.put("startedSchedules", startedSchedules.get());
+        stats.put("endedSchedules", endedSchedules.get());
+        stats.put("lastSwitchAt", lastSwitchAt);
+        return stats;
+    }
+
+    private void switchPrices(LocalDateTime now) {
+        long start = System.currentTimeMillis();
+        Timestamp at = Timestamp.valueOf(now);
+        int[] counts = transactionTemplate.execute(status -> {
+            // Lịch đã quá hạn trước khi kịp bắt đầu (ứng dụng tắt) thì bỏ qua
+            jdbcTemplate.update(
+                    "UPDATE price_schedule SET status = 'ENDED' " +
+                    "WHERE status = 'SCHEDULED' AND end_at IS NOT NULL AND end_at <= ?", at);
+
+            List<Integer> ending = jdbcTemplate.queryForList(
+                    "SELECT schedule_id FROM price_schedule WHERE status = 'ACTIVE' AND end_at <= ? " +
+                    "ORDER BY schedule_id FOR UPDATE",
+                    Integer.class, at);
+            restore(ending, now, "ENDED");
+
+            List<Integer> starting = jdbcTemplate.queryForList(
+                    "SELECT schedule_id FROM price_schedule WHERE status = 'SCHEDULED' AND start_at <= ? " +
+                    "ORDER BY schedule_id FOR UPDATE",
+                    Integer.class, at);
+            apply(starting, now);
+
+            if (!ending.isEmpty() || !starting.isEmpty()) {
+                eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PRODUCT, null));
+            }
+            return new int[]{starting.size(), ending.size()};
+        });
+        if (counts == null || counts[0] + counts[1] == 0) {
+            return;
+        }
+        startedSchedules.addAndGet(counts[0]);
+        endedSchedules.addAndGet(counts[1]);
+        lastSwitchAt = now;
+        log.info("Switched prices at {}: {} schedules started, {} ended in {} ms",
+                now, counts[0], counts[1], System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Bắt đầu các lịch: lưu giá hiện tại vào lịch rồi ghi giá mới lên sản phẩm.
+     * Lịch không có end_at là đổi giá hẳn, chuyển ENDED luôn.
+     */
+    private void apply(List<Integer> scheduleIds, LocalDateTime now) {
+        for (List<Integer> chunk : chunks(scheduleIds)) {
+            String in = placeholders(chunk.size());
+            Object[] ids = chunk.toArray();
+            jdbcTemplate.update(
+                    "UPDATE price_schedule s JOIN medical_device d ON d.device_id = s.device_id " +
+                    "SET s.previous_price = d.price, s.previous_discount_percent = d.discount_percent " +
+                    "WHERE s.schedule_id IN (" + in + ")",
+                    ids);
+            jdbcTemplate.update(
+                    "UPDATE medical_device d JOIN price_schedule s ON s.device_id = d.device_id " +
+                    "SET d.price = COALESCE(s.price, d.price), " +
+                    "d.discount_percent = COALESCE(s.discount_percent, d.discount_percent) " +
+                    "WHERE s.schedule_id IN (" + in + ")",
+                    ids);
+
+            List<Object> args = new ArrayList<>();
+            args.add(Timestamp.valueOf(now));
+            Collections.addAll(args, ids);
+            jdbcTemplate.update(
+                    "UPDATE price_schedule SET applied_at = ?, " +
+                    "status = IF(end_at IS NULL, 'ENDED', 'ACTIVE') " +
+                    "WHERE schedule_id IN (" + in + ")",
+                    args.toArray());
+        }
+    }
+
+    /**
+     * Kết thúc các lịch: trả lại giá cũ cho những giá trị quản trị chưa sửa tay trong lúc lịch chạy
+     */
+    private void restore(List<Integer> scheduleIds, LocalDateTime now, String finalStatus) {
+        for (List<Integer> chunk : chunks(scheduleIds)) {
+            String in = placeholders(chunk.size());
+            Object[] ids = chunk.toArray();
+            jdbcTemplate.update(
+                    "UPDATE medical_device d JOIN price_schedule s ON s.device_id = d.device_id " +
+                    "SET d.price = IF(s.price IS NOT NULL AND d.price = s.price, s.previous_price, d.price), " +
+                    "d.discount_percent = IF(s.discount_percent IS NOT NULL AND d.discount_percent <=> s.discount_percent, " +
+                    "s.previous_discount_percent, d.discount_percent) " +
+                    "WHERE s.schedule_id IN (" + in + ")",
+                    ids);
+
+            List<Object> args = new ArrayList<>();
+            args.add(finalStatus);
+            args.add(Timestamp.valueOf(now));
+            Collections.addAll(args, ids);
+            jdbcTemplate.update(
+                    "UPDATE price_schedule SET status = ?, ended_at = ? WHERE schedule_id IN (" + in + ")",
+                    args.toArray());
+        }
+    }
+
+    private void validate(PriceScheduleRequest request) {
+        if (request.getDeviceId() == null || request.getDeviceId().isBlank()) {
+            throw new IllegalArgumentException("Thiếu mã sản phẩm");
+        }
+        if (request.getStartAt() == null) {
+            throw new IllegalArgumentException("Thiếu thời gian bắt đầu (" + request.getDeviceId() + ")");
+        }
+        if (request.getEndAt() != null && !request.getEndAt().isAfter(request.getStartAt())) {
+            throw new IllegalArgumentException("Thời gian kết thúc phải sau thời gian bắt đầu (" + request.getDeviceId() + ")");
+        }
+        if (request.getPrice() == null && request.getDiscountPercent() == null) {
+            throw new IllegalArgumentException("Cần giá mới hoặc % giảm (" + request.getDeviceId() + ")");
+        }
+        if (request.getPrice() != null && request.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("Giá phải lớn hơn 0 (" + request.getDeviceId() + ")");
+        }
+        if (request.getDiscountPercent() != null
+                && (request.getDiscountPercent() < 0 || request.getDiscountPercent() > 100)) {
+            throw new IllegalArgumentException("% giảm phải từ 0 đến 100 (" + request.getDeviceId() + ")");
+        }
+    }
+
+    /**
+     * Thời điểm cuối của lịch; lịch đổi giá hẳn (không có end_at) chỉ chiếm đúng giây bắt đầu
+     */
+    private static LocalDateTime lastMoment(Window window) {
+        return window.endAt() != null ? window.endAt() : window.startAt().plusSeconds(1);
+    }
+
+    private void reloadBoundaryAfterCommit() {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                loadBoundary();
+            }
+        });
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += CHUNK_SIZE) {
+            chunks.add(items.subList(i, Math.min(i + CHUNK_SIZE, items.size())));
+        }
+        return chunks;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.dto.ProductCardView;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import com.example.do_an_tot_nghiep.model.Order;
+import com.example.do_an_tot_nghiep.model.OrderDetail;
+import com.example.do_an_tot_nghiep.repository.IMedicalDeviceRepository;
+import com.example.do_an_tot_nghiep.repository.IOrderDetailRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * "Thường được mua cùng" - số lần hai sản phẩm xuất hiện chung trong đơn đã hoàn thành.
+ *
+ * - Bảng product_co_purchase (device_id, related_device_id, co_count) có index
+ *   (device_id, co_count) nên lấy top-N của một sản phẩm chỉ là một lần đọc index.
+ * - Cập nhật tăng dần khi đơn chuyển sang / rời khỏi trạng thái COMPLETED.
+ * - Mỗi đêm tính lại toàn bộ từ order_detail để đối soát.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductAssociationService {
+
+    // Đơn quá nhiều dòng sinh quá nhiều cặp và ít ý nghĩa gợi ý: chỉ lấy MAX_ITEMS_PER_ORDER
+    // sản phẩm đầu tiên của đơn (theo order_detail_id), cả khi cập nhật tăng dần lẫn khi tính lại
+    private static final int MAX_ITEMS_PER_ORDER = 30;
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO product_co_purchase (device_id, related_device_id, co_count) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE co_count = GREATEST(co_count + VALUES(co_count), 0)";
+
+    private static final String REBUILD_SQL =
+            "INSERT INTO product_co_purchase (device_id, related_device_id, co_count) " +
+            "WITH items AS (" +
+            "    SELECT d.order_id, d.device_id, " +
+            "           ROW_NUMBER() OVER (PARTITION BY d.order_id ORDER BY MIN(d.order_detail_id)) AS rn " +
+            "    FROM order_detail d " +
+            "    JOIN `order` o ON o.order_id = d.order_id " +
+            "    WHERE o.status = 'COMPLETED' AND d.device_id IS NOT NULL " +
+            "    GROUP BY d.order_id, d.device_id) " +
+            "SELECT a.device_id, b.device_id, COUNT(*) " +
+            "FROM items a " +
+            "JOIN items b ON b.order_id = a.order_id AND b.device_id <> a.device_id " +
+            "WHERE a.rn <= ? AND b.rn <= ? " +
+            "GROUP BY a.device_id, b.device_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IOrderDetailRepository orderDetailRepository;
+    private final IMedicalDeviceRepository deviceRepository;
+
+    // =============================================
+    // CẬP NHẬT
+    // =============================================
+
+    /**
+     * Đơn vừa hoàn thành: cộng 1 cho mọi cặp sản phẩm trong đơn
+     */
+    public void recordCompletedOrder(Order order) {
+        applyOrder(order, 1);
+    }
+
+    /**
+     * Đơn đã hoàn thành bị chuyển trạng thái khác (trả hàng, hủy...): trừ lại
+     */
+    public void revertCompletedOrder(Order order) {
+        applyOrder(order, -1);
+    }
+
+    private void applyOrder(Order order, int delta) {
+        List<String> deviceIds = orderDetailRepository.findByOrder(order).stream()
+                .sorted(Comparator.comparing(OrderDetail::getOrderDetailId))
+                .map(OrderDetail::getDevice)
+                .filter(Objects::nonNull)
+                .map(MedicalDevice::getDeviceId)
+                .distinct()
+                .limit(MAX_ITEMS_PER_ORDER)
+                .toList();
+        if (deviceIds.size() < 2) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        for (String a : deviceIds) {
+            for (String b : deviceIds) {
+                if (!a.equals(b)) {
+                    batch.add(new Object[]{a, b, delta});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, batch);
+    }
+
+    /**
+     * Tính lại toàn bộ bảng từ các đơn đã hoàn thành (chạy 4h sáng)
+     */
+    @Scheduled(cron = "0 0 4 * * *")
+    @Transactional
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        jdbcTemplate.update("DELETE FROM product_co_purchase");
+        int pairs = jdbcTemplate.update(REBUILD_SQL, MAX_ITEMS_PER_ORDER, MAX_ITEMS_PER_ORDER);
+        log.info("Rebuilt product co-purchase table: {} pairs in {} ms",
+                pairs, System.currentTimeMillis() - start);
+    }
+
+    // =============================================
+    // TRUY VẤN
+    // =============================================
+
+    /**
+     * deviceId của các sản phẩm thường được mua cùng, giảm dần theo số đơn chung
+     */
+    public List<String> findRelatedIds(String deviceId, int limit) {
+        return jdbcTemplate.queryForList(
+                "SELECT related_device_id FROM product_co_purchase " +
+                "WHERE device_id = ? AND co_count > 0 " +
+                "ORDER BY co_count DESC, related_device_id LIMIT ?",
+                String.class, deviceId, limit);
+    }
+
+    /**
+     * Gợi ý cho cả giỏ hàng: cộng dồn số đơn chung với từng sản phẩm trong giỏ,
+     * bỏ các sản phẩm đã có trong giỏ
+     */
+    public List<String> findRelatedIds(Collection<String> deviceIds, int limit) {
+        if (deviceIds == null || deviceIds.isEmpty()) {
+            return List.of();
+        }
+        String placeholders = deviceIds.stream().map(id -> "?").collect(Collectors.joining(","));
+        List<Object> args = new ArrayList<>(deviceIds);
+        args.addAll(deviceIds);
+        args.add(limit);
+        return jdbcTemplate.queryForList(
+                "SELECT related_device_id FROM product_co_purchase " +
+                "WHERE device_id IN (" + placeholders + ") " +
+                "AND related_device_id NOT IN (" + placeholders + ") AND co_count > 0 " +
+                "GROUP BY related_device_id " +
+                "ORDER BY SUM(co_count) DESC, related_device_id LIMIT ?",
+                String.class, args.toArray());
+    }
+
+    /**
+     * Sản phẩm thường được mua cùng (đang bán), giữ thứ tự xếp hạng
+     */
+    public List<ProductCardView> findRelatedDevices(String deviceId, int limit) {
+        return loadInOrder(findRelatedIds(deviceId, limit * 2), limit);
+    }
+
+    public List<ProductCardView> findRelatedDevices(Collection<String> deviceIds, int limit) {
+        return loadInOrder(findRelatedIds(deviceIds, limit * 2), limit);
+    }
+
+    private List<ProductCardView> loadInOrder(List<String> ids, int limit) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<String, ProductCardView> byId = deviceRepository.findCardsByIdIn(ids).stream()
+                .collect(Collectors.toMap(ProductCardView::getDeviceId, Function.identity()));
+        return ids.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .filter(d -> d.getStatus() != MedicalDevice.DeviceStatus.Ngừng_bán)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+}
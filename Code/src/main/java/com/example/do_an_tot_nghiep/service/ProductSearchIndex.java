@@ -0,0 +1,531 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO;
+import com.example.do_an_tot_nghiep.dto.ProductFacetsDTO.PriceBand;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import com.example.do_an_tot_nghiep.repository.IMedicalDeviceRepository;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Chỉ mục tìm kiếm sản phẩm trong bộ nhớ (inverted index + xếp hạng BM25).
+ *
+ * - Xây dựng một lần khi ứng dụng khởi động từ name, SKU, description,
+ *   metaKeywords, brand và category của MedicalDevice.
+ * - Token được bỏ dấu tiếng Việt nên "may do huyet ap" khớp "máy đo huyết áp".
+ * - Cập nhật sau khi transaction commit (CatalogChangedEvent): PRODUCT có id thì nạp lại
+ *   đúng sản phẩm đó, PRODUCT không id (đổi giá theo lịch) / BRAND / CATEGORY thì xây lại
+ *   toàn bộ vì tên thương hiệu, danh mục nằm trong tài liệu của nhiều sản phẩm.
+ * - Chỉ giữ các trường do quản trị thay đổi (không giữ tồn kho, lượt bán, lượt xem)
+ *   nên đơn hàng / flash sale không làm chỉ mục lệch.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductSearchIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+
+    // Trọng số từng trường (BM25F rút gọn)
+    private static final int WEIGHT_NAME = 3;
+    private static final int WEIGHT_SKU = 3;
+    private static final int WEIGHT_BRAND = 2;
+    private static final int WEIGHT_CATEGORY = 2;
+    private static final int WEIGHT_KEYWORDS = 2;
+    private static final int WEIGHT_DESCRIPTION = 1;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final IMedicalDeviceRepository deviceRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // term -> (deviceId -> tần suất có trọng số)
+    private Map<String, Map<String, Integer>> postings = new HashMap<>();
+    // deviceId -> thông tin tóm tắt (dùng để lọc và xếp hạng)
+    private Map<String, IndexedProduct> documents = new HashMap<>();
+    // deviceId -> các term của sản phẩm (để gỡ khi cập nhật)
+    private Map<String, Set<String>> documentTerms = new HashMap<>();
+    private long totalLength = 0;
+
+    /**
+     * Thông tin tóm tắt của một sản phẩm trong chỉ mục
+     */
+    @Getter
+    public static class IndexedProduct {
+        private final String deviceId;
+        private final String name;
+        private final Integer categoryId;
+        private final Integer brandId;
+        private final double price;
+        private final int discountPercent;
+        private final MedicalDevice.DeviceStatus status;
+        private final int length;
+
+        IndexedProduct(MedicalDevice device, int length) {
+            this.deviceId = device.getDeviceId();
+            this.name = device.getName();
+            this.categoryId = device.getCategory() != null ? device.getCategory().getCategoryId() : null;
+            this.brandId = device.getBrand() != null ? device.getBrand().getBrandId() : null;
+            this.price = device.getPrice() != null ? device.getPrice().doubleValue() : 0;
+            this.discountPercent = device.getDiscountPercent() != null ? device.getDiscountPercent() : 0;
+            this.status = device.getStatus();
+            this.length = length;
+        }
+    }
+
+    // =============================================
+    // XÂY DỰNG / CẬP NHẬT CHỈ MỤC
+    // =============================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("Error building product search index", e);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        try {
+            switch (event.type()) {
+                case PRODUCT -> {
+                    if (event.id() instanceof String deviceId) {
+                        refresh(deviceId);
+                    } else {
+                        rebuild();
+                    }
+                }
+                case BRAND, CATEGORY -> rebuild();
+                default -> {
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error updating product search index for {}", event, e);
+        }
+    }
+
+    /**
+     * Nạp lại một sản phẩm từ DB, gỡ khỏi chỉ mục nếu đã bị xóa
+     */
+    public synchronized void refresh(String deviceId) {
+        List<MedicalDevice> devices = deviceRepository.findAllWithDetailsByIdIn(List.of(deviceId));
+        if (devices.isEmpty()) {
+            remove(deviceId);
+        } else {
+            index(devices.get(0));
+        }
+    }
+
+    /**
+     * Xây lại toàn bộ chỉ mục rồi thay thế một lần
+     * (synchronized với refresh để bản xây lại cũ không ghi đè lên sản phẩm vừa nạp)
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+
+        Map<String, Map<String, Integer>> newPostings = new HashMap<>();
+        Map<String, IndexedProduct> newDocuments = new HashMap<>();
+        Map<String, Set<String>> newDocumentTerms = new HashMap<>();
+        long newTotalLength = 0;
+
+        for (MedicalDevice device : deviceRepository.findAllForIndexing()) {
+            newTotalLength += addDocument(device, newPostings, newDocuments, newDocumentTerms);
+        }
+
+        lock.writeLock().lock();
+        try {
+            postings = newPostings;
+            documents = newDocuments;
+            documentTerms = newDocumentTerms;
+            totalLength = newTotalLength;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("Product search index built: {} products, {} terms in {} ms",
+                newDocuments.size(), newPostings.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Thêm mới hoặc cập nhật một sản phẩm (brand/category phải load được)
+     */
+    public void index(MedicalDevice device) {
+        if (device == null || device.getDeviceId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocument(device.getDeviceId());
+            totalLength += addDocument(device, postings, documents, documentTerms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gỡ sản phẩm khỏi chỉ mục
+     */
+    public void remove(String deviceId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(deviceId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int addDocument(MedicalDevice device,
+                            Map<String, Map<String, Integer>> targetPostings,
+                            Map<String, IndexedProduct> targetDocuments,
+                            Map<String, Set<String>> targetDocumentTerms) {
+        Map<String, Integer> termFrequencies = new HashMap<>();
+
+        addField(termFrequencies, device.getName(), WEIGHT_NAME);
+        addField(termFrequencies, device.getSku(), WEIGHT_SKU);
+        if (device.getSku() != null) {
+            // SKU viết liền (vd: "SKU-001" -> "sku001") để gõ không cần dấu gạch
+            String compactSku = fold(device.getSku()).replace(" ", "");
+            if (!compactSku.isEmpty()) {
+                termFrequencies.merge(compactSku, WEIGHT_SKU, Integer::sum);
+            }
+        }
+        addField(termFrequencies, device.getMetaKeywords(), WEIGHT_KEYWORDS);
+        addField(termFrequencies, device.getDescription(), WEIGHT_DESCRIPTION);
+        if (device.getBrand() != null) {
+            addField(termFrequencies, device.getBrand().getName(), WEIGHT_BRAND);
+        }
+        if (device.getCategory() != null) {
+            addField(termFrequencies, device.getCategory().getName(), WEIGHT_CATEGORY);
+        }
+
+        int length = termFrequencies.values().stream().mapToInt(Integer::intValue).sum();
+        String deviceId = device.getDeviceId();
+
+        termFrequencies.forEach((term, tf) ->
+                targetPostings.computeIfAbsent(term, t -> new HashMap<>()).put(deviceId, tf));
+        targetDocuments.put(deviceId, new IndexedProduct(device, length));
+        targetDocumentTerms.put(deviceId, termFrequencies.keySet());
+
+        return length;
+    }
+
+    private void removeDocument(String deviceId) {
+        IndexedProduct existing = documents.remove(deviceId);
+        Set<String> terms = documentTerms.remove(deviceId);
+        if (existing == null || terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Map<String, Integer> docs = postings.get(term);
+            if (docs != null) {
+                docs.remove(deviceId);
+                if (docs.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        totalLength -= existing.getLength();
+    }
+
+    private void addField(Map<String, Integer> termFrequencies, String text, int weight) {
+        for (String token : tokenize(text)) {
+            termFrequencies.merge(token, weight, Integer::sum);
+        }
+    }
+
+    // =============================================
+    // TÌM KIẾM
+    // =============================================
+
+    /**
+     * Tìm và xếp hạng BM25, trả về deviceId theo độ liên quan giảm dần.
+     * Ưu tiên sản phẩm khớp tất cả từ khóa, nếu không có thì khớp bất kỳ từ nào.
+     */
+    public List<String> search(String query, int limit) {
+        return search(query, null, null, null, null, limit);
+    }
+
+    /**
+     * Tìm kèm bộ lọc danh mục / thương hiệu / trạng thái (null = bỏ qua,
+     * status null = loại sản phẩm Ngừng bán)
+     */
+    public List<String> search(String query,
+                               Integer categoryId,
+                               Integer brandId,
+                               MedicalDevice.DeviceStatus status,
+                               int limit) {
+        return search(query, categoryId != null ? Set.of(categoryId) : null, brandId, status, null, limit);
+    }
+
+    /**
+     * Tìm kèm bộ lọc danh mục / thương hiệu / trạng thái / khoảng giá.
+     * categoryIds là tập danh mục chấp nhận (vd: danh mục cha + các danh mục con), null = bỏ qua
+     */
+    public List<String> search(String query,
+                               Set<Integer> categoryIds,
+                               Integer brandId,
+                               MedicalDevice.DeviceStatus status,
+                               PriceBand priceBand,
+                               int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            if (documents.isEmpty()) {
+                return List.of();
+            }
+
+            Map<String, Double> scores = new HashMap<>();
+            Map<String, Integer> matchedTerms = new HashMap<>();
+            int n = documents.size();
+            double avgLength = Math.max(1.0, (double) totalLength / n);
+
+            for (String term : terms) {
+                Map<String, Integer> docs = postings.get(term);
+                if (docs == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (n - docs.size() + 0.5) / (docs.size() + 0.5));
+                for (Map.Entry<String, Integer> entry : docs.entrySet()) {
+                    IndexedProduct doc = documents.get(entry.getKey());
+                    if (doc == null || !matchesFilter(doc, categoryIds, brandId, status, priceBand)) {
+                        continue;
+                    }
+                    int tf = entry.getValue();
+                    double norm = tf + K1 * (1 - B + B * doc.getLength() / avgLength);
+                    scores.merge(entry.getKey(), idf * tf * (K1 + 1) / norm, Double::sum);
+                    matchedTerms.merge(entry.getKey(), 1, Integer::sum);
+                }
+            }
+
+            int termCount = terms.size();
+            boolean anyFullMatch = matchedTerms.values().stream().anyMatch(c -> c == termCount);
+
+            return scores.entrySet().stream()
+                    .filter(e -> !anyFullMatch || matchedTerms.get(e.getKey()) == termCount)
+                    .sorted(Map.Entry.<String, Double>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lấy thông tin tóm tắt của sản phẩm trong chỉ mục
+     */
+    public Optional<IndexedProduct> getDocument(String deviceId) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(documents.get(deviceId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean matchesFilter(IndexedProduct doc,
+                                  Set<Integer> categoryIds,
+                                  Integer brandId,
+                                  MedicalDevice.DeviceStatus status,
+                                  PriceBand priceBand) {
+        return matchesCategory(doc, categoryIds)
+                && matchesBrand(doc, brandId)
+                && matchesStatus(doc, status)
+                && matchesPrice(doc, priceBand);
+    }
+
+    private boolean matchesCategory(IndexedProduct doc, Set<Integer> categoryIds) {
+        return categoryIds == null
+                || (doc.getCategoryId() != null && categoryIds.contains(doc.getCategoryId()));
+    }
+
+    private boolean matchesBrand(IndexedProduct doc, Integer brandId) {
+        return brandId == null || brandId.equals(doc.getBrandId());
+    }
+
+    private boolean matchesStatus(IndexedProduct doc, MedicalDevice.DeviceStatus status) {
+        if (status != null) {
+            return status == doc.getStatus();
+        }
+        return doc.getStatus() != MedicalDevice.DeviceStatus.Ngừng_bán;
+    }
+
+    private boolean matchesPrice(IndexedProduct doc, PriceBand priceBand) {
+        return priceBand == null || priceBand.contains(doc.getPrice());
+    }
+
+    // =============================================
+    // ĐẾM THEO BỘ LỌC (FACET)
+    // =============================================
+
+    /**
+     * Đếm số sản phẩm theo danh mục, thương hiệu, khoảng giá và trạng thái
+     * trong một lần duyệt chỉ mục. Mỗi nhóm áp dụng mọi bộ lọc trừ bộ lọc
+     * của chính nó; nhóm trạng thái liệt kê cả sản phẩm Ngừng bán.
+     * query rỗng = toàn bộ catalog. Số đếm danh mục là số trực tiếp của từng danh mục
+     * (cộng dồn lên danh mục cha bằng CategoryTree.rollUp).
+     */
+    public ProductFacetsDTO facets(String query,
+                                   Set<Integer> categoryIds,
+                                   Integer brandId,
+                                   MedicalDevice.DeviceStatus status,
+                                   PriceBand priceBand) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+
+        Map<Integer, Long> categoryCounts = new HashMap<>();
+        Map<Integer, Long> brandCounts = new HashMap<>();
+        Map<String, Long> priceBandCounts = new LinkedHashMap<>();
+        Map<String, Long> statusCounts = new LinkedHashMap<>();
+        for (PriceBand band : PriceBand.values()) {
+            priceBandCounts.put(band.getKey(), 0L);
+        }
+        for (MedicalDevice.DeviceStatus deviceStatus : MedicalDevice.DeviceStatus.values()) {
+            statusCounts.put(deviceStatus.name(), 0L);
+        }
+        long total = 0;
+
+        lock.readLock().lock();
+        try {
+            // deviceId -> số từ khóa khớp (null = không có từ khóa, lấy toàn bộ catalog)
+            Map<String, Integer> matchedTerms = terms.isEmpty() ? null : matchedTermCounts(terms);
+            Collection<String> candidates = matchedTerms == null ? documents.keySet() : matchedTerms.keySet();
+            // Cùng quy tắc với search: lọc trước, rồi mới chọn khớp đủ / khớp một phần
+            boolean fullMatchOnly = matchedTerms != null
+                    && hasFullMatch(matchedTerms, terms.size(), categoryIds, brandId, status, priceBand);
+
+            for (String deviceId : candidates) {
+                IndexedProduct doc = documents.get(deviceId);
+                if (doc == null || (fullMatchOnly && matchedTerms.get(deviceId) < terms.size())) {
+                    continue;
+                }
+                boolean category = matchesCategory(doc, categoryIds);
+                boolean brand = matchesBrand(doc, brandId);
+                boolean price = matchesPrice(doc, priceBand);
+                boolean statusOk = matchesStatus(doc, status);
+
+                if (brand && price && statusOk && doc.getCategoryId() != null) {
+                    categoryCounts.merge(doc.getCategoryId(), 1L, Long::sum);
+                }
+                if (category && price && statusOk && doc.getBrandId() != null) {
+                    brandCounts.merge(doc.getBrandId(), 1L, Long::sum);
+                }
+                if (category && brand && statusOk) {
+                    for (PriceBand band : PriceBand.values()) {
+                        if (band.contains(doc.getPrice())) {
+                            priceBandCounts.merge(band.getKey(), 1L, Long::sum);
+                            break;
+                        }
+                    }
+                }
+                if (category && brand && price && doc.getStatus() != null) {
+                    statusCounts.merge(doc.getStatus().name(), 1L, Long::sum);
+                }
+                if (category && brand && price && statusOk) {
+                    total++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return ProductFacetsDTO.builder()
+                .total(total)
+                .categoryCounts(categoryCounts)
+                .brandCounts(brandCounts)
+                .priceBandCounts(priceBandCounts)
+                .statusCounts(statusCounts)
+                .build();
+    }
+
+    /**
+     * Số từ khóa khớp của từng sản phẩm. Gọi khi đang giữ read lock.
+     */
+    private Map<String, Integer> matchedTermCounts(List<String> terms) {
+        Map<String, Integer> matchedTerms = new HashMap<>();
+        for (String term : terms) {
+            Map<String, Integer> docs = postings.get(term);
+            if (docs != null) {
+                docs.keySet().forEach(id -> matchedTerms.merge(id, 1, Integer::sum));
+            }
+        }
+        return matchedTerms;
+    }
+
+    /**
+     * Có sản phẩm qua mọi bộ lọc mà khớp tất cả từ khóa không. Gọi khi đang giữ read lock.
+     */
+    private boolean hasFullMatch(Map<String, Integer> matchedTerms,
+                                 int termCount,
+                                 Set<Integer> categoryIds,
+                                 Integer brandId,
+                                 MedicalDevice.DeviceStatus status,
+                                 PriceBand priceBand) {
+        for (Map.Entry<String, Integer> entry : matchedTerms.entrySet()) {
+            if (entry.getValue() < termCount) {
+                continue;
+            }
+            IndexedProduct doc = documents.get(entry.getKey());
+            if (doc != null && matchesFilter(doc, categoryIds, brandId, status, priceBand)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // =============================================
+    // XỬ LÝ CHUỖI TIẾNG VIỆT
+    // =============================================
+
+    /**
+     * Bỏ dấu tiếng Việt, chữ thường, chỉ giữ chữ cái/số và khoảng trắng
+     */
+    public static String fold(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        normalized = COMBINING_MARKS.matcher(normalized).replaceAll("").replace('đ', 'd');
+        return NON_ALNUM.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    /**
+     * Tách chuỗi đã bỏ dấu thành các token
+     */
+    public static List<String> tokenize(String text) {
+        String folded = fold(text);
+        if (folded.isEmpty()) {
+            return List.of();
+        }
+        return Arrays.asList(folded.split(" +"));
+    }
+}
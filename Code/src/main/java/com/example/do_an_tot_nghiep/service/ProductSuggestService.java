@@ -0,0 +1,307 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.dto.ProductSuggestionDTO;
+import com.example.do_an_tot_nghiep.model.Brand;
+import com.example.do_an_tot_nghiep.model.Category;
+import com.example.do_an_tot_nghiep.model.MedicalDevice;
+import com.example.do_an_tot_nghiep.repository.IBrandRepository;
+import com.example.do_an_tot_nghiep.repository.ICategoryRepository;
+import com.example.do_an_tot_nghiep.repository.IMedicalDeviceRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gợi ý khi gõ (typeahead) cho ô tìm kiếm sản phẩm.
+ *
+ * - Trie tiền tố trên chuỗi đã bỏ dấu (ProductSearchIndex.fold) gồm tên sản phẩm,
+ *   SKU, tên thương hiệu và tên danh mục; mỗi từ trong tên đều là một điểm bắt đầu.
+ * - Mỗi nút lưu sẵn top-K gợi ý theo độ phổ biến (soldCount, viewCount) nên truy vấn
+ *   chỉ là đi theo tiền tố, không truy cập DB.
+ * - Trie là bất biến, được xây lại ở nền khi catalog thay đổi (sau khi transaction commit)
+ *   rồi thay thế nguyên khối.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductSuggestService {
+
+    // Số gợi ý lưu sẵn tại mỗi nút (= giới hạn tối đa một lần truy vấn)
+    public static final int MAX_SUGGESTIONS = 10;
+
+    // Số từ đầu tiên của tên được dùng làm điểm bắt đầu khớp tiền tố
+    private static final int MAX_WORD_STARTS = 5;
+    // Độ sâu tối đa của một khóa trong trie
+    private static final int MAX_KEY_LENGTH = 40;
+    // Một lượt bán có giá trị bằng 10 lượt xem khi tính độ phổ biến
+    private static final long SOLD_WEIGHT = 10;
+
+    private final IMedicalDeviceRepository deviceRepository;
+    private final IBrandRepository brandRepository;
+    private final ICategoryRepository categoryRepository;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // =============================================
+    // CẤU TRÚC TRIE
+    // =============================================
+
+    /**
+     * Một gợi ý trong trie
+     */
+    private record Entry(String label, String type, String url, String imageUrl, long weight) {
+    }
+
+    /**
+     * Nút trie dạng nén: ký tự con sắp xếp tăng dần để tìm nhị phân,
+     * top là chỉ số Entry đã xếp theo độ phổ biến giảm dần
+     */
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final int[] top;
+
+        private Node(char[] keys, Node[] children, int[] top) {
+            this.keys = keys;
+            this.children = children;
+            this.top = top;
+        }
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+    }
+
+    private record Snapshot(Node root, Entry[] entries) {
+        private static final Snapshot EMPTY =
+                new Snapshot(new Node(new char[0], new Node[0], new int[0]), new Entry[0]);
+    }
+
+    /**
+     * Nút tạm dùng trong lúc xây trie
+     */
+    private static final class BuildNode {
+        private final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        private final List<Integer> top = new ArrayList<>(2);
+
+        private void offer(int entryIndex) {
+            if (top.size() < MAX_SUGGESTIONS && !top.contains(entryIndex)) {
+                top.add(entryIndex);
+            }
+        }
+
+        private Node freeze() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, BuildNode> child : children.entrySet()) {
+                keys[i] = child.getKey();
+                nodes[i] = child.getValue().freeze();
+                i++;
+            }
+            return new Node(keys, nodes, top.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    // =============================================
+    // XÂY DỰNG / CẬP NHẬT
+    // =============================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("Error building product suggest trie", e);
+        }
+    }
+
+    /**
+     * Đánh dấu catalog đã thay đổi, trie sẽ được xây lại ở lượt kiểm tra kế tiếp
+     */
+    public void markDirty() {
+        dirty.set(true);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        switch (event.type()) {
+            case PRODUCT, CATEGORY, BRAND -> markDirty();
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Xây lại trie ở nền nếu catalog đã thay đổi
+     */
+    @Scheduled(fixedDelay = 30000, initialDelay = 30000)
+    public void rebuildIfDirty() {
+        if (!dirty.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            dirty.set(true);
+            log.error("Error rebuilding product suggest trie", e);
+        }
+    }
+
+    /**
+     * Đọc catalog, xây trie mới rồi thay thế trie cũ một lần
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+
+        List<MedicalDevice> devices = deviceRepository.findAllForIndexing();
+        List<Entry> entries = new ArrayList<>();
+        Map<Entry, List<String>> keysByEntry = new IdentityHashMap<>();
+        Map<Integer, Long> brandWeights = new HashMap<>();
+        Map<Integer, Long> categoryWeights = new HashMap<>();
+
+        for (MedicalDevice device : devices) {
+            if (device.getStatus() == MedicalDevice.DeviceStatus.Ngừng_bán) {
+                continue;
+            }
+            long weight = popularity(device);
+            String url = "/products/" + device.getDeviceId();
+
+            Entry product = new Entry(device.getName(), "PRODUCT", url, device.getImageUrl(), weight);
+            entries.add(product);
+            keysByEntry.put(product, wordStartKeys(device.getName()));
+
+            if (device.getSku() != null && !device.getSku().isBlank()) {
+                Entry sku = new Entry(device.getSku() + " - " + device.getName(), "SKU", url,
+                        device.getImageUrl(), weight);
+                String folded = ProductSearchIndex.fold(device.getSku());
+                entries.add(sku);
+                keysByEntry.put(sku, List.of(folded, folded.replace(" ", "")));
+            }
+
+            if (device.getBrand() != null) {
+                brandWeights.merge(device.getBrand().getBrandId(), weight, Long::sum);
+            }
+            if (device.getCategory() != null) {
+                categoryWeights.merge(device.getCategory().getCategoryId(), weight, Long::sum);
+            }
+        }
+
+        for (Brand brand : brandRepository.findByIsActiveTrue()) {
+            Entry entry = new Entry(brand.getName(), "BRAND", "/products?brandId=" + brand.getBrandId(),
+                    brand.getLogoUrl(), brandWeights.getOrDefault(brand.getBrandId(), 0L));
+            entries.add(entry);
+            keysByEntry.put(entry, wordStartKeys(brand.getName()));
+        }
+
+        for (Category category : categoryRepository.findByIsActiveTrueOrderByDisplayOrder()) {
+            Entry entry = new Entry(category.getName(), "CATEGORY",
+                    "/products?categoryId=" + category.getCategoryId(), category.getImageUrl(),
+                    categoryWeights.getOrDefault(category.getCategoryId(), 0L));
+            entries.add(entry);
+            keysByEntry.put(entry, wordStartKeys(category.getName()));
+        }
+
+        // Chèn theo độ phổ biến giảm dần => top-K của mỗi nút là K entry đầu tiên đi qua nút đó
+        entries.sort(Comparator.comparingLong(Entry::weight).reversed()
+                .thenComparing(Entry::label, Comparator.nullsLast(Comparator.naturalOrder())));
+
+        BuildNode root = new BuildNode();
+        for (int i = 0; i < entries.size(); i++) {
+            for (String key : keysByEntry.get(entries.get(i))) {
+                insert(root, key, i);
+            }
+        }
+
+        snapshot = new Snapshot(root.freeze(), entries.toArray(new Entry[0]));
+
+        log.info("Product suggest trie built: {} entries in {} ms",
+                entries.size(), System.currentTimeMillis() - start);
+    }
+
+    private void insert(BuildNode root, String key, int entryIndex) {
+        BuildNode node = root;
+        int length = Math.min(key.length(), MAX_KEY_LENGTH);
+        for (int i = 0; i < length; i++) {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new BuildNode());
+            node.offer(entryIndex);
+        }
+    }
+
+    /**
+     * Các khóa bắt đầu từ mỗi từ của chuỗi, vd "máy đo huyết áp" ->
+     * "may do huyet ap", "do huyet ap", "huyet ap", "ap"
+     */
+    private List<String> wordStartKeys(String text) {
+        String folded = ProductSearchIndex.fold(text);
+        if (folded.isEmpty()) {
+            return List.of();
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(folded);
+        int from = 0;
+        while (keys.size() < MAX_WORD_STARTS) {
+            int space = folded.indexOf(' ', from);
+            if (space < 0) {
+                break;
+            }
+            from = space + 1;
+            keys.add(folded.substring(from));
+        }
+        return keys;
+    }
+
+    private long popularity(MedicalDevice device) {
+        long sold = device.getSoldCount() != null ? device.getSoldCount() : 0;
+        long views = device.getViewCount() != null ? device.getViewCount() : 0;
+        return sold * SOLD_WEIGHT + views;
+    }
+
+    // =============================================
+    // TRUY VẤN
+    // =============================================
+
+    /**
+     * Trả về tối đa limit gợi ý cho chuỗi đang gõ, xếp theo độ phổ biến
+     */
+    public List<ProductSuggestionDTO> suggest(String query, int limit) {
+        String prefix = ProductSearchIndex.fold(query);
+        if (prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        Snapshot current = snapshot;
+        Node node = current.root();
+        int length = Math.min(prefix.length(), MAX_KEY_LENGTH);
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node == null) {
+            return List.of();
+        }
+
+        int count = Math.min(limit, node.top.length);
+        List<ProductSuggestionDTO> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entry entry = current.entries()[node.top[i]];
+            results.add(ProductSuggestionDTO.builder()
+                    .label(entry.label())
+                    .type(entry.type())
+                    .url(entry.url())
+                    .imageUrl(entry.imageUrl())
+                    .weight(entry.weight())
+                    .build());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Category;
+import com.example.do_an_tot_nghiep.model.Customer;
+import com.example.do_an_tot_nghiep.model.Promotion;
+import com.example.do_an_tot_nghiep.repository.IPromotionCategoryRepository;
+import com.example.do_an_tot_nghiep.repository.IPromotionProductRepository;
+import com.example.do_an_tot_nghiep.repository.IPromotionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Chỉ mục khuyến mãi đang chạy trong bộ nhớ: trả lời "khuyến mãi nào áp dụng cho
+ * sản phẩm / danh mục / mã này" mà không truy vấn DB.
+ *
+ * - Dựng bằng 3 truy vấn: khuyến mãi đang / sắp chạy, liên kết danh mục, liên kết sản phẩm.
+ * - Khuyến mãi theo danh mục áp dụng cho cả danh mục con cháu (dùng CategoryTree);
+ *   khuyến mãi theo sản phẩm được liệt kê ở danh mục của sản phẩm và các danh mục cha.
+ * - Hạng khách và đơn tối thiểu được dịch sẵn trong Entry.
+ * - Dựng lại khi có CatalogChangedEvent PROMOTION / CATEGORY / PRODUCT, khi một khuyến mãi
+ *   bắt đầu hoặc kết thúc, hoặc quá MAX_AGE. Chỉ mục mới dựng xong mới thay tham chiếu.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PromotionIndex {
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(10);
+
+    private final IPromotionRepository promotionRepository;
+    private final IPromotionCategoryRepository promotionCategoryRepository;
+    private final IPromotionProductRepository promotionProductRepository;
+    private final CategoryTreeService categoryTreeService;
+
+    private volatile Compiled compiled;
+    private volatile boolean stale = false;
+
+    /**
+     * Một khuyến mãi đang chạy với điều kiện đã dịch sẵn.
+     * requiredTier null = mọi hạng; categoryIds gồm cả danh mục con cháu.
+     */
+    public record Entry(Promotion promotion,
+                        Customer.CustomerTier requiredTier,
+                        BigDecimal minOrderAmount,
+                        Set<Integer> categoryIds,
+                        Set<String> deviceIds,
+                        Set<Integer> listedCategoryIds) {
+
+        public boolean allowsTier(Customer.CustomerTier tier) {
+            return requiredTier == null || requiredTier == tier;
+        }
+
+        public boolean meetsMinOrder(BigDecimal orderAmount) {
+            return orderAmount != null && orderAmount.compareTo(minOrderAmount) >= 0;
+        }
+
+        public boolean isScoped() {
+            return promotion.getApplicableTo() == Promotion.ApplicableTo.Category
+                    || promotion.getApplicableTo() == Promotion.ApplicableTo.Product;
+        }
+
+        /**
+         * Khuyến mãi có áp dụng cho sản phẩm (thuộc danh mục categoryId) không
+         */
+        public boolean appliesTo(String deviceId, Integer categoryId) {
+            if (promotion.getApplicableTo() == Promotion.ApplicableTo.Category) {
+                return categoryId != null && categoryIds.contains(categoryId);
+            }
+            if (promotion.getApplicableTo() == Promotion.ApplicableTo.Product) {
+                return deviceId != null && deviceIds.contains(deviceId);
+            }
+            return true;
+        }
+
+        boolean listedIn(Integer categoryId) {
+            if (promotion.getApplicableTo() == Promotion.ApplicableTo.Category) {
+                return categoryIds.contains(categoryId);
+            }
+            if (promotion.getApplicableTo() == Promotion.ApplicableTo.Product) {
+                return listedCategoryIds.contains(categoryId);
+            }
+            return true;
+        }
+    }
+
+    private record Compiled(List<Entry> active,
+                            List<Promotion> activePromotions,
+                            List<Promotion> globalPromotions,
+                            Map<String, Entry> byCode,
+                            Map<Integer, Entry> byId,
+                            Map<Integer, List<Promotion>> byCategory,
+                            LocalDateTime validUntil) {
+    }
+
+    /**
+     * Khuyến mãi đang chạy, mới tạo trước
+     */
+    public List<Promotion> getActive() {
+        return current().activePromotions();
+    }
+
+    /**
+     * Khuyến mãi hiển thị ở một danh mục (null = tất cả)
+     */
+    public List<Promotion> getForCategory(Integer categoryId) {
+        Compiled current = current();
+        if (categoryId == null) {
+            return current.activePromotions();
+        }
+        return current.byCategory().getOrDefault(categoryId, current.globalPromotions());
+    }
+
+    /**
+     * Khuyến mãi áp dụng cho một sản phẩm
+     */
+    public List<Promotion> getForDevice(String deviceId, Integer categoryId) {
+        return current().active().stream()
+                .filter(entry -> entry.appliesTo(deviceId, categoryId))
+                .map(Entry::promotion)
+                .toList();
+    }
+
+    /**
+     * Tìm khuyến mãi đang chạy theo mã (không phân biệt hoa thường, như collation của cột code)
+     */
+    public Optional<Entry> findByCode(String code) {
+        if (code == null || code.isBlank()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(current().byCode().get(normalize(code)));
+    }
+
+    public Optional<Entry> findById(Integer promotionId) {
+        return Optional.ofNullable(current().byId().get(promotionId));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (event.type() == CatalogChangedEvent.Type.PROMOTION
+                || event.type() == CatalogChangedEvent.Type.CATEGORY
+                || event.type() == CatalogChangedEvent.Type.PRODUCT) {
+            // Dựng lại ở lần đọc kế tiếp (lúc đó CategoryTree cũng đã được dựng lại)
+            stale = true;
+        }
+    }
+
+    private Compiled current() {
+        Compiled current = compiled;
+        if (current != null && !stale && LocalDateTime.now().isBefore(current.validUntil())) {
+            return current;
+        }
+        return rebuild();
+    }
+
+    private synchronized Compiled rebuild() {
+        Compiled current = compiled;
+        if (current != null && !stale && LocalDateTime.now().isBefore(current.validUntil())) {
+            return current;
+        }
+        stale = false;
+        try {
+            current = build();
+            compiled = current;
+        } catch (RuntimeException e) {
+            if (current == null) {
+                throw e;
+            }
+            // Giữ chỉ mục cũ; lần đọc sau sẽ thử lại
+            stale = true;
+            log.error("Error rebuilding promotion index", e);
+        }
+        return current;
+    }
+
+    private Compiled build() {
+        long start = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Promotion> promotions = promotionRepository.findIndexable(now);
+        Map<Integer, Set<Integer>> categoryLinks = new HashMap<>();
+        for (Object[] row : promotionCategoryRepository.findActiveLinks()) {
+            if (row[1] != null) {
+                categoryLinks.computeIfAbsent((Integer) row[0], id -> new HashSet<>()).add((Integer) row[1]);
+            }
+        }
+        Map<Integer, Set<String>> deviceLinks = new HashMap<>();
+        Map<Integer, Set<Integer>> deviceCategoryLinks = new HashMap<>();
+        for (Object[] row : promotionProductRepository.findActiveLinks()) {
+            deviceLinks.computeIfAbsent((Integer) row[0], id -> new HashSet<>()).add((String) row[1]);
+            if (row[2] != null) {
+                deviceCategoryLinks.computeIfAbsent((Integer) row[0], id -> new HashSet<>()).add((Integer) row[2]);
+            }
+        }
+        CategoryTree tree = categoryTreeService.get();
+
+        LocalDateTime validUntil = now.plus(MAX_AGE);
+        List<Entry> active = new ArrayList<>();
+        for (Promotion promotion : promotions) {
+            if (promotion.getStartDate() != null && promotion.getStartDate().isAfter(now)) {
+                // Chưa bắt đầu: chỉ dùng để biết lúc nào cần dựng lại
+                validUntil = earliest(validUntil, promotion.getStartDate());
+                continue;
+            }
+            if (promotion.getEndDate() != null) {
+                validUntil = earliest(validUntil, promotion.getEndDate().plusSeconds(1));
+            }
+
+            Set<Integer> categoryIds = new HashSet<>();
+            for (Integer categoryId : categoryLinks.getOrDefault(promotion.getPromotionId(), Set.of())) {
+                categoryIds.add(categoryId);
+                categoryIds.addAll(tree.getDescendantIds(categoryId));
+            }
+            Set<Integer> listedCategoryIds = new HashSet<>();
+            for (Integer categoryId : deviceCategoryLinks.getOrDefault(promotion.getPromotionId(), Set.of())) {
+                listedCategoryIds.add(categoryId);
+                tree.getAncestorPath(categoryId).forEach(c -> listedCategoryIds.add(c.getCategoryId()));
+            }
+
+            active.add(new Entry(
+                    promotion,
+                    requiredTier(promotion),
+                    promotion.getMinOrderAmount() != null ? promotion.getMinOrderAmount() : BigDecimal.ZERO,
+                    Set.copyOf(categoryIds),
+                    Set.copyOf(deviceLinks.getOrDefault(promotion.getPromotionId(), Set.of())),
+                    Set.copyOf(listedCategoryIds)));
+        }
+
+        Map<String, Entry> byCode = new HashMap<>();
+        Map<Integer, Entry> byId = new HashMap<>();
+        for (Entry entry : active) {
+            byId.put(entry.promotion().getPromotionId(), entry);
+            if (entry.promotion().getCode() != null) {
+                byCode.putIfAbsent(normalize(entry.promotion().getCode()), entry);
+            }
+        }
+
+        Map<Integer, List<Promotion>> byCategory = new HashMap<>();
+        for (Category category : tree.getAll()) {
+            byCategory.put(category.getCategoryId(), active.stream()
+                    .filter(entry -> entry.listedIn(category.getCategoryId()))
+                    .map(Entry::promotion)
+                    .toList());
+        }
+
+        Compiled built = new Compiled(
+                List.copyOf(active),
+                active.stream().map(Entry::promotion).toList(),
+                active.stream().filter(entry -> !entry.isScoped()).map(Entry::promotion).toList(),
+                Map.copyOf(byCode),
+                Map.copyOf(byId),
+                Map.copyOf(byCategory),
+                validUntil);
+        log.info("Built promotion index: {} active promotions in {} ms, valid until {}",
+                active.size(), System.currentTimeMillis() - start, validUntil);
+        return built;
+    }
+
+    /**
+     * Promotion.CustomerTier (All, Bronze...) -> Customer.CustomerTier (BRONZE...), All = null
+     */
+    private static Customer.CustomerTier requiredTier(Promotion promotion) {
+        if (promotion.getCustomerTier() == null || promotion.getCustomerTier() == Promotion.CustomerTier.All) {
+            return null;
+        }
+        return Customer.CustomerTier.fromString(promotion.getCustomerTier().name());
+    }
+
+    private static LocalDateTime earliest(LocalDateTime a, LocalDateTime b) {
+        return b.isBefore(a) ? b : a;
+    }
+
+    private static String normalize(String code) {
+        return code.trim().toUpperCase(Locale.ROOT);
+    }
+}
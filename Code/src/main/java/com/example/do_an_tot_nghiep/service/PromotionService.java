@@ -5,12 +5,18 @@ import com.example.do_an_tot_nghiep.model.*;
 import com.example.do_an_tot_nghiep.repository.*;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -36,6 +42,12 @@ public class PromotionService {
     @Autowired
     private IOrderRepository orderRepository;
 
+    @Autowired
+    private PromotionIndex promotionIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     // =============================================
     // PHẦN MỚI: XEM KHUYẾN MÃI (CHO FRONTEND)
     // =============================================
@@ -44,45 +56,23 @@ public class PromotionService {
      * Lấy danh sách khuyến mãi đang hoạt động
      */
     public List<Promotion> getActivePromotions() {
-        LocalDateTime now = LocalDateTime.now();
-        return promotionRepository.findActivePromotions(now);
+        return promotionIndex.getActive();
     }
 
     /**
      * Lấy danh sách khuyến mãi theo danh mục
      */
     public List<Promotion> getPromotionsByCategory(Integer categoryId) {
-        LocalDateTime now = LocalDateTime.now();
-        List<Promotion> allPromotions = promotionRepository.findActivePromotions(now);
-
-        if (categoryId == null) {
-            return allPromotions;
-        }
-
-        return allPromotions.stream()
-                .filter(p -> hasCategory(p, categoryId))
-                .collect(Collectors.toList());
+        // Bản sao để nơi gọi có thể sắp xếp lại
+        return new ArrayList<>(promotionIndex.getForCategory(categoryId));
     }
 
     /**
      * Lấy chi tiết khuyến mãi
      */
     public Optional<Promotion> getPromotionDetail(Integer promotionId) {
-        LocalDateTime now = LocalDateTime.now();
-        Optional<Promotion> promotionOpt = promotionRepository.findByPromotionIdAndIsActiveTrue(promotionId);
-
-        if (!promotionOpt.isPresent()) {
-            return Optional.empty();
-        }
-
-        Promotion promotion = promotionOpt.get();
-
-        // Kiểm tra thời gian hợp lệ
-        if (now.isBefore(promotion.getStartDate()) || now.isAfter(promotion.getEndDate())) {
-            return Optional.empty();
-        }
-
-        return Optional.of(promotion);
+        // Chỉ mục chỉ chứa khuyến mãi đang bật và trong thời gian hiệu lực
+        return promotionIndex.findById(promotionId).map(PromotionIndex.Entry::promotion);
     }
 
     /**
@@ -105,39 +95,6 @@ public class PromotionService {
                 .collect(Collectors.toList());
     }
 
-    /**
-     * Kiểm tra khuyến mãi có áp dụng cho danh mục không
-     */
-    private boolean hasCategory(Promotion promotion, Integer categoryId) {
-        if (categoryId == null || promotion == null) {
-            return false;
-        }
-
-        // Trường hợp 1: Khuyến mãi áp dụng cho tất cả
-        if (promotion.getApplicableTo() == Promotion.ApplicableTo.All) {
-            return true;
-        }
-
-        // Trường hợp 2: Khuyến mãi áp dụng cho danh mục cụ thể
-        if (promotion.getApplicableTo() == Promotion.ApplicableTo.Category) {
-            List<PromotionCategory> promotionCategories = promotionCategoryRepository.findByPromotion(promotion);
-            return promotionCategories.stream()
-                    .anyMatch(pc -> pc.getCategory() != null &&
-                            pc.getCategory().getCategoryId().equals(categoryId.longValue()));
-        }
-
-        // Trường hợp 3: Khuyến mãi áp dụng cho sản phẩm cụ thể
-        if (promotion.getApplicableTo() == Promotion.ApplicableTo.Product) {
-            List<PromotionProduct> promotionProducts = promotionProductRepository.findByPromotion(promotion);
-            return promotionProducts.stream()
-                    .anyMatch(pp -> pp.getDevice() != null &&
-                            pp.getDevice().getCategory() != null &&
-                            pp.getDevice().getCategory().getCategoryId().equals(categoryId.longValue()));
-        }
-
-        return false;
-    }
-
     // =============================================
     // PHẦN CŨ: ÁP DỤNG MÃ GIẢM GIÁ
     // =============================================
@@ -148,40 +105,51 @@ public class PromotionService {
     public PromotionApplyResponse applyPromotion(String promotionCode,
                                                  Integer customerId,
                                                  BigDecimal orderAmount) {
-        // Find promotion
-        Optional<Promotion> promoOpt = promotionRepository.findByCodeAndIsActiveTrue(promotionCode);
+        return applyPromotion(promotionCode, customerId, orderAmount, null);
+    }
 
-        if (!promoOpt.isPresent()) {
+    /**
+     * Áp dụng mã khuyến mãi cho giỏ hàng: cartDevices (deviceId -> categoryId) dùng để kiểm tra
+     * mã chỉ dành cho một số danh mục / sản phẩm; null = không kiểm tra phạm vi.
+     * Mã, thời gian, hạng khách, đơn tối thiểu, phạm vi đọc từ PromotionIndex (không truy vấn DB).
+     */
+    public PromotionApplyResponse applyPromotion(String promotionCode,
+                                                 Integer customerId,
+                                                 BigDecimal orderAmount,
+                                                 Map<String, Integer> cartDevices) {
+        // Find promotion (chỉ mục chỉ chứa mã đang bật và trong thời gian hiệu lực)
+        Optional<PromotionIndex.Entry> entryOpt = promotionIndex.findByCode(promotionCode);
+
+        if (entryOpt.isEmpty()) {
             return buildFailureResponse("Mã khuyến mãi không tồn tại hoặc đã hết hạn");
         }
 
-        Promotion promotion = promoOpt.get();
+        PromotionIndex.Entry entry = entryOpt.get();
+        Promotion promotion = entry.promotion();
         Customer customer = customerRepository.findById(customerId)
                 .orElseThrow(() -> new RuntimeException("Customer not found"));
 
-        // Check date validity
-        LocalDateTime now = LocalDateTime.now();
-        if (promotion.getStartDate() != null && now.isBefore(promotion.getStartDate())) {
-            return buildFailureResponse("Mã khuyến mãi chưa có hiệu lực");
-        }
-        if (promotion.getEndDate() != null && now.isAfter(promotion.getEndDate())) {
-            return buildFailureResponse("Mã khuyến mãi đã hết hạn");
-        }
-
         // Check customer tier
-        if (!promotion.getCustomerTier().equals(Promotion.CustomerTier.All) &&
-                !customer.getCustomerTier().name().equals(promotion.getCustomerTier().name())) {
+        if (!entry.allowsTier(customer.getCustomerTier())) {
             return buildFailureResponse("Mã này chỉ dành cho khách hàng hạng " + promotion.getCustomerTier());
         }
 
         // Check minimum order amount
-        if (orderAmount.compareTo(promotion.getMinOrderAmount()) < 0) {
-            return buildFailureResponse("Đơn hàng tối thiểu " + promotion.getMinOrderAmount() + " VNĐ");
+        if (!entry.meetsMinOrder(orderAmount)) {
+            return buildFailureResponse("Đơn hàng tối thiểu " + entry.minOrderAmount() + " VNĐ");
+        }
+
+        // Check applicable products / categories
+        if (cartDevices != null && entry.isScoped()
+                && cartDevices.entrySet().stream().noneMatch(d -> entry.appliesTo(d.getKey(), d.getValue()))) {
+            return buildFailureResponse("Mã khuyến mãi không áp dụng cho sản phẩm trong giỏ hàng");
         }
 
-        // Check usage limit
-        if (promotion.getUsageLimit() != null &&
-                promotion.getUsedCount() >= promotion.getUsageLimit()) {
+        // Check usage limit (lượt đã dùng đọc mới từ DB, chỉ mục có thể đã cũ)
+        Integer usedCount = promotion.getUsageLimit() != null
+                ? promotionRepository.findUsedCount(promotion.getPromotionId())
+                : null;
+        if (usedCount != null && usedCount >= promotion.getUsageLimit()) {
             return buildFailureResponse("Mã khuyến mãi đã hết lượt sử dụng");
         }
 
@@ -201,6 +169,7 @@ public class PromotionService {
                 .message("Áp dụng thành công")
                 .discountAmount(discountAmount)
                 .promotionId(promotion.getPromotionId())
+                .discountType(promotion.getDiscountType())
                 .build();
     }
 
@@ -228,32 +197,67 @@ public class PromotionService {
     }
 
     /**
-     * Ghi nhận việc sử dụng khuyến mãi
+     * Giành một lượt dùng mã cho đơn đang tạo (chạy trong transaction tạo đơn).
+     * - Mỗi khách có usagePerCustomer "ô" (usage_slot 1..n); UNIQUE (promotion_id, customer_id, usage_slot)
+     *   bảo đảm hai đơn đặt cùng lúc không giữ cùng một ô.
+     * - Tổng lượt dùng tăng bằng một UPDATE có điều kiện used_count < usage_limit, không đọc rồi ghi.
+     * Hết ô hoặc hết lượt thì ném RuntimeException => cả đơn rollback.
      */
-    @Transactional
-    public void recordPromotionUsage(Integer promotionId, Integer customerId,
-                                     Integer orderId, BigDecimal discountAmount) {
-        Promotion promotion = promotionRepository.findById(promotionId)
-                .orElseThrow(() -> new RuntimeException("Promotion not found"));
-
-        Customer customer = customerRepository.findById(customerId)
-                .orElseThrow(() -> new RuntimeException("Customer not found"));
-
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Order not found"));
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void claimPromotion(Integer promotionId, Integer customerId,
+                               Integer orderId, BigDecimal discountAmount) {
+        Promotion promotion = promotionIndex.findById(promotionId)
+                .map(PromotionIndex.Entry::promotion)
+                .orElseThrow(() -> new RuntimeException("Mã khuyến mãi không tồn tại hoặc đã hết hạn"));
+
+        int slots = promotion.getUsagePerCustomer() != null && promotion.getUsagePerCustomer() > 0
+                ? promotion.getUsagePerCustomer()
+                : 1;
+        boolean claimed = false;
+        for (int slot = 1; slot <= slots && !claimed; slot++) {
+            try {
+                jdbcTemplate.update(
+                        "INSERT INTO promotion_usage (promotion_id, customer_id, usage_slot, order_id, discount_amount, used_at) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)",
+                        promotionId, customerId, slot, orderId, discountAmount, Timestamp.valueOf(LocalDateTime.now()));
+                claimed = true;
+            } catch (DuplicateKeyException e) {
+                // Ô này đã có đơn khác giữ, thử ô kế tiếp
+            }
+        }
+        if (!claimed) {
+            throw new RuntimeException("Bạn đã sử dụng hết số lần cho mã này");
+        }
 
-        PromotionUsage usage = PromotionUsage.builder()
-                .promotion(promotion)
-                .customer(customer)
-                .order(order)
-                .discountAmount(discountAmount)
-                .build();
+        int updated = jdbcTemplate.update(
+                "UPDATE promotion SET used_count = COALESCE(used_count, 0) + 1 " +
+                "WHERE promotion_id = ? AND (usage_limit IS NULL OR COALESCE(used_count, 0) < usage_limit)",
+                promotionId);
+        if (updated == 0) {
+            throw new RuntimeException("Mã khuyến mãi đã hết lượt sử dụng");
+        }
+    }
 
-        promotionUsageRepository.save(usage);
+    /**
+     * Trả lại lượt dùng mã của một đơn bị hủy: xóa ô đã giữ và giảm used_count.
+     * Gọi lại nhiều lần cũng chỉ trả một lần (không còn ô thì không làm gì).
+     */
+    @Transactional
+    public boolean releasePromotion(Integer orderId) {
+        List<Integer> promotionIds = jdbcTemplate.queryForList(
+                "SELECT promotion_id FROM promotion_usage WHERE order_id = ? FOR UPDATE",
+                Integer.class, orderId);
+        if (promotionIds.isEmpty()) {
+            return false;
+        }
 
-        // Update promotion used count
-        promotion.setUsedCount(promotion.getUsedCount() + 1);
-        promotionRepository.save(promotion);
+        jdbcTemplate.update("DELETE FROM promotion_usage WHERE order_id = ?", orderId);
+        for (Integer promotionId : promotionIds) {
+            jdbcTemplate.update(
+                    "UPDATE promotion SET used_count = used_count - 1 WHERE promotion_id = ? AND used_count > 0",
+                    promotionId);
+        }
+        return true;
     }
 
     /**
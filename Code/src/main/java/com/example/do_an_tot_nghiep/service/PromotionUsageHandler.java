@@ -0,0 +1,35 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.model.Order;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Trả lại lượt dùng mã khuyến mãi khi đơn bị hủy (lượt dùng được giành ngay lúc tạo đơn,
+ * xem PromotionService.claimPromotion)
+ */
+@Component
+@RequiredArgsConstructor
+public class PromotionUsageHandler implements OrderEventHandler {
+
+    private final PromotionService promotionService;
+
+    @Override
+    public String name() {
+        return "promotion-usage";
+    }
+
+    @Override
+    public Set<OrderEvent.Type> types() {
+        return Set.of(OrderEvent.Type.ORDER_STATUS_CHANGED);
+    }
+
+    @Override
+    public void handle(OrderEvent event) {
+        if (event.newStatus() == Order.OrderStatus.CANCELLED) {
+            promotionService.releasePromotion(event.orderId());
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.example.do_an_tot_nghiep.dto.ReviewDTO;
 import com.example.do_an_tot_nghiep.model.Employee;
 import com.example.do_an_tot_nghiep.model.Review;
 import com.example.do_an_tot_nghiep.repository.IEmployeeRepository;
+import com.example.do_an_tot_nghiep.repository.IMedicalDeviceRepository;
 import com.example.do_an_tot_nghiep.repository.IReviewRepository;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -11,6 +12,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -25,8 +27,14 @@ public class ReviewService implements IReviewService {
 
     private final IReviewRepository reviewRepository;
     private final IEmployeeRepository employeeRepository;
+    private final IMedicalDeviceRepository deviceRepository;
     private final ObjectMapper objectMapper;
 
+    /**
+     * Số lần thử lại khi trạng thái đánh giá bị request khác đổi giữa hai câu UPDATE/DELETE có điều kiện
+     */
+    private static final int MAX_TRANSITION_ATTEMPTS = 3;
+
     @Override
     public Page<ReviewDTO> getAllReviews(Pageable pageable) {
         return reviewRepository.findAll(pageable)
@@ -70,8 +78,11 @@ public class ReviewService implements IReviewService {
         Review review = reviewRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy đánh giá"));
 
-        review.setStatus(Review.ReviewStatus.APPROVED);
-        reviewRepository.save(review);
+        // Chỉ request thực sự chuyển sang APPROVED mới cộng vào tổng hợp rating
+        if (reviewRepository.updateStatusUnless(id, Review.ReviewStatus.APPROVED,
+                Review.ReviewStatus.APPROVED) == 1) {
+            applyRatingChange(review, 1);
+        }
         log.info("Approved review id: {}", id);
     }
 
@@ -81,9 +92,21 @@ public class ReviewService implements IReviewService {
         Review review = reviewRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy đánh giá"));
 
-        review.setStatus(Review.ReviewStatus.REJECTED);
-        reviewRepository.save(review);
-        log.info("Rejected review id: {}", id);
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            if (reviewRepository.updateStatusIf(id, Review.ReviewStatus.APPROVED,
+                    Review.ReviewStatus.REJECTED) == 1) {
+                applyRatingChange(review, -1);
+                log.info("Rejected review id: {}", id);
+                return;
+            }
+            if (reviewRepository.updateStatusUnless(id, Review.ReviewStatus.APPROVED,
+                    Review.ReviewStatus.REJECTED) == 1) {
+                log.info("Rejected review id: {}", id);
+                return;
+            }
+            // Vừa có request khác duyệt đánh giá này giữa hai câu UPDATE - thử lại
+        }
+        throw new RuntimeException("Đánh giá đang được cập nhật đồng thời, vui lòng thử lại");
     }
 
     @Override
@@ -109,8 +132,21 @@ public class ReviewService implements IReviewService {
         Review review = reviewRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy đánh giá"));
 
-        reviewRepository.delete(review);
-        log.info("Deleted review id: {}", id);
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            if (reviewRepository.deleteIfStatus(id, Review.ReviewStatus.APPROVED) == 1) {
+                applyRatingChange(review, -1);
+                log.info("Deleted review id: {}", id);
+                return;
+            }
+            if (reviewRepository.deleteUnlessStatus(id, Review.ReviewStatus.APPROVED) == 1) {
+                log.info("Deleted review id: {}", id);
+                return;
+            }
+            if (!reviewRepository.existsById(id)) {
+                throw new RuntimeException("Không tìm thấy đánh giá");
+            }
+        }
+        throw new RuntimeException("Đánh giá đang được cập nhật đồng thời, vui lòng thử lại");
     }
 
     @Override
@@ -160,7 +196,34 @@ public class ReviewService implements IReviewService {
                 .map(this::convertToDTO);
     }
 
+    /**
+     * Đối soát định kỳ avg_rating / review_count với bảng review
+     * (bù cho dữ liệu nhập trực tiếp vào DB hoặc lỗi giữa chừng)
+     */
+    @Scheduled(cron = "0 30 3 * * *")
+    @Transactional
+    public void reconcileRatings() {
+        try {
+            int updated = deviceRepository.reconcileRatings();
+            log.info("Reconciled rating aggregates for {} products", updated);
+        } catch (Exception e) {
+            log.error("Error reconciling rating aggregates", e);
+        }
+    }
+
     // Helper methods
+
+    /**
+     * Cộng (+1) hoặc trừ (-1) một đánh giá đã duyệt vào tổng hợp của sản phẩm
+     */
+    private void applyRatingChange(Review review, int direction) {
+        if (review.getDevice() == null || review.getRating() == null) {
+            return;
+        }
+        deviceRepository.applyRatingDelta(review.getDevice().getDeviceId(),
+                direction * review.getRating(), direction);
+    }
+
     private ReviewDTO convertToDTO(Review review) {
         ReviewDTO dto = new ReviewDTO();
         dto.setReviewId(review.getReviewId());
@@ -0,0 +1,113 @@
+package com.example.do_an_tot_nghiep.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Giữ / hoàn tồn kho bằng câu UPDATE có điều kiện, không đọc - so sánh - ghi trong Java.
+ *
+ * - Cả đơn chỉ một câu lệnh; mỗi sản phẩm chỉ được trừ khi còn đủ hàng
+ *   (stock_quantity >= số lượng), nên hai đơn đồng thời không thể cùng lấy những đơn vị cuối cùng.
+ * - Số dòng bị ảnh hưởng ít hơn số sản phẩm => có sản phẩm thiếu hàng => ném lỗi,
+ *   mọi thay đổi được rollback cùng đơn hàng.
+ * - InnoDB khóa các dòng theo thứ tự khóa chính (device_id tăng dần) nên hai đơn
+ *   chứa cùng sản phẩm không khóa chéo nhau (deadlock).
+ * - Sản phẩm đang flash sale không khóa dòng mà lấy token từ FlashSaleService.
+ */
+@Service
+@RequiredArgsConstructor
+public class StockService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FlashSaleService flashSaleService;
+
+    /**
+     * Trừ tồn kho cho cả đơn (deviceId -> số lượng)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserve(Map<String, Integer> quantities) {
+        // Sản phẩm đang flash sale lấy token trong bộ nhớ, phần còn lại trừ kho bằng SQL
+        Map<String, Integer> ordered = flashSaleService.reserve(inLockOrder(quantities));
+        if (ordered.isEmpty()) {
+            return;
+        }
+        String quantityCase = quantityCase(ordered);
+        String sql = "UPDATE medical_device SET " +
+                "stock_quantity = stock_quantity - " + quantityCase + ", " +
+                "sold_count = sold_count + " + quantityCase + " " +
+                "WHERE device_id IN (" + placeholders(ordered) + ") " +
+                "AND stock_quantity >= " + quantityCase;
+
+        List<Object> args = new ArrayList<>();
+        args.addAll(caseArgs(ordered));
+        args.addAll(caseArgs(ordered));
+        args.addAll(ordered.keySet());
+        args.addAll(caseArgs(ordered));
+
+        int updated = jdbcTemplate.update(sql, args.toArray());
+        if (updated < ordered.size()) {
+            throw new RuntimeException("Một số sản phẩm trong đơn không còn đủ hàng");
+        }
+    }
+
+    /**
+     * Hoàn lại tồn kho (hủy / trả đơn)
+     */
+    @Transactional
+    public void release(Map<String, Integer> quantities) {
+        Map<String, Integer> ordered = flashSaleService.release(inLockOrder(quantities));
+        if (ordered.isEmpty()) {
+            return;
+        }
+        String quantityCase = quantityCase(ordered);
+        String sql = "UPDATE medical_device SET " +
+                "stock_quantity = stock_quantity + " + quantityCase + ", " +
+                "sold_count = GREATEST(sold_count - " + quantityCase + ", 0) " +
+                "WHERE device_id IN (" + placeholders(ordered) + ")";
+
+        List<Object> args = new ArrayList<>();
+        args.addAll(caseArgs(ordered));
+        args.addAll(caseArgs(ordered));
+        args.addAll(ordered.keySet());
+        jdbcTemplate.update(sql, args.toArray());
+    }
+
+    private Map<String, Integer> inLockOrder(Map<String, Integer> quantities) {
+        Map<String, Integer> ordered = new TreeMap<>();
+        quantities.forEach((deviceId, quantity) -> {
+            if (deviceId != null && quantity != null && quantity > 0) {
+                ordered.merge(deviceId, quantity, Integer::sum);
+            }
+        });
+        return ordered;
+    }
+
+    // (CASE device_id WHEN ? THEN ? ... END)
+    private String quantityCase(Map<String, Integer> ordered) {
+        return ordered.keySet().stream()
+                .map(id -> "WHEN ? THEN ?")
+                .collect(Collectors.joining(" ", "(CASE device_id ", " END)"));
+    }
+
+    private List<Object> caseArgs(Map<String, Integer> ordered) {
+        List<Object> args = new ArrayList<>();
+        ordered.forEach((deviceId, quantity) -> {
+            args.add(deviceId);
+            args.add(quantity);
+        });
+        return args;
+    }
+
+    private String placeholders(Map<String, Integer> ordered) {
+        return ordered.keySet().stream().map(id -> "?").collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.do_an_tot_nghiep.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gom lượt xem sản phẩm trong bộ nhớ rồi ghi xuống DB theo lô (write-behind).
+ *
+ * - Trang chi tiết chỉ tăng LongAdder của sản phẩm, không mở transaction ghi.
+ * - Định kỳ (và khi tắt ứng dụng) flush bằng batch
+ *   UPDATE medical_device SET view_count = view_count + ? WHERE device_id = ?
+ * - Khi flush chỉ trừ đúng phần đã lấy ra nên lượt xem đến trong lúc flush không bị mất;
+ *   nếu ghi DB lỗi thì cộng trả lại để lần sau ghi tiếp.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ViewCountBuffer {
+
+    private static final String FLUSH_SQL =
+            "UPDATE medical_device SET view_count = view_count + ? WHERE device_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // deviceId -> số lượt xem chưa ghi xuống DB
+    private final Map<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong flushedViews = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile LocalDateTime lastFlushAt;
+
+    /**
+     * Ghi nhận một lượt xem
+     */
+    public void recordView(String deviceId) {
+        if (deviceId == null) {
+            return;
+        }
+        pending.computeIfAbsent(deviceId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Số lượt xem chưa ghi của một sản phẩm (để hiển thị view_count + phần đang chờ)
+     */
+    public long getPendingViews(String deviceId) {
+        LongAdder adder = pending.get(deviceId);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    /**
+     * Ghi các lượt xem đang chờ xuống DB theo lô
+     */
+    @Scheduled(fixedDelay = 10000, initialDelay = 10000)
+    public synchronized void flush() {
+        List<Object[]> batch = new ArrayList<>();
+        List<LongAdder> drained = new ArrayList<>();
+
+        for (Map.Entry<String, LongAdder> entry : pending.entrySet()) {
+            LongAdder adder = entry.getValue();
+            long delta = adder.sum();
+            if (delta <= 0) {
+                continue;
+            }
+            // Trừ đúng phần đã lấy, lượt xem tăng thêm trong lúc này vẫn được giữ lại
+            adder.add(-delta);
+            batch.add(new Object[]{delta, entry.getKey()});
+            drained.add(adder);
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(FLUSH_SQL, batch);
+            long views = batch.stream().mapToLong(row -> (Long) row[0]).sum();
+            flushedViews.addAndGet(views);
+            flushCount.incrementAndGet();
+            lastFlushAt = LocalDateTime.now();
+            log.debug("Flushed {} views for {} products", views, batch.size());
+        } catch (Exception e) {
+            // Cộng trả lại để lần flush sau ghi tiếp
+            for (int i = 0; i < batch.size(); i++) {
+                drained.get(i).add((Long) batch.get(i)[0]);
+            }
+            failedFlushes.incrementAndGet();
+            log.error("Error flushing view counts, {} products kept for retry", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        log.info("Flushing pending view counts before shutdown");
+        flush();
+    }
+
+    /**
+     * Số liệu theo dõi bộ đệm lượt xem
+     */
+    public Map<String, Object> getStats() {
+        long pendingViews = 0;
+        long pendingProducts = 0;
+        for (LongAdder adder : pending.values()) {
+            long value = adder.sum();
+            if (value > 0) {
+                pendingViews += value;
+                pendingProducts++;
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingViews", pendingViews);
+        stats.put("pendingProducts", pendingProducts);
+        stats.put("trackedProducts", pending.size());
+        stats.put("flushedViews", flushedViews.get());
+        stats.put("flushCount", flushCount.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("lastFlushAt", lastFlushAt);
+        return stats;
+    }
+}
@@ -1778,6 +1778,216 @@ SET provider = 'LOCAL',
     has_custom_password = TRUE 
 WHERE provider IS NULL AND password_hash IS NOT NULL;
 -- =============================================
+-- Tổng hợp đánh giá lưu sẵn trên medical_device
+ALTER TABLE medical_device
+ADD COLUMN avg_rating DOUBLE DEFAULT 0 COMMENT 'Điểm TB đánh giá đã duyệt' AFTER sold_count,
+ADD COLUMN rating_sum INT DEFAULT 0 AFTER avg_rating,
+ADD COLUMN review_count INT DEFAULT 0 COMMENT 'Số đánh giá đã duyệt' AFTER rating_sum;
+
+UPDATE medical_device md
+    LEFT JOIN (SELECT device_id, COUNT(*) AS cnt, SUM(rating) AS total
+               FROM review
+               WHERE status = 'APPROVED' AND rating IS NOT NULL
+               GROUP BY device_id) r ON r.device_id = md.device_id
+SET md.avg_rating   = COALESCE(r.total / r.cnt, 0),
+    md.rating_sum   = COALESCE(r.total, 0),
+    md.review_count = COALESCE(r.cnt, 0);
+-- =============================================
+-- Sản phẩm thường được mua cùng (số đơn hoàn thành có cả 2 sản phẩm)
+CREATE TABLE product_co_purchase
+(
+    device_id         VARCHAR(50) NOT NULL,
+    related_device_id VARCHAR(50) NOT NULL,
+    co_count          INT         NOT NULL DEFAULT 0,
+    updated_at        DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (device_id, related_device_id),
+    FOREIGN KEY (device_id) REFERENCES medical_device (device_id) ON DELETE CASCADE,
+    FOREIGN KEY (related_device_id) REFERENCES medical_device (device_id) ON DELETE CASCADE,
+    INDEX idx_device_count (device_id, co_count)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+INSERT INTO product_co_purchase (device_id, related_device_id, co_count)
+SELECT a.device_id, b.device_id, COUNT(DISTINCT a.order_id)
+FROM order_detail a
+         JOIN order_detail b ON b.order_id = a.order_id AND b.device_id <> a.device_id
+         JOIN `order` o ON o.order_id = a.order_id
+WHERE o.status = 'COMPLETED'
+GROUP BY a.device_id, b.device_id;
+-- =============================================
+-- Cấp phát mã đơn hàng theo khối (hi/lo): mỗi dòng là giá trị kế tiếp chưa cấp của một ngày
+CREATE TABLE order_code_sequence
+(
+    seq_date   DATE   NOT NULL PRIMARY KEY,
+    next_value BIGINT NOT NULL
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Khóa idempotency (đặt hàng, callback VNPay): chống xử lý trùng khi bấm 2 lần / gửi lại
+CREATE TABLE idempotency_key
+(
+    idem_key   VARCHAR(100) NOT NULL PRIMARY KEY,
+    status     VARCHAR(20)  NOT NULL COMMENT 'IN_PROGRESS, COMPLETED',
+    result_id  INT COMMENT 'Kết quả của thao tác (vd: order_id)',
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    expires_at DATETIME     NOT NULL,
+    INDEX idx_expires (expires_at)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Outbox sự kiện đơn hàng: ghi cùng transaction với đơn, xử lý bất đồng bộ sau commit
+-- (mỗi sự kiện một dòng cho mỗi handler)
+CREATE TABLE order_outbox
+(
+    event_id        BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_type      VARCHAR(30) NOT NULL COMMENT 'ORDER_PLACED, ORDER_STATUS_CHANGED, PAYMENT_CAPTURED',
+    handler         VARCHAR(50) NOT NULL,
+    order_id        INT         NOT NULL,
+    old_status      VARCHAR(20),
+    new_status      VARCHAR(20),
+    status          VARCHAR(20) NOT NULL DEFAULT 'PENDING' COMMENT 'PENDING, PROCESSING, DONE, FAILED',
+    attempts        INT         NOT NULL DEFAULT 0,
+    next_attempt_at DATETIME    NOT NULL,
+    claimed_by      VARCHAR(36),
+    locked_until    DATETIME,
+    last_error      VARCHAR(500),
+    created_at      DATETIME DEFAULT CURRENT_TIMESTAMP,
+    processed_at    DATETIME,
+    INDEX idx_outbox_due (status, next_attempt_at),
+    INDEX idx_outbox_claimed (claimed_by)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Lịch sử đơn của khách hàng: phân trang keyset theo (created_at, order_id) mới nhất trước
+CREATE INDEX idx_order_customer_created ON `order` (customer_id, created_at, order_id);
+-- =============================================
+-- Tìm đơn ở trang quản trị: FULLTEXT ngram cho tên / SĐT người nhận (thay LIKE '%...%'),
+-- mã đơn dùng idx_order_code (so khớp tiền tố), keyset dùng idx_created (created_at, order_id)
+ALTER TABLE `order`
+    ADD FULLTEXT INDEX ft_order_receiver (receiver_name, receiver_phone) WITH PARSER ngram;
+-- =============================================
+-- Lượt dùng mã khuyến mãi: mỗi khách có usage_per_customer ô (usage_slot 1..n),
+-- UNIQUE chặn hai đơn đặt cùng lúc giữ cùng một ô; mỗi đơn giữ tối đa một lượt
+ALTER TABLE promotion_usage ADD COLUMN usage_slot INT NOT NULL DEFAULT 1 AFTER customer_id;
+
+UPDATE promotion_usage pu
+    JOIN (SELECT usage_id,
+                 ROW_NUMBER() OVER (PARTITION BY promotion_id, customer_id ORDER BY usage_id) AS slot
+          FROM promotion_usage) numbered ON numbered.usage_id = pu.usage_id
+SET pu.usage_slot = numbered.slot;
+
+ALTER TABLE promotion_usage
+    ADD UNIQUE KEY uk_promotion_usage_slot (promotion_id, customer_id, usage_slot),
+    ADD UNIQUE KEY uk_promotion_usage_order (order_id);
+-- =============================================
+-- Flash sale: số suất của sản phẩm bán từ pool token trong bộ nhớ (ACTIVE, CLOSING, ENDED),
+-- sold là số đã ghi xuống medical_device
+CREATE TABLE flash_sale_stock
+(
+    device_id  VARCHAR(50) NOT NULL PRIMARY KEY,
+    allocated  INT         NOT NULL,
+    sold       INT         NOT NULL DEFAULT 0,
+    status     VARCHAR(20) NOT NULL DEFAULT 'ACTIVE' COMMENT 'ACTIVE, CLOSING, ENDED',
+    started_at DATETIME    NOT NULL,
+    ended_at   DATETIME,
+    FOREIGN KEY (device_id) REFERENCES medical_device (device_id) ON DELETE CASCADE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+-- Nhật ký lấy (+) / trả (-) suất flash sale, ghi cùng transaction của đơn; được ghi gộp xuống
+-- medical_device rồi xóa, phần còn lại dùng để dựng lại pool khi khởi động
+CREATE TABLE flash_sale_reservation
+(
+    reservation_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    device_id      VARCHAR(50) NOT NULL,
+    quantity       INT         NOT NULL,
+    created_at     DATETIME    NOT NULL,
+    INDEX idx_flash_reservation_device (device_id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Giá bán sau giảm % tính sẵn (cột sinh), danh sách / giỏ hàng / thanh toán cùng đọc một giá
+ALTER TABLE medical_device
+    ADD COLUMN sale_price DECIMAL(15, 0)
+        AS (ROUND(price * (100 - COALESCE(discount_percent, 0)) / 100, 0)) STORED AFTER discount_percent;
+
+-- Lịch đổi giá: trong [start_at, end_at) sản phẩm dùng price / discount_percent của lịch (NULL = giữ nguyên),
+-- previous_* là giá trước khi lịch bắt đầu, được trả lại khi lịch kết thúc
+CREATE TABLE price_schedule
+(
+    schedule_id               INT AUTO_INCREMENT PRIMARY KEY,
+    device_id                 VARCHAR(50) NOT NULL,
+    start_at                  DATETIME    NOT NULL,
+    end_at                    DATETIME COMMENT 'NULL = đổi giá hẳn, không trả lại giá cũ',
+    price                     DECIMAL(15, 2),
+    discount_percent          INT,
+    status                    VARCHAR(20) NOT NULL DEFAULT 'SCHEDULED' COMMENT 'SCHEDULED, ACTIVE, ENDED, CANCELLED',
+    previous_price            DECIMAL(15, 2),
+    previous_discount_percent INT,
+    applied_at                DATETIME,
+    ended_at                  DATETIME,
+    created_at                DATETIME DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (device_id) REFERENCES medical_device (device_id) ON DELETE CASCADE,
+    INDEX idx_price_schedule_start (status, start_at),
+    INDEX idx_price_schedule_end (status, end_at),
+    INDEX idx_price_schedule_device (device_id, status),
+    CHECK (price IS NOT NULL OR discount_percent IS NOT NULL)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Sổ điểm tích lũy: loyalty_history chỉ thêm, customer.loyalty_points là số dư tính sẵn
+ALTER TABLE loyalty_history
+    MODIFY COLUMN type ENUM ('EARNED','REDEEMED','EXPIRED','BONUS','REFUND','ADJUSTMENT') DEFAULT 'EARNED',
+    ADD INDEX idx_loyalty_customer_created (customer_id, created_at);
+
+-- Số dư đầu kỳ: bút toán ADJUSTMENT cho phần chênh giữa số dư hiện tại và tổng lịch sử
+UPDATE customer SET loyalty_points = 0 WHERE loyalty_points IS NULL;
+
+INSERT INTO loyalty_history (customer_id, points, type, description)
+SELECT c.customer_id, c.loyalty_points - COALESCE(SUM(h.points), 0), 'ADJUSTMENT', 'Số dư đầu kỳ khi chuyển sang sổ điểm'
+FROM customer c
+         LEFT JOIN loyalty_history h ON h.customer_id = c.customer_id
+GROUP BY c.customer_id, c.loyalty_points
+HAVING c.loyalty_points <> COALESCE(SUM(h.points), 0);
+
+DELIMITER $$
+CREATE TRIGGER trg_loyalty_history_no_update
+    BEFORE UPDATE
+    ON loyalty_history
+    FOR EACH ROW
+BEGIN
+    SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'loyalty_history chỉ được thêm, không được sửa';
+END$$
+
+CREATE TRIGGER trg_loyalty_history_no_delete
+    BEFORE DELETE
+    ON loyalty_history
+    FOR EACH ROW
+BEGIN
+    SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'loyalty_history chỉ được thêm, không được xóa';
+END$$
+DELIMITER ;
+
+-- Số dư chụp mỗi đêm (chỉ khách có phát sinh): số dư tại thời điểm T = bản chụp gần nhất trước T
+-- + bút toán sau bản chụp
+CREATE TABLE loyalty_balance_snapshot
+(
+    customer_id INT      NOT NULL,
+    snapshot_at DATETIME NOT NULL,
+    balance     INT      NOT NULL,
+    PRIMARY KEY (customer_id, snapshot_at),
+    FOREIGN KEY (customer_id) REFERENCES customer (customer_id) ON DELETE CASCADE,
+    INDEX idx_loyalty_snapshot_at (snapshot_at)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+-- =============================================
+-- Flash sale: số suất được trừ khỏi stock_quantity ngay khi bật (phần chưa bán trả lại khi kết thúc).
+-- Flash sale đang chạy theo cách cũ: trừ phần chưa ghi xuống (allocated - sold)
+UPDATE medical_device m
+    JOIN flash_sale_stock f ON f.device_id = m.device_id
+SET m.stock_quantity = m.stock_quantity - (f.allocated - f.sold)
+WHERE f.status IN ('ACTIVE', 'CLOSING');
+-- =============================================
 -- =============================================
 -- KẾT THÚC SCRIPT
 -- =============================================
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.example.do_an_tot_nghiep;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+/**
+ * Lớp cha cho các test cần MySQL thật (khóa dòng, UPDATE có điều kiện, nhiều transaction đồng thời).
+ *
+ * - Một container dùng chung cho mọi lớp con (context Spring được cache giữa các lớp),
+ *   schema + dữ liệu mẫu nạp bằng chính medical_supplies_store.sql.
+ * - Máy không có Docker thì các test này được bỏ qua.
+ * - Mỗi test tự tạo dữ liệu riêng (mã có tiền tố IT-) và tự dọn sau khi chạy.
+ */
+@SpringBootTest(properties = "spring.config.on-not-found=ignore")
+@ActiveProfiles("it")
+@Testcontainers(disabledWithoutDocker = true)
+public abstract class MySqlIntegrationTest {
+
+    @ServiceConnection
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("medical_supplies_store")
+            .withCopyFileToContainer(MountableFile.forClasspathResource("medical_supplies_store.sql"),
+                    "/docker-entrypoint-initdb.d/medical_supplies_store.sql");
+
+    static {
+        MYSQL.start();
+    }
+}
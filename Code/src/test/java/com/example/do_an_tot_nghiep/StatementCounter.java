@@ -0,0 +1,90 @@
+package com.example.do_an_tot_nghiep;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Đếm số câu lệnh JDBC gửi xuống DB (mỗi execute* / executeBatch tính là một lượt),
+ * gồm cả Hibernate lẫn JdbcTemplate vì đếm ngay ở DataSource.
+ *
+ * Chỉ đếm trên luồng đã gọi {@link #start()}: job @Scheduled (outbox, flash sale...)
+ * chạy song song không làm sai kết quả. Dùng bằng @Import(StatementCounter.class).
+ */
+public class StatementCounter implements BeanPostProcessor {
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<>();
+
+    public static void start() {
+        COUNT.set(new int[1]);
+    }
+
+    public static int stop() {
+        int[] count = COUNT.get();
+        COUNT.remove();
+        return count != null ? count[0] : 0;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return wrap(dataSource, DataSource.class, (target, method, args) -> {
+                Object result = method.invoke(target, args);
+                return result instanceof Connection connection ? wrapConnection(connection) : result;
+            });
+        }
+        return bean;
+    }
+
+    private static Connection wrapConnection(Connection connection) {
+        return wrap(connection, Connection.class, (target, method, args) -> {
+            Object result = method.invoke(target, args);
+            if (result instanceof CallableStatement statement) {
+                return wrapStatement(statement, CallableStatement.class);
+            }
+            if (result instanceof PreparedStatement statement) {
+                return wrapStatement(statement, PreparedStatement.class);
+            }
+            if (result instanceof Statement statement) {
+                return wrapStatement(statement, Statement.class);
+            }
+            return result;
+        });
+    }
+
+    private static <T extends Statement> T wrapStatement(T statement, Class<T> type) {
+        return wrap(statement, type, (target, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                int[] count = COUNT.get();
+                if (count != null) {
+                    count[0]++;
+                }
+            }
+            return method.invoke(target, args);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Delegate {
+        Object invoke(Object target, Method method, Object[] args) throws Exception;
+    }
+
+    private static <T> T wrap(T target, Class<T> type, Delegate delegate) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return delegate.invoke(target, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
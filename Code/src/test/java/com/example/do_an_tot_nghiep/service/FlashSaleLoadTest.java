@@ -0,0 +1,139 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.MySqlIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test tải (./gradlew loadTest): đơn đồng thời vào một sản phẩm "nóng".
+ * So sánh trừ kho bằng UPDATE có điều kiện (khóa dòng medical_device tới khi commit)
+ * với flash sale (token trong bộ nhớ + INSERT nhật ký), yêu cầu flash sale đạt >= 10 lần thông lượng.
+ *
+ * Phần còn lại của transaction đặt hàng sau bước trừ kho (mã khuyến mãi, điểm, xóa giỏ, outbox, commit)
+ * được mô phỏng bằng SLEEP ORDER_TAIL_MS: với đường khóa dòng, thời gian này là thời gian giữ khóa.
+ */
+@Tag("load")
+@TestPropertySource(properties = "spring.datasource.hikari.maximum-pool-size=" + (FlashSaleLoadTest.THREADS + 8))
+class FlashSaleLoadTest extends MySqlIntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleLoadTest.class);
+
+    static final int THREADS = 48;
+    private static final Duration RUN_TIME = Duration.ofSeconds(10);
+    private static final double ORDER_TAIL_MS = 5;
+    private static final String ROW_LOCK_DEVICE = "IT-HOT-ROW";
+    private static final String FLASH_SALE_DEVICE = "IT-HOT-FLASH";
+    private static final int STOCK = 1_000_000;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void createDevices() {
+        for (String deviceId : List.of(ROW_LOCK_DEVICE, FLASH_SALE_DEVICE)) {
+            jdbcTemplate.update("INSERT INTO medical_device (device_id, name, price, stock_quantity, sold_count) " +
+                    "VALUES (?, ?, 100000, ?, 0)", deviceId, "Test " + deviceId, STOCK);
+        }
+    }
+
+    @AfterEach
+    void deleteDevices() {
+        if (flashSaleService.isActive(FLASH_SALE_DEVICE)) {
+            flashSaleService.stop(FLASH_SALE_DEVICE);
+        }
+        flashSaleService.flush();
+        jdbcTemplate.update("DELETE FROM flash_sale_reservation WHERE device_id LIKE 'IT-HOT-%'");
+        jdbcTemplate.update("DELETE FROM medical_device WHERE device_id LIKE 'IT-HOT-%'");
+    }
+
+    @Test
+    void flashSaleOutperformsRowLockOnHotSku() throws Exception {
+        long rowLockOrders = run(ROW_LOCK_DEVICE);
+
+        flashSaleService.start(FLASH_SALE_DEVICE, STOCK);
+        long flashSaleOrders = run(FLASH_SALE_DEVICE);
+
+        double seconds = RUN_TIME.toMillis() / 1000.0;
+        double rowLockRate = rowLockOrders / seconds;
+        double flashSaleRate = flashSaleOrders / seconds;
+        log.info("Sản phẩm nóng, {} luồng: khóa dòng {} đơn/s, flash sale {} đơn/s ({}x)",
+                THREADS, Math.round(rowLockRate), Math.round(flashSaleRate),
+                Math.round(flashSaleRate / rowLockRate * 10) / 10.0);
+
+        assertTrue(flashSaleRate >= 10 * rowLockRate,
+                "Row lock " + rowLockRate + "/s, flash sale " + flashSaleRate + "/s");
+
+        // Không mất đơn vị nào: sau khi chốt, đã bán + tồn kho = ban đầu
+        flashSaleService.flush();
+        flashSaleService.stop(FLASH_SALE_DEVICE);
+        flashSaleService.flush();
+        for (String deviceId : List.of(ROW_LOCK_DEVICE, FLASH_SALE_DEVICE)) {
+            assertEquals(STOCK, jdbcTemplate.queryForObject(
+                    "SELECT stock_quantity + sold_count FROM medical_device WHERE device_id = ?",
+                    Integer.class, deviceId));
+        }
+        assertEquals(flashSaleOrders, (long) jdbcTemplate.queryForObject(
+                "SELECT sold_count FROM medical_device WHERE device_id = ?", Integer.class, FLASH_SALE_DEVICE));
+    }
+
+    /**
+     * THREADS luồng đặt liên tục đơn 1 sản phẩm trong RUN_TIME; trả về số đơn đã commit
+     */
+    private long run(String deviceId) throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                long deadline = System.nanoTime() + RUN_TIME.toNanos();
+                long orders = 0;
+                while (System.nanoTime() < deadline) {
+                    tx.executeWithoutResult(status -> {
+                        stockService.reserve(Map.of(deviceId, 1));
+                        jdbcTemplate.queryForObject("SELECT SLEEP(?)", Integer.class, ORDER_TAIL_MS / 1000);
+                    });
+                    orders++;
+                }
+                return orders;
+            }));
+        }
+        start.countDown();
+        long orders = 0;
+        for (Future<Long> result : results) {
+            orders += result.get();
+        }
+        executor.shutdown();
+        return orders;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.MySqlIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Vòng đời flash sale trên MySQL: start trừ suất khỏi stock_quantity, đơn lấy token + ghi nhật ký,
+ * flush cộng sold_count / sold rồi xóa nhật ký, finish trả phần chưa bán về stock_quantity.
+ */
+class FlashSaleServiceTest extends MySqlIntegrationTest {
+
+    private static final String DEVICE = "IT-FLASH-1";
+    private static final int INITIAL_STOCK = 100;
+    private static final int ALLOCATED = 30;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void createDevice() {
+        tx = new TransactionTemplate(transactionManager);
+        jdbcTemplate.update("INSERT INTO medical_device (device_id, name, price, stock_quantity, sold_count) " +
+                "VALUES (?, 'Test flash sale', 100000, ?, 0)", DEVICE, INITIAL_STOCK);
+    }
+
+    @AfterEach
+    void deleteDevice() {
+        if (flashSaleService.isActive(DEVICE)) {
+            flashSaleService.stop(DEVICE);
+        }
+        flashSaleService.flush();
+        jdbcTemplate.update("DELETE FROM flash_sale_reservation WHERE device_id = ?", DEVICE);
+        jdbcTemplate.update("DELETE FROM medical_device WHERE device_id = ?", DEVICE);
+    }
+
+    @Test
+    void startMovesAllocationOutOfStock() {
+        flashSaleService.start(DEVICE, ALLOCATED);
+
+        assertTrue(flashSaleService.isActive(DEVICE));
+        assertEquals(INITIAL_STOCK - ALLOCATED, stock());
+        assertThrows(IllegalArgumentException.class, () -> flashSaleService.start(DEVICE, 1));
+    }
+
+    @Test
+    void flushAndFinishKeepStockAccountingExact() throws Exception {
+        flashSaleService.start(DEVICE, ALLOCATED);
+
+        // 16 luồng mua từng suất đến khi hết, khoảng 1/5 đơn rollback (token quay lại pool)
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                int sold = 0;
+                int failures = 0;
+                while (failures < 20) {
+                    boolean rollback = ThreadLocalRandom.current().nextInt(5) == 0;
+                    try {
+                        tx.executeWithoutResult(status -> {
+                            stockService.reserve(Map.of(DEVICE, 1));
+                            if (rollback) {
+                                status.setRollbackOnly();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        failures++;
+                        continue;
+                    }
+                    if (!rollback) {
+                        sold++;
+                    }
+                }
+                return sold;
+            }));
+        }
+        start.countDown();
+        int sold = 0;
+        for (Future<Integer> result : results) {
+            sold += result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(ALLOCATED, sold);
+        // Suất flash sale không chạm tồn kho thường
+        assertEquals(INITIAL_STOCK - ALLOCATED, stock());
+
+        // Hủy một đơn 3 suất trong lúc flash sale còn chạy: token quay lại pool, nhật ký ghi -3
+        tx.executeWithoutResult(status -> stockService.release(Map.of(DEVICE, 3)));
+        int netSold = sold - 3;
+
+        flashSaleService.flush();
+        assertEquals(0, reservationRows());
+        assertEquals(netSold, soldCount());
+        assertEquals(netSold, flashSaleSold());
+        assertEquals(INITIAL_STOCK - ALLOCATED, stock());
+
+        // Tắt: lần flush kế tiếp chốt, trả phần chưa bán về kho thường
+        flashSaleService.stop(DEVICE);
+        flashSaleService.flush();
+
+        assertFalse(flashSaleService.isActive(DEVICE));
+        assertEquals("ENDED", jdbcTemplate.queryForObject(
+                "SELECT status FROM flash_sale_stock WHERE device_id = ?", String.class, DEVICE));
+        assertEquals(INITIAL_STOCK - netSold, stock());
+        assertEquals(netSold, soldCount());
+
+        // Sau khi kết thúc, đơn trừ kho trực tiếp và chỉ lấy được đúng phần còn lại
+        tx.executeWithoutResult(status -> stockService.reserve(Map.of(DEVICE, INITIAL_STOCK - netSold)));
+        assertEquals(0, stock());
+        assertThrows(RuntimeException.class,
+                () -> tx.executeWithoutResult(status -> stockService.reserve(Map.of(DEVICE, 1))));
+    }
+
+    private int stock() {
+        return jdbcTemplate.queryForObject(
+                "SELECT stock_quantity FROM medical_device WHERE device_id = ?", Integer.class, DEVICE);
+    }
+
+    private int soldCount() {
+        return jdbcTemplate.queryForObject(
+                "SELECT sold_count FROM medical_device WHERE device_id = ?", Integer.class, DEVICE);
+    }
+
+    private int flashSaleSold() {
+        return jdbcTemplate.queryForObject(
+                "SELECT sold FROM flash_sale_stock WHERE device_id = ?", Integer.class, DEVICE);
+    }
+
+    private int reservationRows() {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM flash_sale_reservation WHERE device_id = ?", Integer.class, DEVICE);
+    }
+}
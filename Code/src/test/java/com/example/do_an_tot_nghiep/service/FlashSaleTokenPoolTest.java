@@ -0,0 +1,98 @@
+package com.example.do_an_tot_nghiep.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlashSaleTokenPoolTest {
+
+    @Test
+    void takesUntilPoolIsEmpty() {
+        FlashSaleTokenPool pool = new FlashSaleTokenPool("TB001", 5, 5);
+
+        assertTrue(pool.tryTake(3));
+        assertTrue(pool.tryTake(2));
+        assertFalse(pool.tryTake(1));
+        assertEquals(0, pool.getRemaining());
+        assertEquals(2, pool.getInFlight());
+    }
+
+    @Test
+    void rollbackReturnsTokens() {
+        FlashSaleTokenPool pool = new FlashSaleTokenPool("TB001", 5, 5);
+
+        assertTrue(pool.tryTake(4));
+        pool.complete(4, false);
+        assertEquals(5, pool.getRemaining());
+
+        assertTrue(pool.tryTake(4));
+        pool.complete(4, true);
+        assertEquals(1, pool.getRemaining());
+        assertEquals(0, pool.getInFlight());
+    }
+
+    @Test
+    void closedPoolDrainsAfterInFlightTransactionsComplete() {
+        FlashSaleTokenPool pool = new FlashSaleTokenPool("TB001", 10, 10);
+
+        assertTrue(pool.tryTake(2));
+        pool.close();
+        assertFalse(pool.tryTake(1));
+        assertFalse(pool.isDrained());
+
+        pool.complete(2, true);
+        assertTrue(pool.isDrained());
+        assertEquals(8, pool.getRemaining());
+    }
+
+    @Test
+    void neverOversellsAcrossThreads() throws Exception {
+        int units = 10_000;
+        int threads = 32;
+        FlashSaleTokenPool pool = new FlashSaleTokenPool("TB001", units, units);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                int sold = 0;
+                int failures = 0;
+                // Mỗi "đơn" lấy 1-3 token, khoảng 1/10 đơn rollback
+                while (failures < 1000) {
+                    int quantity = ThreadLocalRandom.current().nextInt(1, 4);
+                    if (!pool.tryTake(quantity)) {
+                        failures++;
+                        continue;
+                    }
+                    boolean committed = ThreadLocalRandom.current().nextInt(10) != 0;
+                    pool.complete(quantity, committed);
+                    if (committed) {
+                        sold += quantity;
+                    }
+                }
+                return sold;
+            }));
+        }
+        start.countDown();
+
+        int sold = 0;
+        for (Future<Integer> result : results) {
+            sold += result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(units, sold + pool.getRemaining());
+        assertTrue(pool.getRemaining() < 3, "Remaining tokens " + pool.getRemaining());
+        assertEquals(0, pool.getInFlight());
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.do_an_tot_nghiep.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderCodeAllocatorTest {
+
+    private static final LocalDate DAY = LocalDate.of(2025, 10, 17);
+    private static final String DAY_PREFIX = "ORD20251017";
+
+    /**
+     * Giả lập bảng order_code_sequence: mỗi ngày một bộ đếm dùng chung
+     */
+    private static class InMemoryBlockSource implements OrderCodeAllocator.BlockSource {
+        private final Map<LocalDate, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final AtomicInteger reservations = new AtomicInteger();
+
+        @Override
+        public long reserveBlock(LocalDate date, int size) {
+            reservations.incrementAndGet();
+            return counters.computeIfAbsent(date, d -> new AtomicLong(OrderCodeAllocator.FIRST_VALUE))
+                    .getAndAdd(size);
+        }
+    }
+
+    private static Clock fixedClock(LocalDate date) {
+        return Clock.fixed(date.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC);
+    }
+
+    @Test
+    void codesAreDatePrefixedAndSequential() {
+        InMemoryBlockSource source = new InMemoryBlockSource();
+        OrderCodeAllocator allocator = new OrderCodeAllocator(source, fixedClock(DAY), 100);
+
+        assertEquals("ORD2025101710000", allocator.nextCode());
+        assertEquals("ORD2025101710001", allocator.nextCode());
+        assertEquals(1, source.reservations.get());
+    }
+
+    @Test
+    void reservesOneBlockPerBlockSizeCodes() {
+        InMemoryBlockSource source = new InMemoryBlockSource();
+        OrderCodeAllocator allocator = new OrderCodeAllocator(source, fixedClock(DAY), 100);
+
+        for (int i = 0; i < 1_000; i++) {
+            allocator.nextCode();
+        }
+        assertEquals(10, source.reservations.get());
+    }
+
+    @Test
+    void startsNewBlockWhenDateChanges() {
+        InMemoryBlockSource source = new InMemoryBlockSource();
+        MutableClock clock = new MutableClock(fixedClock(DAY).instant());
+        OrderCodeAllocator allocator = new OrderCodeAllocator(source, clock, 100);
+
+        assertEquals("ORD2025101710000", allocator.nextCode());
+        clock.instant = fixedClock(DAY.plusDays(1)).instant();
+        assertEquals("ORD2025101810000", allocator.nextCode());
+    }
+
+    @Test
+    void noDuplicatesAcrossThreadsAndNodes() throws Exception {
+        int nodes = 3;
+        int threadsPerNode = 4;
+        int codesPerThread = 200_000;
+
+        InMemoryBlockSource source = new InMemoryBlockSource();
+        List<OrderCodeAllocator> allocators = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            allocators.add(new OrderCodeAllocator(source, fixedClock(DAY), 100));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nodes * threadsPerNode);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int t = 0; t < nodes * threadsPerNode; t++) {
+            OrderCodeAllocator allocator = allocators.get(t % nodes);
+            results.add(pool.submit(() -> {
+                start.await();
+                long[] values = new long[codesPerThread];
+                for (int i = 0; i < codesPerThread; i++) {
+                    String code = allocator.nextCode();
+                    if (!code.startsWith(DAY_PREFIX)) {
+                        throw new IllegalStateException("Unexpected code: " + code);
+                    }
+                    values[i] = Long.parseLong(code.substring(DAY_PREFIX.length()));
+                }
+                return values;
+            }));
+        }
+        start.countDown();
+
+        long[] all = new long[nodes * threadsPerNode * codesPerThread];
+        int offset = 0;
+        for (Future<long[]> result : results) {
+            long[] values = result.get();
+            System.arraycopy(values, 0, all, offset, values.length);
+            offset += values.length;
+        }
+        pool.shutdown();
+
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertNotEquals(all[i - 1], all[i], "Duplicate order code value " + all[i]);
+        }
+        assertTrue(all[0] >= OrderCodeAllocator.FIRST_VALUE);
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.MySqlIntegrationTest;
+import com.example.do_an_tot_nghiep.StatementCounter;
+import com.example.do_an_tot_nghiep.dto.OrderItemRequest;
+import com.example.do_an_tot_nghiep.dto.OrderRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Số câu lệnh SQL của createOrder không được tăng theo số dòng trong giỏ
+ * (chi tiết đơn ghi bằng một batch, trừ kho bằng một UPDATE cho cả đơn).
+ * Đồng thời ghi lại thời gian tạo đơn cho giỏ 1 / 10 / 50 dòng.
+ */
+@Import(StatementCounter.class)
+class OrderServiceStatementCountTest extends MySqlIntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderServiceStatementCountTest.class);
+
+    private static final int MAX_LINES = 50;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private IOrderService orderService;
+
+    @Autowired
+    private CartPricingEngine cartPricingEngine;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Integer customerId;
+
+    @BeforeEach
+    void createFixtures() {
+        jdbcTemplate.update("INSERT INTO customer (username, password_hash, full_name) " +
+                "VALUES ('it-order-count', 'x', 'IT Order Count')");
+        customerId = jdbcTemplate.queryForObject(
+                "SELECT customer_id FROM customer WHERE username = 'it-order-count'", Integer.class);
+        for (int i = 1; i <= MAX_LINES; i++) {
+            jdbcTemplate.update("INSERT INTO medical_device (device_id, name, price, stock_quantity) " +
+                    "VALUES (?, ?, 100000, 100000)", deviceId(i), "Test " + deviceId(i));
+        }
+    }
+
+    @AfterEach
+    void deleteFixtures() {
+        jdbcTemplate.update("DELETE FROM order_outbox WHERE order_id IN " +
+                "(SELECT order_id FROM `order` WHERE customer_id = ?)", customerId);
+        jdbcTemplate.update("DELETE FROM order_detail WHERE order_id IN " +
+                "(SELECT order_id FROM `order` WHERE customer_id = ?)", customerId);
+        jdbcTemplate.update("DELETE FROM `order` WHERE customer_id = ?", customerId);
+        jdbcTemplate.update("DELETE FROM cart WHERE customer_id = ?", customerId);
+        jdbcTemplate.update("DELETE FROM customer WHERE customer_id = ?", customerId);
+        jdbcTemplate.update("DELETE FROM medical_device WHERE device_id LIKE 'IT-ORDER-%'");
+    }
+
+    @Test
+    void statementCountDoesNotGrowWithCartSize() {
+        Map<Integer, Integer> statements = new LinkedHashMap<>();
+        for (int lines : new int[]{1, 10, MAX_LINES}) {
+            int fewest = Integer.MAX_VALUE;
+            long[] nanos = new long[ROUNDS];
+            // Lấy số nhỏ nhất qua nhiều lượt: lượt đầu còn nạp cache, cấp dải mã đơn thỉnh thoảng mới chạm DB
+            for (int round = 0; round < ROUNDS; round++) {
+                OrderRequest request = fillCart(lines);
+
+                StatementCounter.start();
+                long started = System.nanoTime();
+                orderService.createOrder(request);
+                nanos[round] = System.nanoTime() - started;
+                fewest = Math.min(fewest, StatementCounter.stop());
+            }
+            Arrays.sort(nanos);
+            statements.put(lines, fewest);
+            log.info("createOrder {} dòng: {} câu lệnh, median {} ms", lines, fewest, nanos[ROUNDS / 2] / 1_000_000.0);
+        }
+
+        assertEquals(statements.get(1), statements.get(10), "Statements per order " + statements);
+        assertEquals(statements.get(1), statements.get(MAX_LINES), "Statements per order " + statements);
+    }
+
+    private OrderRequest fillCart(int lines) {
+        List<OrderItemRequest> items = new ArrayList<>();
+        for (int i = 1; i <= lines; i++) {
+            jdbcTemplate.update("INSERT INTO cart (customer_id, device_id, quantity) VALUES (?, ?, 1)",
+                    customerId, deviceId(i));
+            items.add(new OrderItemRequest(deviceId(i), 1));
+        }
+        cartPricingEngine.invalidate(customerId);
+
+        OrderRequest request = new OrderRequest();
+        request.setCustomerId(customerId);
+        request.setReceiverName("IT Order Count");
+        request.setReceiverPhone("0900000000");
+        request.setReceiverAddress("Test");
+        request.setPaymentMethod("COD");
+        request.setLoyaltyPointsUsed(0);
+        request.setItems(items);
+        return request;
+    }
+
+    private static String deviceId(int i) {
+        return String.format("IT-ORDER-%02d", i);
+    }
+}
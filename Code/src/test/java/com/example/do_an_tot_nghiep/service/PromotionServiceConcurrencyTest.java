@@ -0,0 +1,185 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.MySqlIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nhiều đơn cùng giành một mã khuyến mãi: số lượt giành được đúng bằng usage_limit / usage_per_customer,
+ * used_count khớp với promotion_usage, và trả lượt (kể cả gọi lặp) chỉ trả một lần.
+ */
+class PromotionServiceConcurrencyTest extends MySqlIntegrationTest {
+
+    private static final int THREADS = 32;
+    private static final BigDecimal DISCOUNT = new BigDecimal("10000");
+
+    @Autowired
+    private PromotionService promotionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void deleteFixtures() {
+        jdbcTemplate.update("DELETE FROM promotion_usage WHERE promotion_id IN " +
+                "(SELECT promotion_id FROM promotion WHERE code LIKE 'IT-PROMO-%')");
+        jdbcTemplate.update("DELETE FROM `order` WHERE order_code LIKE 'IT-PROMO-%'");
+        jdbcTemplate.update("DELETE FROM customer WHERE username LIKE 'it-promo-%'");
+        jdbcTemplate.update("DELETE FROM promotion WHERE code LIKE 'IT-PROMO-%'");
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PROMOTION, null));
+    }
+
+    @Test
+    void usageLimitIsEnforcedExactlyUnderContention() throws Exception {
+        int limit = 20;
+        int promotionId = createPromotion("IT-PROMO-LIMIT", limit, 1);
+        List<Integer> orders = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int customerId = createCustomer("it-promo-limit-" + i);
+            orders.add(createOrder("IT-PROMO-L" + i, customerId));
+        }
+
+        List<Integer> claimed = claimConcurrently(promotionId, orders);
+
+        assertEquals(limit, claimed.size());
+        assertUsage(promotionId, limit);
+
+        // Trả lượt của 5 đơn, mỗi đơn gọi 2 lần song song: chỉ được trả một lần
+        List<Integer> released = claimed.subList(0, 5);
+        List<Callable<Boolean>> releases = new ArrayList<>();
+        for (Integer orderId : released) {
+            releases.add(() -> promotionService.releasePromotion(orderId));
+            releases.add(() -> promotionService.releasePromotion(orderId));
+        }
+        long releasedCount = runConcurrently(releases).stream().filter(Boolean::booleanValue).count();
+
+        assertEquals(released.size(), releasedCount);
+        assertUsage(promotionId, limit - released.size());
+
+        // Lượt vừa trả lại được giành lại, không hơn
+        List<Integer> waiting = new ArrayList<>(orders);
+        waiting.removeAll(claimed);
+        assertEquals(released.size(), claimConcurrently(promotionId, waiting).size());
+        assertUsage(promotionId, limit);
+    }
+
+    @Test
+    void perCustomerLimitIsEnforcedExactlyUnderContention() throws Exception {
+        int perCustomer = 2;
+        int promotionId = createPromotion("IT-PROMO-CUSTOMER", null, perCustomer);
+        int customerId = createCustomer("it-promo-customer");
+        List<Integer> orders = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            orders.add(createOrder("IT-PROMO-C" + i, customerId));
+        }
+
+        assertEquals(perCustomer, claimConcurrently(promotionId, orders).size());
+        assertUsage(promotionId, perCustomer);
+    }
+
+    /**
+     * Mỗi đơn giành mã trong transaction riêng, tất cả cùng xuất phát; trả về các đơn giành được
+     */
+    private List<Integer> claimConcurrently(int promotionId, List<Integer> orderIds) throws Exception {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Integer orderId : orderIds) {
+            int customerId = jdbcTemplate.queryForObject(
+                    "SELECT customer_id FROM `order` WHERE order_id = ?", Integer.class, orderId);
+            tasks.add(() -> {
+                try {
+                    tx.executeWithoutResult(status ->
+                            promotionService.claimPromotion(promotionId, customerId, orderId, DISCOUNT));
+                    return true;
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            });
+        }
+        List<Boolean> results = runConcurrently(tasks);
+        List<Integer> claimed = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i)) {
+                claimed.add(orderIds.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    private <T> List<T> runConcurrently(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private void assertUsage(int promotionId, int expected) {
+        assertEquals(expected, jdbcTemplate.queryForObject(
+                "SELECT used_count FROM promotion WHERE promotion_id = ?", Integer.class, promotionId));
+        assertEquals(expected, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM promotion_usage WHERE promotion_id = ?", Integer.class, promotionId));
+    }
+
+    private int createPromotion(String code, Integer usageLimit, int usagePerCustomer) {
+        jdbcTemplate.update("INSERT INTO promotion (code, name, discount_type, discount_value, usage_limit, " +
+                        "used_count, usage_per_customer, start_date, end_date, is_active) " +
+                        "VALUES (?, ?, 'Fixed', 10000, ?, 0, ?, NOW() - INTERVAL 1 DAY, NOW() + INTERVAL 1 DAY, TRUE)",
+                code, code, usageLimit, usagePerCustomer);
+        // Chỉ mục khuyến mãi trong bộ nhớ dựng lại để thấy mã mới
+        eventPublisher.publishEvent(CatalogChangedEvent.of(CatalogChangedEvent.Type.PROMOTION, code));
+        return jdbcTemplate.queryForObject("SELECT promotion_id FROM promotion WHERE code = ?", Integer.class, code);
+    }
+
+    private int createCustomer(String username) {
+        jdbcTemplate.update("INSERT INTO customer (username, password_hash) VALUES (?, 'x')", username);
+        return jdbcTemplate.queryForObject("SELECT customer_id FROM customer WHERE username = ?", Integer.class, username);
+    }
+
+    private int createOrder(String orderCode, int customerId) {
+        jdbcTemplate.update("INSERT INTO `order` (order_code, customer_id, receiver_name, receiver_phone, " +
+                "receiver_address, subtotal, total_price) VALUES (?, ?, 'Test', '0900000000', 'Test', 100000, 100000)",
+                orderCode, customerId);
+        return jdbcTemplate.queryForObject("SELECT order_id FROM `order` WHERE order_code = ?", Integer.class, orderCode);
+    }
+}
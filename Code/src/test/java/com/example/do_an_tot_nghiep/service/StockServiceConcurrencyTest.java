@@ -0,0 +1,135 @@
+package com.example.do_an_tot_nghiep.service;
+
+import com.example.do_an_tot_nghiep.MySqlIntegrationTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nhiều checkout đồng thời trên cùng vài sản phẩm: kho không bao giờ âm
+ * và sold_count đúng bằng số đơn vị của các transaction đã commit.
+ */
+class StockServiceConcurrencyTest extends MySqlIntegrationTest {
+
+    private static final List<String> DEVICES = List.of("IT-STOCK-1", "IT-STOCK-2", "IT-STOCK-3");
+    private static final int INITIAL_STOCK = 200;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void createDevices() {
+        for (String deviceId : DEVICES) {
+            jdbcTemplate.update("INSERT INTO medical_device (device_id, name, price, stock_quantity, sold_count) " +
+                    "VALUES (?, ?, 100000, ?, 0)", deviceId, "Test " + deviceId, INITIAL_STOCK);
+        }
+    }
+
+    @AfterEach
+    void deleteDevices() {
+        jdbcTemplate.update("DELETE FROM medical_device WHERE device_id LIKE 'IT-STOCK-%'");
+    }
+
+    @Test
+    void concurrentCheckoutsNeverOversell() throws Exception {
+        int threads = 16;
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Map<String, AtomicInteger> committed = new ConcurrentHashMap<>();
+        DEVICES.forEach(id -> committed.put(id, new AtomicInteger()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                int failures = 0;
+                // Giỏ 1-3 sản phẩm, mỗi dòng 1-3 đơn vị; khoảng 1/10 đơn lỗi sau khi đã giữ kho và rollback
+                while (failures < 200) {
+                    Map<String, Integer> cart = randomCart();
+                    boolean rollback = ThreadLocalRandom.current().nextInt(10) == 0;
+                    try {
+                        tx.executeWithoutResult(status -> {
+                            stockService.reserve(cart);
+                            if (rollback) {
+                                status.setRollbackOnly();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        failures++;
+                        continue;
+                    }
+                    if (rollback) {
+                        continue;
+                    }
+                    cart.forEach((id, quantity) -> committed.get(id).addAndGet(quantity));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        for (String deviceId : DEVICES) {
+            Map<String, Object> row = jdbcTemplate.queryForMap(
+                    "SELECT stock_quantity, sold_count FROM medical_device WHERE device_id = ?", deviceId);
+            int stock = ((Number) row.get("stock_quantity")).intValue();
+            int sold = ((Number) row.get("sold_count")).intValue();
+
+            assertTrue(stock >= 0, deviceId + " stock " + stock);
+            assertEquals(committed.get(deviceId).get(), sold, deviceId + " sold_count");
+            assertEquals(INITIAL_STOCK, stock + sold, deviceId + " stock + sold");
+        }
+    }
+
+    @Test
+    void shortLineRollsBackWholeCart() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        jdbcTemplate.update("UPDATE medical_device SET stock_quantity = 1 WHERE device_id = 'IT-STOCK-3'");
+
+        Map<String, Integer> cart = Map.of("IT-STOCK-1", 5, "IT-STOCK-3", 2);
+        assertThrows(RuntimeException.class, () -> tx.executeWithoutResult(status -> stockService.reserve(cart)));
+
+        assertEquals(INITIAL_STOCK, jdbcTemplate.queryForObject(
+                "SELECT stock_quantity FROM medical_device WHERE device_id = 'IT-STOCK-1'", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT stock_quantity FROM medical_device WHERE device_id = 'IT-STOCK-3'", Integer.class));
+    }
+
+    private Map<String, Integer> randomCart() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Integer> cart = new HashMap<>();
+        int lines = random.nextInt(1, DEVICES.size() + 1);
+        for (int i = 0; i < lines; i++) {
+            cart.put(DEVICES.get(random.nextInt(DEVICES.size())), random.nextInt(1, 4));
+        }
+        return cart;
+    }
+}